@@ -0,0 +1,144 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Complete search() and retrieve() calls, from the bridge request to the returned records.
+ * <p>
+ * The adapter talks to a WAPI stub on the loopback interface that serves the synthetic payload
+ * for every query, so the numbers include the HTTP client and connection pool but not the
+ * network or the time a real grid spends answering. The result cache and mirror are left at
+ * their defaults (off) so every call reaches the stub. The stub disables Nagle's algorithm, which
+ * would otherwise hold small responses back for the client's delayed ACK.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class AdapterBenchmark {
+
+    private static final String SESSION_COOKIE = "ibapauth=\"ip=127.0.0.1,client=API,group=admin,"
+        + "ctime=1,timeout=600,mtime=1,su=1,auth=LOCAL,user=admin,bEnChMaRk\"; httponly; Path=/";
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"record:host", "network"})
+    public String structure;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private InfobloxAdapter adapter;
+    private byte[] payload;
+    private byte[] singlePayload;
+
+    @Setup
+    public void setup() throws IOException, BridgeError {
+        payload = WapiPayloads.generate(structure, size);
+        singlePayload = WapiPayloads.generate(structure, 1);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/", new WapiHandler());
+        server.start();
+
+        Map<String,String> properties = new LinkedHashMap<>();
+        properties.put(InfobloxAdapter.Properties.PROPERTY_HOST,
+            "http://127.0.0.1:" + server.getAddress().getPort());
+        properties.put(InfobloxAdapter.Properties.PROPERTY_USERNAME, "admin");
+        properties.put(InfobloxAdapter.Properties.PROPERTY_PASSWORD, "infoblox");
+        adapter = new InfobloxAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+    }
+
+    @TearDown
+    public void tearDown() {
+        adapter.destroy();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /** Returns every matching object, without paging. */
+    @Benchmark
+    public RecordList search() throws BridgeError {
+        return adapter.search(request("network".equals(structure) ? "network_view=default" : "view=default"));
+    }
+
+    /** Returns a single object. The stub answers with one object whatever the size. */
+    @Benchmark
+    public Record retrieve() throws BridgeError {
+        return adapter.retrieve(request("network".equals(structure)
+            ? "network=<%=parameter[\"Network\"]%>" : "name=<%=parameter[\"Name\"]%>"));
+    }
+
+    private BridgeRequest request(String query) {
+        Map<String,String> parameters = new LinkedHashMap<>();
+        parameters.put("Name", "host0.corp.example.com");
+        parameters.put("Network", "10.0.0.0/24");
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure(structure);
+        request.setFields(new ArrayList<>(WapiPayloads.fields(structure)));
+        request.setQuery(query);
+        request.setParameters(parameters);
+        request.setMetadata(new LinkedHashMap<String,String>());
+        return request;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Answers logins with a session cookie and every other query with the payload. */
+    private class WapiHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getRawQuery();
+            byte[] body;
+            if (query == null || query.contains("_schema")) {
+                exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE);
+                body = "{}".getBytes(WapiPayloads.UTF_8);
+            } else if (query.contains("_max_results=-2")) {
+                body = singlePayload;
+            } else {
+                body = payload;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so allocation rates (gc.alloc.rate.norm is
+ * the bytes allocated per operation) are reported alongside throughput. Accepts the standard JMH
+ * command line, for example <code>java -jar target/benchmarks.jar ResponseParser -p size=1000</code>.
+ * Profilers given with <code>-prof</code> replace the GC profiler.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+            || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()
+            || !commandLine.getProfilers().isEmpty())
+        {
+            Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
@@ -0,0 +1,72 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Projection of parsed WAPI results onto bridge fields (see {@link InfobloxFieldPlan}), which
+ * replaced the per record field list parsing and lookups of the original adapter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldPlanBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"record:host", "network"})
+    public String structure;
+
+    private List<JSONObject> results;
+    private List<String> fields;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        results = new ArrayList<>(WapiPayloads.results(structure, size));
+        // A copy of the field list, as each bridge request carries its own
+        fields = new ArrayList<>(WapiPayloads.fields(structure));
+    }
+
+    /** Looks up the plan for the requested fields, once per request. */
+    @Benchmark
+    public InfobloxFieldPlan forFields() {
+        return InfobloxFieldPlan.forFields(fields);
+    }
+
+    /** Projects every result as search() does. */
+    @Benchmark
+    public void project(Blackhole blackhole) {
+        InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(fields);
+        for (JSONObject result : results) {
+            blackhole.consume(plan.project(result));
+        }
+    }
+
+    /** Projects every result with the values converted to strings, as retrieve() does. */
+    @Benchmark
+    public void projectToStrings(Blackhole blackhole) {
+        InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(fields);
+        for (JSONObject result : results) {
+            blackhole.consume(plan.project(result, true));
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Drives an adapter from concurrent threads against a {@link WapiSimulator} and reports the
+ * throughput, latency, connections and heap use seen over the run.
+ * <p>
+ * Usage: <code>java -cp target/benchmarks.jar com.kineticdata.bridgehub.adapter.infoblox.LoadTest
+ * [--option=value ...]</code>, see {@link #OPTIONS} for the options and their defaults. Adapter
+ * properties are set with <code>--property=Name=value</code>, which can be repeated.
+ * <p>
+ * The simulator runs in the same JVM, so the heap figures include its data set and the CPU it
+ * uses is not available to the adapter. Compare runs made with the same options.
+ */
+public class LoadTest {
+
+    /** The options and their defaults. */
+    static final Map<String,String> OPTIONS = new LinkedHashMap<>();
+    static {
+        OPTIONS.put("threads", "16");
+        OPTIONS.put("warmup", "5");                 // seconds
+        OPTIONS.put("duration", "30");              // seconds
+        OPTIONS.put("operation", "retrieve");       // retrieve, search, count or mix
+        OPTIONS.put("structure", "record:host");    // record:host or network
+        OPTIONS.put("objects", "10000");
+        OPTIONS.put("page-size", "50");             // search page size, 0 for unpaged
+        OPTIONS.put("https", "false");
+        OPTIONS.put("latency", "0");                // milliseconds added to every response
+        OPTIONS.put("jitter", "0");                 // random milliseconds added on top
+        OPTIONS.put("error-rate", "0");             // fraction of requests failed
+        OPTIONS.put("error-status", "503");
+        OPTIONS.put("max-results", "1000");         // the grid's limit on unpaged results
+        OPTIONS.put("sessions", "true");
+        OPTIONS.put("multi-request", "true");
+        OPTIONS.put("server-threads", "64");
+    }
+
+    private final Map<String,String> options;
+    private final Map<String,String> properties;
+    private final String structure;
+    private final List<JSONObject> objects;
+    private final InfobloxMetrics.Histogram histogram = new InfobloxMetrics.Histogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final ConcurrentMap<String,AtomicLong> errors = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+    private volatile boolean stopped;
+
+    @SuppressWarnings("unchecked")
+    LoadTest(Map<String,String> options, Map<String,String> properties) {
+        this.options = options;
+        this.properties = properties;
+        this.structure = options.get("structure");
+        this.objects = new ArrayList<JSONObject>(WapiPayloads.results(structure, intOption("objects")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = new LinkedHashMap<>(OPTIONS);
+        Map<String,String> properties = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if ("property".equals(name) && arg.indexOf('=', equals + 1) > 0) {
+                int separator = arg.indexOf('=', equals + 1);
+                properties.put(arg.substring(equals + 1, separator), arg.substring(separator + 1));
+            } else if (name != null && options.containsKey(name)) {
+                options.put(name, arg.substring(equals + 1));
+            } else {
+                System.err.println("Unknown argument " + arg + ", the options and their defaults are:");
+                for (Map.Entry<String,String> option : OPTIONS.entrySet()) {
+                    System.err.println("  --" + option.getKey() + "=" + option.getValue());
+                }
+                System.err.println("  --property=<adapter property>=<value>");
+                System.exit(1);
+            }
+        }
+        new LoadTest(options, properties).run();
+        System.exit(0);
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    void run() throws Exception {
+        try (WapiSimulator simulator = new WapiSimulator(Boolean.parseBoolean(options.get("https")))) {
+            simulator
+                .addObjects(structure, objects)
+                .setSessions(Boolean.parseBoolean(options.get("sessions")), 600)
+                .setMultiRequestSupported(Boolean.parseBoolean(options.get("multi-request")))
+                .setDefaultMaxResults(intOption("max-results"))
+                .setLatency(intOption("latency"), intOption("jitter"))
+                .setErrors(Double.parseDouble(options.get("error-rate")), intOption("error-status"))
+                .setThreads(intOption("server-threads"))
+                .start();
+
+            Map<String,String> adapterProperties = new LinkedHashMap<>();
+            adapterProperties.put(InfobloxAdapter.Properties.PROPERTY_HOST, simulator.getUrl());
+            adapterProperties.put(InfobloxAdapter.Properties.PROPERTY_USERNAME, "admin");
+            adapterProperties.put(InfobloxAdapter.Properties.PROPERTY_PASSWORD, "infoblox");
+            // A WAPI version with paging, so paged searches and counts can be measured
+            adapterProperties.put(InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "2.7");
+            adapterProperties.put(InfobloxAdapter.Properties.PROPERTY_COUNT_PAGE_SIZE, "1000");
+            adapterProperties.putAll(properties);
+            InfobloxAdapter adapter = new InfobloxAdapter();
+            adapter.setProperties(adapterProperties);
+            adapter.initialize();
+            try {
+                run(adapter, simulator);
+            } finally {
+                adapter.destroy();
+            }
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private void run(final InfobloxAdapter adapter, WapiSimulator simulator) throws Exception {
+        System.out.println("Load test of " + structure + " " + options.get("operation") + " with "
+            + options.get("threads") + " threads against " + simulator.getUrl() + " " + properties);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < intOption("threads"); i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(adapter);
+                }
+            }, "load-test-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        TimeUnit.SECONDS.sleep(intOption("warmup"));
+        long connectionsBefore = getConnectionsOpened();
+        long requestsBefore = simulator.getRequests();
+        long loginsBefore = simulator.getLogins();
+        long bytesBefore = simulator.getBytesSent();
+        long[] gcBefore = getGcTotals();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        recording = true;
+        TimeUnit.SECONDS.sleep(intOption("duration"));
+        recording = false;
+        double seconds = (System.nanoTime() - start) / 1000000000d;
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(60));
+        }
+
+        long[] counts = histogram.snapshot();
+        long[] gcAfter = getGcTotals();
+        long heapPeak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                heapPeak += pool.getPeakUsage().getUsed();
+            }
+        }
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.gc();
+        long heapLive = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        long calls = completed.get() + failed.get();
+        System.out.println(String.format("calls=%d errors=%d seconds=%.1f throughput_per_s=%.1f",
+            calls, failed.get(), seconds, calls / seconds));
+        System.out.println(String.format("latency_ms p50=%.2f p99=%.2f p999=%.2f max=%.2f",
+            percentile(counts, 0.5), percentile(counts, 0.99), percentile(counts, 0.999),
+            maxLatency.get() / 1000d));
+        long connections = getConnectionsOpened();
+        System.out.println(String.format("connections_opened=%d (%d including warmup) wapi_requests=%d logins=%d "
+            + "wapi_bytes_per_call=%d", connections - connectionsBefore, connections,
+            simulator.getRequests() - requestsBefore, simulator.getLogins() - loginsBefore,
+            calls == 0 ? 0 : (simulator.getBytesSent() - bytesBefore) / calls));
+        System.out.println(String.format("heap_mb used=%.1f peak=%.1f live_after_gc=%.1f gc_count=%d gc_ms=%d",
+            heapUsed / 1048576d, heapPeak / 1048576d, heapLive / 1048576d,
+            gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]));
+        for (Map.Entry<String,AtomicLong> error : errors.entrySet()) {
+            System.out.println("error count=" + error.getValue() + " " + error.getKey());
+        }
+    }
+
+    private void work(InfobloxAdapter adapter) {
+        while (!stopped) {
+            boolean recorded = recording;
+            long start = System.nanoTime();
+            try {
+                call(adapter);
+                if (recorded) {
+                    completed.incrementAndGet();
+                }
+            } catch (BridgeError | RuntimeException e) {
+                if (recorded) {
+                    failed.incrementAndGet();
+                    String message = String.valueOf(e.getMessage());
+                    AtomicLong count = errors.get(message);
+                    if (count == null && errors.size() < 20) {
+                        errors.putIfAbsent(message, new AtomicLong());
+                        count = errors.get(message);
+                    }
+                    if (count != null) {
+                        count.incrementAndGet();
+                    }
+                }
+            }
+            if (recorded) {
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                histogram.record(micros);
+                long max = maxLatency.get();
+                while (micros > max && !maxLatency.compareAndSet(max, micros)) {
+                    max = maxLatency.get();
+                }
+            }
+        }
+    }
+
+    /** Makes one bridge call on a randomly chosen object. */
+    private void call(InfobloxAdapter adapter) throws BridgeError {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        JSONObject object = objects.get(random.nextInt(objects.size()));
+        Map<?,?> attributes = (Map<?,?>)object.get("extensible_attributes");
+        boolean network = "network".equals(structure);
+        String operation = options.get("operation");
+        if ("mix".equals(operation)) {
+            int choice = random.nextInt(10);
+            operation = choice < 7 ? "retrieve" : choice < 9 ? "search" : "count";
+        }
+
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure(structure);
+        request.setFields(new ArrayList<>(WapiPayloads.fields(structure)));
+        request.setMetadata(new LinkedHashMap<String,String>());
+        Map<String,String> parameters = new LinkedHashMap<>();
+        request.setParameters(parameters);
+        if ("retrieve".equals(operation)) {
+            parameters.put("Value", String.valueOf(object.get(network ? "network" : "name")));
+            request.setQuery((network ? "network" : "name") + "=<%=parameter[\"Value\"]%>");
+            adapter.retrieve(request);
+        } else if ("search".equals(operation)) {
+            parameters.put("Site", String.valueOf(attributes.get("Site")));
+            request.setQuery("*Site=<%=parameter[\"Site\"]%>");
+            if (intOption("page-size") > 0) {
+                request.getMetadata().put("pageSize", options.get("page-size"));
+            }
+            adapter.search(request);
+        } else if ("count".equals(operation)) {
+            String attribute = network ? "VLAN" : "Owner";
+            parameters.put("Value", String.valueOf(attributes.get(attribute)));
+            request.setQuery("*" + attribute + "=<%=parameter[\"Value\"]%>");
+            adapter.count(request);
+        } else {
+            throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static double percentile(long[] counts, double fraction) {
+        return InfobloxMetrics.Histogram.percentile(counts, fraction) / 1000d;
+    }
+
+    /** The connections opened by the adapters in this JVM, from their MBeans. */
+    private static long getConnectionsOpened() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName(InfobloxMetrics.DOMAIN + ":type=Adapter,*"), null);
+        long opened = 0;
+        for (ObjectName name : names) {
+            opened += (Long)server.getAttribute(name, "ConnectionsOpened");
+        }
+        return opened;
+    }
+
+    /** The collection count and time of all collectors. */
+    private static long[] getGcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+}
@@ -0,0 +1,71 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Substitution of bridge parameters into a query and encoding the result for the WAPI url, which
+ * is done for every request before any cache, mirror or WAPI lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    /** A query on a single property, and one on several properties and extensible attributes. */
+    @Param({"simple", "compound"})
+    public String shape;
+
+    private final InfobloxQualificationParser parser = new InfobloxQualificationParser();
+    private String query;
+    private Map<String,String> parameters;
+    private String parsedQuery;
+
+    @Setup
+    public void setup() throws BridgeError {
+        parameters = new LinkedHashMap<>();
+        parameters.put("Name", "host42.corp.example.com");
+        parameters.put("Network", "10.0.42.0/24");
+        parameters.put("Site", "Calgary North");
+        parameters.put("Owner", "team 7 & friends");
+        if ("simple".equals(shape)) {
+            query = "name=<%=parameter[\"Name\"]%>";
+        } else {
+            query = "name~=<%=parameter[\"Name\"]%>&network=<%=parameter[\"Network\"]%>"
+                + "&*Site=<%=parameter[\"Site\"]%>&*Owner:=<%=parameter[\"Owner\"]%>&view=default";
+        }
+        parsedQuery = parser.parse(query, parameters);
+    }
+
+    @Benchmark
+    public String parse() throws BridgeError {
+        return parser.parse(query, parameters);
+    }
+
+    @Benchmark
+    public String encode() {
+        return InfobloxAdapter.encodeQuery(parsedQuery);
+    }
+
+    /** Both steps, as done for each request. */
+    @Benchmark
+    public String parseAndEncode() throws BridgeError {
+        return InfobloxAdapter.encodeQuery(new InfobloxQualificationParser().parse(query, parameters));
+    }
+}
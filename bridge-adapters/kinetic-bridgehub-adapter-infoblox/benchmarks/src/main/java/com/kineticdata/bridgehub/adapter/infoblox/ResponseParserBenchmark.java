@@ -0,0 +1,85 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of WAPI GET responses (see {@link InfobloxResponseParser}), reading the body from bytes
+ * as the adapter does so character decoding is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"record:host", "network"})
+    public String structure;
+
+    private byte[] payload;
+    private Set<String> topLevelFields;
+
+    @Setup
+    public void setup() {
+        payload = WapiPayloads.generate(structure, size);
+        topLevelFields = InfobloxFieldPlan.forFields(WapiPayloads.fields(structure)).getTopLevelFields();
+    }
+
+    /** Builds every property of every result, as a request without a field filter would. */
+    @Benchmark
+    public InfobloxResponseParser.Result parseAll(Blackhole blackhole) throws BridgeError {
+        return InfobloxResponseParser.parse(reader(), new Sink(blackhole), null);
+    }
+
+    /** Builds only the properties needed by the requested fields, as search() and retrieve() do. */
+    @Benchmark
+    public InfobloxResponseParser.Result parseFiltered(Blackhole blackhole) throws BridgeError {
+        return InfobloxResponseParser.parse(reader(), new Sink(blackhole), topLevelFields);
+    }
+
+    /** Counts the results without building them, as count() does. */
+    @Benchmark
+    public long count() throws BridgeError {
+        return InfobloxResponseParser.parse(reader(), null, null).getCount();
+    }
+
+    private Reader reader() {
+        return new InputStreamReader(new ByteArrayInputStream(payload), WapiPayloads.UTF_8);
+    }
+
+    /** Hands each result to the blackhole so building it cannot be optimized away. */
+    static class Sink implements InfobloxResponseParser.ResultHandler {
+        private final Blackhole blackhole;
+
+        Sink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void handle(JSONObject result) {
+            blackhole.consume(result);
+        }
+    }
+}
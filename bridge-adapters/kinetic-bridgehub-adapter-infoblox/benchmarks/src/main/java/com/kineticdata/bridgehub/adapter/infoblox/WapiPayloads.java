@@ -0,0 +1,115 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Generates synthetic WAPI GET responses shaped like those returned by a grid, so the benchmarks
+ * do not depend on a live Infoblox. The same size always generates the same payload.
+ */
+final class WapiPayloads {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Bridge fields requested for each structure, covering nested paths and extensible attributes. */
+    static final List<String> HOST_FIELDS = Arrays.asList(
+        "_ref", "name", "ipv4addrs[\"ipv4addr\"]", "ipv4addrs[\"mac\"]", "view",
+        "extensible_attributes.Site", "extensible_attributes.Owner");
+    static final List<String> NETWORK_FIELDS = Arrays.asList(
+        "_ref", "network", "network_view", "comment",
+        "extensible_attributes.Site", "extensible_attributes.VLAN");
+
+    private static final String[] SITES = {"Calgary", "Denver", "Minneapolis", "Toronto", "Austin"};
+
+    private WapiPayloads() {}
+
+    /** The bridge fields used for the structure. */
+    static List<String> fields(String structure) {
+        return "network".equals(structure) ? NETWORK_FIELDS : HOST_FIELDS;
+    }
+
+    /** A bare result array holding <code>count</code> objects of the structure. */
+    static byte[] generate(String structure, int count) {
+        return results(structure, count).toJSONString().getBytes(UTF_8);
+    }
+
+    /** The result objects of a payload, as the JSON library would build them. */
+    @SuppressWarnings("unchecked")
+    static JSONArray results(String structure, int count) {
+        Random random = new Random(count);
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            results.add("network".equals(structure) ? network(i, random) : host(i, random));
+        }
+        return results;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject host(int i, Random random) {
+        String name = "host" + i + ".corp.example.com";
+        JSONArray addresses = new JSONArray();
+        int addressCount = 1 + random.nextInt(3);
+        for (int a = 0; a < addressCount; a++) {
+            String address = ipv4(i * 3 + a);
+            JSONObject ipv4addr = new JSONObject();
+            ipv4addr.put("_ref", "record:host_ipv4addr/" + ref(i * 3 + a) + ":" + address + "/" + name + "/default");
+            ipv4addr.put("configure_for_dhcp", random.nextBoolean());
+            ipv4addr.put("host", name);
+            ipv4addr.put("ipv4addr", address);
+            ipv4addr.put("mac", String.format("00:50:56:%02x:%02x:%02x",
+                random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            addresses.add(ipv4addr);
+        }
+
+        JSONObject host = new JSONObject();
+        host.put("_ref", "record:host/" + ref(i) + ":" + name + "/default");
+        host.put("name", name);
+        host.put("view", "default");
+        host.put("ipv4addrs", addresses);
+        host.put("extensible_attributes", extensibleAttributes(random, "Owner", "team" + random.nextInt(40)));
+        return host;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject network(int i, Random random) {
+        String network = ipv4(i * 256) + "/24";
+        JSONObject object = new JSONObject();
+        object.put("_ref", "network/" + ref(i) + ":" + network + "/default");
+        object.put("network", network);
+        object.put("network_view", "default");
+        object.put("comment", "Synthetic network " + i + " for benchmarking");
+        object.put("extensible_attributes", extensibleAttributes(random, "VLAN", Long.valueOf(random.nextInt(4094) + 1)));
+        return object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject extensibleAttributes(Random random, String name, Object value) {
+        JSONObject attributes = new JSONObject();
+        attributes.put("Site", SITES[random.nextInt(SITES.length)]);
+        attributes.put(name, value);
+        if (random.nextInt(4) == 0) {
+            JSONArray tags = new JSONArray();
+            tags.add("monitored");
+            tags.add("pci");
+            attributes.put("Tags", tags);
+        }
+        return attributes;
+    }
+
+    private static String ipv4(int n) {
+        return (10 + (n >>> 24)) + "." + ((n >> 16) & 0xff) + "." + ((n >> 8) & 0xff) + "." + (n & 0xff);
+    }
+
+    /** A base64 looking object reference, as WAPI generates. */
+    private static String ref(int n) {
+        return "ZG5zLmhvc3QkLl9kZWZhdWx0LmNvbS5leGFtcGxlLmNvcnAu" + Integer.toHexString(0x10000000 + n);
+    }
+}
@@ -0,0 +1,966 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import org.apache.commons.codec.binary.Base64;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * An in-process stand-in for the Infoblox WAPI, so the adapter can be load tested without an
+ * appliance.
+ * <p>
+ * The simulator serves the objects it is given under <code>/wapi/v&lt;version&gt;/</code> for
+ * any version, over http or https (with a self-signed certificate). It supports:
+ * <ul>
+ * <li>GETs of a structure, filtered on properties and extensible attributes with the
+ *     <code>=</code>, <code>:=</code>, <code>~=</code> and <code>!=</code> operators.
+ * <li><code>_return_fields</code> and <code>_return_fields+</code>.
+ * <li><code>_max_results</code>, failing when there are more results than a positive limit, as
+ *     a grid does (by default 1000).
+ * <li>Paging with <code>_paging</code>, <code>_return_as_object</code> and <code>_page_id</code>,
+ *     from WAPI 1.5 on. Earlier versions reject those arguments.
+ * <li>GETs of single objects by reference, and POSTs creating objects.
+ * <li>Multi-requests, applied as a transaction.
+ * <li>Logins with basic credentials, answered with an <code>ibapauth</code> session cookie that
+ *     is accepted until it has been idle for the session timeout.
+ * <li>Gzip compressed responses, when the request accepts them.
+ * </ul>
+ * Latency and error responses can be injected into every request.
+ */
+final class WapiSimulator implements Closeable {
+
+    /** Structures that exist, and so accept new objects, before any objects are added. */
+    static final List<String> DEFAULT_STRUCTURES = Arrays.asList(
+        "record:host", "record:a", "record:aaaa", "record:ptr", "network");
+
+    private static final String KEYSTORE = "/wapi-simulator.jks";
+    private static final char[] KEYSTORE_PASSWORD = "infoblox".toCharArray();
+    private static final String COOKIE_NAME = "ibapauth";
+    private static final Pattern WAPI_PATH = Pattern.compile("/wapi/v(\\d+(?:\\.\\d+)*)/(.*)");
+    /** Arguments that only exist from WAPI 1.5 on. */
+    private static final List<String> PAGING_ARGUMENTS = Arrays.asList("_paging", "_return_as_object", "_page_id");
+    /** Page ids beyond this many are forgotten, oldest first, as clients often stop paging early. */
+    private static final int MAX_CURSORS = 10000;
+    /** Smaller responses are sent uncompressed, as compressing them saves little or nothing. */
+    private static final int MIN_COMPRESSED_SIZE = 256;
+
+    private final boolean https;
+    private final ConcurrentMap<String,Dataset> datasets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,long[]> sessions = new ConcurrentHashMap<>();
+    private final Map<String,Cursor> cursors = Collections.synchronizedMap(new LinkedHashMap<String,Cursor>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Cursor> eldest) {
+            return size() > MAX_CURSORS;
+        }
+    });
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+
+    private volatile String username = "admin";
+    private volatile String password = "infoblox";
+    private volatile boolean sessionsEnabled = true;
+    private volatile long sessionTimeout = 600;
+    private volatile boolean multiRequestSupported = true;
+    private volatile int defaultMaxResults = 1000;
+    private volatile long latency;
+    private volatile long latencyJitter;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private int threads = 64;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param https whether to serve https, with a self-signed certificate, rather than http
+     */
+    WapiSimulator(boolean https) {
+        this.https = https;
+        for (String structure : DEFAULT_STRUCTURES) {
+            datasets.put(structure, new Dataset());
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * CONFIGURATION METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Adds objects to the structure, creating it if needed. Objects without a _ref are given one. */
+    @SuppressWarnings("unchecked")
+    WapiSimulator addObjects(String structure, List<?> objects) {
+        List<JSONObject> added = new ArrayList<>(objects.size());
+        for (Object object : objects) {
+            JSONObject copy = new JSONObject();
+            copy.putAll((Map<?,?>)object);
+            if (copy.get("_ref") == null) {
+                copy.put("_ref", newRef(structure, copy));
+            }
+            added.add(copy);
+        }
+        getOrCreateDataset(structure).add(added);
+        return this;
+    }
+
+    WapiSimulator setCredentials(String username, String password) {
+        this.username = username;
+        this.password = password;
+        return this;
+    }
+
+    /**
+     * @param enabled false to answer logins without a session cookie, as grids that do not
+     *     issue sessions do
+     * @param timeoutSeconds how long a session can be idle before it is rejected
+     */
+    WapiSimulator setSessions(boolean enabled, long timeoutSeconds) {
+        this.sessionsEnabled = enabled;
+        this.sessionTimeout = timeoutSeconds;
+        return this;
+    }
+
+    /** Whether multi-requests are accepted, as they are from WAPI 1.4 on. */
+    WapiSimulator setMultiRequestSupported(boolean supported) {
+        this.multiRequestSupported = supported;
+        return this;
+    }
+
+    /** The limit on the results of a request without a _max_results, or 0 for no limit. */
+    WapiSimulator setDefaultMaxResults(int maxResults) {
+        this.defaultMaxResults = maxResults;
+        return this;
+    }
+
+    /** Delays every response by the latency plus a random amount up to the jitter, in milliseconds. */
+    WapiSimulator setLatency(long millis, long jitterMillis) {
+        this.latency = millis;
+        this.latencyJitter = jitterMillis;
+        return this;
+    }
+
+    /** Fails a fraction of requests with the status. 429 responses ask the client to retry after a second. */
+    WapiSimulator setErrors(double rate, int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /** The number of threads handling requests. Must be set before the simulator is started. */
+    WapiSimulator setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Starts serving on an unused port of the loopback interface. */
+    WapiSimulator start() throws IOException {
+        // Small responses would otherwise wait for the client's delayed ACK. Only read when the
+        // first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (https) {
+            HttpsServer httpsServer = HttpsServer.create(address, 1024);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(createSslContext()));
+            server = httpsServer;
+        } else {
+            server = HttpServer.create(address, 1024);
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        server.start();
+        return this;
+    }
+
+    /** The url to configure as the adapter's host. */
+    String getUrl() {
+        return (https ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** The number of requests received. */
+    long getRequests() {
+        return requests.get();
+    }
+
+    /** The number of requests authenticated with basic credentials rather than a session. */
+    long getLogins() {
+        return logins.get();
+    }
+
+    /** The number of response body bytes sent, after compression. */
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * REQUEST HANDLING
+     *-------------------------------------------------------------------------------------------*/
+
+    private class Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                delay();
+                send(exchange, route(exchange));
+            } catch (RuntimeException e) {
+                send(exchange, error(500, "Server.Ibap", String.valueOf(e)));
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private Reply route(HttpExchange exchange) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            Reply reply = error(errorStatus, "Server.Ibap.Overloaded", "Injected error.");
+            if (errorStatus == 429) {
+                reply.retryAfter = "1";
+            }
+            return reply;
+        }
+
+        Matcher path = WAPI_PATH.matcher(exchange.getRequestURI().getRawPath());
+        if (!path.matches()) {
+            return error(404, "Client.Ibap.Proto", "Not found.");
+        }
+        Reply unauthorized = authenticate(exchange);
+        if (unauthorized != null) {
+            return unauthorized;
+        }
+        String version = path.group(1);
+        String object = decode(path.group(2));
+        String method = exchange.getRequestMethod();
+        Map<String,String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        if (!supportsPaging(version)) {
+            for (String argument : PAGING_ARGUMENTS) {
+                if (parameters.containsKey(argument)) {
+                    return error(400, "Client.Ibap.Proto", "Unknown argument/field: " + argument);
+                }
+            }
+        }
+
+        Reply reply;
+        if (object.isEmpty() && parameters.containsKey("_schema")) {
+            reply = schema(version);
+        } else if (object.equals("logout") && method.equals("POST")) {
+            String session = getSessionCookie(exchange);
+            if (session != null) {
+                sessions.remove(session);
+            }
+            reply = new Reply(200, "{}");
+        } else if (object.equals("request") && method.equals("POST")) {
+            reply = multiRequest(readBody(exchange));
+        } else if (method.equals("GET")) {
+            reply = object.contains("/") ? getByRef(object) : get(object, parameters);
+        } else if (method.equals("POST")) {
+            reply = create(object, readBody(exchange));
+        } else {
+            reply = error(400, "Client.Ibap.Proto", "Unsupported method " + method + ".");
+        }
+        return reply;
+    }
+
+    /**
+     * Accepts a live session cookie or valid basic credentials, starting a session for the latter.
+     *
+     * @return null if the request is authenticated, otherwise the reply rejecting it
+     */
+    private Reply authenticate(HttpExchange exchange) {
+        String session = getSessionCookie(exchange);
+        if (session != null) {
+            long[] lastUsed = sessions.get(session);
+            long now = System.currentTimeMillis();
+            if (lastUsed != null && now - lastUsed[0] < TimeUnit.SECONDS.toMillis(sessionTimeout)) {
+                lastUsed[0] = now;
+                return null;
+            }
+            sessions.remove(session);
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String expected = "Basic " + Base64.encodeBase64String(
+            (username + ":" + password).getBytes(WapiPayloads.UTF_8));
+        if (expected.equals(authorization)) {
+            logins.incrementAndGet();
+            if (sessionsEnabled) {
+                long now = System.currentTimeMillis();
+                String cookie = "\"ip=127.0.0.1,client=API,group=admin-group,ctime=" + now / 1000
+                    + ",timeout=" + sessionTimeout + ",mtime=" + now / 1000 + ",su=1,auth=LOCAL,user="
+                    + username + "," + UUID.randomUUID().toString().replace("-", "") + "\"";
+                sessions.put(cookie, new long[] {now});
+                exchange.getResponseHeaders().add("Set-Cookie", COOKIE_NAME + "=" + cookie + "; httponly; Path=/");
+            }
+            return null;
+        }
+
+        Reply reply = new Reply(401, "\"Authorization Required\"");
+        reply.authenticate = true;
+        return reply;
+    }
+
+    private Reply schema(String version) {
+        Map<String,Object> schema = new LinkedHashMap<>();
+        schema.put("requested_version", version);
+        schema.put("supported_objects", new ArrayList<>(datasets.keySet()));
+        schema.put("supported_versions", Arrays.asList("1.0", "1.4", "1.5", "2.0", "2.5", "2.7"));
+        return new Reply(200, JSONValue.toJSONString(schema));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * READS
+     *-------------------------------------------------------------------------------------------*/
+
+    private Reply get(String structure, Map<String,String> parameters) {
+        String pageId = parameters.get("_page_id");
+        if (pageId != null) {
+            Cursor cursor = cursors.remove(pageId);
+            if (cursor == null) {
+                return error(400, "Client.Ibap.Proto", "Page id " + pageId + " is not valid or has expired.");
+            }
+            return page(cursor);
+        }
+
+        Dataset dataset = datasets.get(structure);
+        if (dataset == null) {
+            return error(400, "Client.Ibap.Proto", "Unknown object type (" + structure + ")");
+        }
+        List<Filter> filters = new ArrayList<>();
+        for (Map.Entry<String,String> parameter : parameters.entrySet()) {
+            if (!parameter.getKey().startsWith("_")) {
+                filters.add(new Filter(parameter.getKey(), parameter.getValue()));
+            }
+        }
+        Set<String> returnFields = parseReturnFields(parameters);
+        boolean asObject = "1".equals(parameters.get("_return_as_object"));
+
+        Integer maxResults;
+        try {
+            maxResults = parameters.containsKey("_max_results")
+                ? Integer.valueOf(parameters.get("_max_results")) : null;
+        } catch (NumberFormatException e) {
+            return error(400, "Client.Ibap.Proto", "Invalid value for _max_results.");
+        }
+        if ("1".equals(parameters.get("_paging"))) {
+            if (!asObject || maxResults == null || maxResults <= 0) {
+                return error(400, "Client.Ibap.Proto",
+                    "_paging requires _return_as_object=1 and a positive _max_results.");
+            }
+            return page(new Cursor(dataset, filters, 0, maxResults, returnFields));
+        }
+
+        List<JSONObject> matches = dataset.find(filters);
+        int limit = maxResults == null ? defaultMaxResults : maxResults;
+        if (limit > 0 && matches.size() > limit) {
+            return error(400, "Client.Ibap.Proto", "Result set too large (> " + limit + ")");
+        } else if (limit < 0 && matches.size() > -limit) {
+            matches = matches.subList(0, -limit);
+        }
+        JSONArray results = project(matches, returnFields);
+        if (asObject) {
+            Map<String,Object> envelope = new LinkedHashMap<>();
+            envelope.put("result", results);
+            return new Reply(200, JSONValue.toJSONString(envelope));
+        }
+        return new Reply(200, results.toJSONString());
+    }
+
+    /**
+     * Returns the page of results at the cursor. The query is run again for each page rather than
+     * keeping the results of abandoned paging sessions around.
+     */
+    private Reply page(Cursor cursor) {
+        List<JSONObject> matches = cursor.dataset.find(cursor.filters);
+        int start = Math.min(matches.size(), cursor.offset);
+        int end = Math.min(matches.size(), cursor.offset + cursor.pageSize);
+        Map<String,Object> envelope = new LinkedHashMap<>();
+        envelope.put("result", project(matches.subList(start, end), cursor.returnFields));
+        if (end < matches.size()) {
+            String nextPageId = "789c" + Long.toHexString(ids.incrementAndGet()) + UUID.randomUUID().toString().replace("-", "");
+            cursors.put(nextPageId, new Cursor(cursor.dataset, cursor.filters, end, cursor.pageSize, cursor.returnFields));
+            envelope.put("next_page_id", nextPageId);
+        }
+        return new Reply(200, JSONValue.toJSONString(envelope));
+    }
+
+    private Reply getByRef(String ref) {
+        Dataset dataset = datasets.get(ref.substring(0, ref.indexOf('/')));
+        JSONObject object = dataset == null ? null : dataset.get(ref);
+        if (object == null) {
+            return error(404, "Client.Ibap.Data.NotFound", "Reference " + ref + " not found");
+        }
+        return new Reply(200, project(Collections.singletonList(object), null).get(0).toString());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * WRITES
+     *-------------------------------------------------------------------------------------------*/
+
+    private Reply create(String structure, Object data) {
+        List<Object> created = new ArrayList<>(1);
+        Reply failure = prepareCreate(structure, data, created);
+        if (failure != null) {
+            return failure;
+        }
+        commit(Collections.singletonList(created));
+        return new Reply(201, JSONValue.toJSONString(((JSONObject)created.get(1)).get("_ref")));
+    }
+
+    /**
+     * Validates an object to create and adds the structure and the object to the list.
+     *
+     * @return null if the object is valid, otherwise the error reply
+     */
+    @SuppressWarnings("unchecked")
+    private Reply prepareCreate(String structure, Object data, List<Object> created) {
+        if (!datasets.containsKey(structure)) {
+            return error(400, "Client.Ibap.Proto", "Unknown object type (" + structure + ")");
+        }
+        if (!(data instanceof Map)) {
+            return error(400, "Client.Ibap.Proto", "The object to create is not a JSON object.");
+        }
+        JSONObject object = new JSONObject();
+        object.putAll((Map<?,?>)data);
+        String name = (String)(object.containsKey("ptrdname") ? object.get("ptrdname") : object.get("name"));
+        if (structure.startsWith("record:") && (name == null || name.isEmpty())) {
+            return error(400, "Client.Ibap.Proto", "Field is not writable or missing: name");
+        }
+        if (structure.equals("record:host") && !datasets.get(structure).find(
+            Collections.singletonList(new Filter("name", name))).isEmpty())
+        {
+            return error(400, "Client.Ibap.Data.Conflict", "The record '" + name + "' already exists.");
+        }
+        if (!object.containsKey("view") && structure.startsWith("record:")) {
+            object.put("view", "default");
+        }
+        object.put("_ref", newRef(structure, object));
+        created.add(structure);
+        created.add(object);
+        return null;
+    }
+
+    /** Adds the prepared objects, given as pairs of structure and object. */
+    private void commit(List<List<Object>> prepared) {
+        for (List<Object> created : prepared) {
+            for (int i = 0; i < created.size(); i += 2) {
+                datasets.get((String)created.get(i)).add(Collections.singletonList((JSONObject)created.get(i + 1)));
+            }
+        }
+    }
+
+    /**
+     * Runs the requests of a multi-request in order. If any fails the objects created by the
+     * others are discarded and the error of the failed request is returned.
+     */
+    private Reply multiRequest(Object body) {
+        if (!multiRequestSupported) {
+            return error(400, "Client.Ibap.Proto", "Unknown object type (request)");
+        }
+        if (!(body instanceof List)) {
+            return error(400, "Client.Ibap.Proto", "The multi-request body is not a JSON array.");
+        }
+        JSONArray results = new JSONArray();
+        List<List<Object>> prepared = new ArrayList<>();
+        for (Object entry : (List<?>)body) {
+            Map<?,?> request = entry instanceof Map ? (Map<?,?>)entry : Collections.emptyMap();
+            String method = String.valueOf(request.get("method"));
+            String object = String.valueOf(request.get("object"));
+            Reply reply;
+            if (method.equals("GET")) {
+                Map<String,String> parameters = new LinkedHashMap<>();
+                putStrings(parameters, request.get("data"));
+                putStrings(parameters, request.get("args"));
+                reply = object.contains("/") ? getByRef(object) : get(object, parameters);
+                if (reply.status == 200) {
+                    results.add(JSONValue.parse(reply.body));
+                }
+            } else if (method.equals("POST")) {
+                List<Object> created = new ArrayList<>(2);
+                reply = prepareCreate(object, request.get("data"), created);
+                if (reply == null) {
+                    prepared.add(created);
+                    results.add(((JSONObject)created.get(1)).get("_ref"));
+                    reply = new Reply(201, null);
+                }
+            } else {
+                reply = error(400, "Client.Ibap.Proto", "Unsupported method " + method + " in multi-request.");
+            }
+            if (reply.status >= 400) {
+                return reply;
+            }
+        }
+        commit(prepared);
+        return new Reply(200, results.toJSONString());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private void delay() {
+        long millis = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter + 1) : 0);
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void send(HttpExchange exchange, Reply reply) throws IOException {
+        byte[] body = reply.body == null ? new byte[0] : reply.body.getBytes(WapiPayloads.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (reply.retryAfter != null) {
+            exchange.getResponseHeaders().set("Retry-After", reply.retryAfter);
+        }
+        if (reply.authenticate) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"InfoBlox ONE Platform\"");
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (body.length >= MIN_COMPRESSED_SIZE && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        bytesSent.addAndGet(body.length);
+        exchange.sendResponseHeaders(reply.status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private Dataset getOrCreateDataset(String structure) {
+        Dataset dataset = datasets.get(structure);
+        if (dataset == null) {
+            Dataset created = new Dataset();
+            dataset = datasets.putIfAbsent(structure, created);
+            if (dataset == null) {
+                dataset = created;
+            }
+        }
+        return dataset;
+    }
+
+    private String newRef(String structure, Map<?,?> object) {
+        Object name = object.get("name");
+        if (name == null) {
+            name = object.containsKey("network") ? object.get("network") : object.get("ptrdname");
+        }
+        String id = Base64.encodeBase64URLSafeString(
+            (structure + "$" + ids.incrementAndGet()).getBytes(WapiPayloads.UTF_8));
+        return structure + "/" + id + ":" + name + "/default";
+    }
+
+    /** Whether the WAPI version has paging, which was added in WAPI 1.5. */
+    private static boolean supportsPaging(String version) {
+        String[] parts = version.split("\\.");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 1 || (major == 1 && minor >= 5);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String getSessionCookie(HttpExchange exchange) {
+        String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookies == null) {
+            return null;
+        }
+        int start = cookies.indexOf(COOKIE_NAME + "=");
+        if (start < 0) {
+            return null;
+        }
+        // The quoted value contains commas but never semicolons
+        int end = cookies.indexOf(';', start);
+        return cookies.substring(start + COOKIE_NAME.length() + 1, end < 0 ? cookies.length() : end).trim();
+    }
+
+    /**
+     * The fields to return: null for the default fields (everything but the extensible
+     * attributes), otherwise the listed fields. _ref is always returned.
+     */
+    private static Set<String> parseReturnFields(Map<String,String> parameters) {
+        String fields = parameters.get("_return_fields");
+        boolean additional = false;
+        if (fields == null) {
+            fields = parameters.get("_return_fields+");
+            additional = true;
+        }
+        if (fields == null) {
+            return null;
+        }
+        Set<String> returnFields = new LinkedHashSet<>();
+        returnFields.add("_ref");
+        if (additional) {
+            returnFields.add("*");
+        }
+        for (String field : fields.split(",")) {
+            if (!field.isEmpty()) {
+                returnFields.add(field);
+            }
+        }
+        return returnFields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray project(List<JSONObject> objects, Set<String> returnFields) {
+        JSONArray results = new JSONArray();
+        for (JSONObject object : objects) {
+            JSONObject result = new JSONObject();
+            if (returnFields == null || returnFields.contains("*")) {
+                result.putAll(object);
+                result.remove("extensible_attributes");
+            }
+            if (returnFields != null) {
+                for (String field : returnFields) {
+                    if (object.containsKey(field)) {
+                        result.put(field, object.get(field));
+                    }
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static Map<String,String> parseQuery(String query) {
+        Map<String,String> parameters = new LinkedHashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int equals = parameter.indexOf('=');
+                parameters.put(decode(equals < 0 ? parameter : parameter.substring(0, equals)),
+                    equals < 0 ? "" : decode(parameter.substring(equals + 1)));
+            }
+        }
+        return parameters;
+    }
+
+    private static void putStrings(Map<String,String> parameters, Object values) {
+        if (values instanceof Map) {
+            for (Map.Entry<?,?> entry : ((Map<?,?>)values).entrySet()) {
+                parameters.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+        }
+    }
+
+    private static Object readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody(); Reader reader = new InputStreamReader(in, WapiPayloads.UTF_8)) {
+            return new JSONParser().parse(reader);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Reply error(int status, String code, String text) {
+        Map<String,Object> error = new LinkedHashMap<>();
+        error.put("Error", "AdmConProtoError: " + text);
+        error.put("code", code);
+        error.put("text", text);
+        return new Reply(status, JSONValue.toJSONString(error));
+    }
+
+    private static SSLContext createSslContext() throws IOException {
+        try (InputStream in = WapiSimulator.class.getResourceAsStream(KEYSTORE)) {
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(in, KEYSTORE_PASSWORD);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to load the simulator's certificate.", e);
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    private static class Reply {
+        private final int status;
+        private final String body;
+        private String retryAfter;
+        private boolean authenticate;
+
+        Reply(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /** The position of a paged request. */
+    private static class Cursor {
+        private final Dataset dataset;
+        private final List<Filter> filters;
+        private final int offset;
+        private final int pageSize;
+        private final Set<String> returnFields;
+
+        Cursor(Dataset dataset, List<Filter> filters, int offset, int pageSize, Set<String> returnFields) {
+            this.dataset = dataset;
+            this.filters = filters;
+            this.offset = offset;
+            this.pageSize = pageSize;
+            this.returnFields = returnFields;
+        }
+    }
+
+    /**
+     * A filter from a query, such as <code>name~=^host1</code> or <code>*Site:=calgary</code>.
+     * A property that is not found on the object is looked for in the objects of its arrays, so
+     * <code>ipv4addr</code> matches the addresses of a host.
+     */
+    private static class Filter {
+        private final String key;
+        private final String field;
+        private final boolean extensibleAttribute;
+        private final boolean negated;
+        private final boolean caseInsensitive;
+        private final Pattern pattern;
+        private final String value;
+
+        Filter(String name, String value) {
+            String field = name;
+            boolean negated = false, caseInsensitive = false, regex = false;
+            while (field.length() > 1 && "!:~".indexOf(field.charAt(field.length() - 1)) >= 0) {
+                char modifier = field.charAt(field.length() - 1);
+                negated |= modifier == '!';
+                caseInsensitive |= modifier == ':';
+                regex |= modifier == '~';
+                field = field.substring(0, field.length() - 1);
+            }
+            this.key = field;
+            this.extensibleAttribute = field.startsWith("*");
+            this.field = extensibleAttribute ? field.substring(1) : field;
+            this.negated = negated;
+            this.caseInsensitive = caseInsensitive;
+            this.pattern = regex ? Pattern.compile(value, caseInsensitive ? Pattern.CASE_INSENSITIVE : 0) : null;
+            this.value = value;
+        }
+
+        /** Whether the filter can be answered from an index of exact values. */
+        boolean isExact() {
+            return !negated && !caseInsensitive && pattern == null;
+        }
+
+        boolean matches(JSONObject object) {
+            return matchesValue(valueOf(object)) != negated;
+        }
+
+        /** The value of the property or extensible attribute the filter is on. */
+        Object valueOf(JSONObject object) {
+            if (extensibleAttribute) {
+                Object attributes = object.get("extensible_attributes");
+                return attributes instanceof Map ? ((Map<?,?>)attributes).get(field) : null;
+            }
+            return object.containsKey(field) ? object.get(field) : nestedValues(object);
+        }
+
+        private List<Object> nestedValues(JSONObject object) {
+            List<Object> values = new ArrayList<>();
+            for (Object property : object.values()) {
+                if (property instanceof List) {
+                    for (Object element : (List<?>)property) {
+                        if (element instanceof Map && ((Map<?,?>)element).containsKey(field)) {
+                            values.add(((Map<?,?>)element).get(field));
+                        }
+                    }
+                }
+            }
+            return values;
+        }
+
+        private boolean matchesValue(Object actual) {
+            if (actual instanceof List) {
+                for (Object element : (List<?>)actual) {
+                    if (matchesValue(element)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (actual == null) {
+                return false;
+            }
+            String text = String.valueOf(actual);
+            if (pattern != null) {
+                return pattern.matcher(text).find();
+            }
+            return caseInsensitive ? text.equalsIgnoreCase(value) : text.equals(value);
+        }
+    }
+
+    /**
+     * The objects of a structure. Reads use an immutable snapshot, and indexes of exact property
+     * values are built on first use and rebuilt after objects are added.
+     */
+    private static class Dataset {
+        private volatile List<JSONObject> objects = Collections.emptyList();
+        private final ConcurrentMap<String,Index> indexes = new ConcurrentHashMap<>();
+
+        synchronized void add(List<JSONObject> added) {
+            List<JSONObject> updated = new ArrayList<>(objects.size() + added.size());
+            updated.addAll(objects);
+            updated.addAll(added);
+            objects = Collections.unmodifiableList(updated);
+        }
+
+        JSONObject get(String ref) {
+            List<JSONObject> matches = index("_ref").get(ref);
+            return matches == null ? null : matches.get(0);
+        }
+
+        List<JSONObject> find(List<Filter> filters) {
+            List<JSONObject> candidates = null;
+            for (Filter filter : filters) {
+                if (filter.isExact()) {
+                    candidates = index(filter.key).get(filter.value);
+                    if (candidates == null) {
+                        return Collections.emptyList();
+                    }
+                    break;
+                }
+            }
+            if (candidates == null) {
+                candidates = objects;
+            }
+            if (filters.isEmpty()) {
+                return candidates;
+            }
+            List<JSONObject> matches = new ArrayList<>();
+            for (JSONObject object : candidates) {
+                boolean matched = true;
+                for (Filter filter : filters) {
+                    if (!filter.matches(object)) {
+                        matched = false;
+                        break;
+                    }
+                }
+                if (matched) {
+                    matches.add(object);
+                }
+            }
+            return matches;
+        }
+
+        /**
+         * The objects by each value of the property (or *extensible attribute), including values
+         * within its arrays.
+         */
+        private Map<String,List<JSONObject>> index(String key) {
+            List<JSONObject> current = objects;
+            Index index = indexes.get(key);
+            if (index == null || index.source != current) {
+                Filter filter = new Filter(key, "");
+                Map<String,List<JSONObject>> values = new HashMap<>();
+                for (JSONObject object : current) {
+                    Object value = filter.valueOf(object);
+                    for (Object element : value instanceof List ? (List<?>)value : Collections.singletonList(value)) {
+                        if (element != null) {
+                            String text = String.valueOf(element);
+                            List<JSONObject> list = values.get(text);
+                            if (list == null) {
+                                list = new ArrayList<>(1);
+                                values.put(text, list);
+                            }
+                            if (list.isEmpty() || list.get(list.size() - 1) != object) {
+                                list.add(object);
+                            }
+                        }
+                    }
+                }
+                index = new Index(current, values);
+                indexes.put(key, index);
+            }
+            return index.values;
+        }
+    }
+
+    private static class Index {
+        private final List<JSONObject> source;
+        private final Map<String,List<JSONObject>> values;
+
+        Index(List<JSONObject> source, Map<String,List<JSONObject>> values) {
+            this.source = source;
+            this.values = values;
+        }
+    }
+}
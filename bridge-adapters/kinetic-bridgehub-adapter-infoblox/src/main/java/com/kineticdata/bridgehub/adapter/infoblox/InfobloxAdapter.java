@@ -10,32 +10,66 @@ import com.kineticdata.bridgehub.adapter.RecordList;
 import com.kineticdata.commons.v1.config.ConfigurableProperty;
 import com.kineticdata.commons.v1.config.ConfigurablePropertyMap;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.net.URLEncoder;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 import org.slf4j.LoggerFactory;
 
 
@@ -69,17 +103,174 @@ public class InfobloxAdapter implements BridgeAdapter {
         public static final String PROPERTY_HOST = "Host";
         public static final String PROPERTY_USERNAME = "Username";
         public static final String PROPERTY_PASSWORD = "Password";
+        public static final String PROPERTY_WAPI_VERSION = "WAPI Version";
+        public static final String PROPERTY_MAX_CONNECTIONS = "Max Connections";
+        public static final String PROPERTY_MAX_CONNECTIONS_PER_ROUTE = "Max Connections Per Route";
+        public static final String PROPERTY_CONNECT_TIMEOUT = "Connect Timeout (ms)";
+        public static final String PROPERTY_SOCKET_TIMEOUT = "Socket Timeout (ms)";
+        public static final String PROPERTY_CONNECTION_REQUEST_TIMEOUT = "Connection Request Timeout (ms)";
+        public static final String PROPERTY_KEEP_ALIVE = "Keep Alive (ms)";
+        public static final String PROPERTY_IDLE_CONNECTION_TIMEOUT = "Idle Connection Timeout (ms)";
+        public static final String PROPERTY_COMPRESS_RESPONSES = "Compress Responses";
+        public static final String PROPERTY_COUNT_PAGE_SIZE = "Count Page Size";
+        public static final String PROPERTY_CACHE_TTL = "Cache TTL (s)";
+        public static final String PROPERTY_CACHE_STRUCTURE_TTLS = "Cache Structure TTLs (s)";
+        public static final String PROPERTY_CACHE_STALE_TTL = "Cache Stale TTL (s)";
+        public static final String PROPERTY_CACHE_MAX_SIZE = "Cache Max Size (bytes)";
+        public static final String PROPERTY_COALESCE_REQUESTS = "Coalesce Requests";
+        public static final String PROPERTY_COALESCE_WAIT_TIMEOUT = "Coalesce Wait Timeout (ms)";
+        public static final String PROPERTY_MIRROR_STRUCTURES = "Mirror Structures";
+        public static final String PROPERTY_MIRROR_REFRESH_INTERVAL = "Mirror Refresh Interval (s)";
+        public static final String PROPERTY_MIRROR_PAGE_SIZE = "Mirror Page Size";
+        public static final String PROPERTY_MEMBER_FAILURE_THRESHOLD = "Member Failure Threshold";
+        public static final String PROPERTY_MEMBER_RETRY_INTERVAL = "Member Retry Interval (ms)";
+        public static final String PROPERTY_MEMBER_MAX_CONCURRENT_REQUESTS = "Member Max Concurrent Requests";
+        public static final String PROPERTY_MEMBER_RATE_LIMIT = "Member Rate Limit (requests/s)";
+        public static final String PROPERTY_MEMBER_MAX_WAITING_REQUESTS = "Member Max Waiting Requests";
+        public static final String PROPERTY_MEMBER_WAIT_TIMEOUT = "Member Wait Timeout (ms)";
+        public static final String PROPERTY_OVERLOAD_RETRY_ATTEMPTS = "Overload Retry Attempts";
+        public static final String PROPERTY_OVERLOAD_RETRY_BACKOFF = "Overload Retry Backoff (ms)";
+        public static final String PROPERTY_BATCH_WINDOW = "Batch Window (ms)";
+        public static final String PROPERTY_BATCH_MAX_SIZE = "Batch Max Size";
+        public static final String PROPERTY_WRITE_BATCH_SIZE = "Write Batch Size";
+        public static final String PROPERTY_WRITE_PARALLELISM = "Write Parallelism";
+        public static final String PROPERTY_METRICS_LOG_INTERVAL = "Metrics Log Interval (s)";
     }
+    
+    /** Request metadata property that controls the use of the result cache. */
+    public static final String METADATA_CACHE_CONTROL = "cacheControl";
+    /** Value of the cache control metadata that bypasses (and replaces) cached results. */
+    public static final String CACHE_CONTROL_NO_CACHE = "no-cache";
+    
+    /**
+     * Matches the parameters that limit a WAPI response to a page of results that can be shared.
+     * The first page of a paged search is not matched, as it opens a paging session of its own.
+     */
+    private static final Pattern BOUNDED_PATTERN = Pattern.compile("[?&](_page_id=|_max_results=-)");
+    
+    /** Longest time in milliseconds an overloaded request waits before it is retried. */
+    private static final long MAX_OVERLOAD_DELAY = 60000;
 
     private final ConfigurablePropertyMap properties = new ConfigurablePropertyMap(
         new ConfigurableProperty(Properties.PROPERTY_USERNAME).setIsRequired(true),
         new ConfigurableProperty(Properties.PROPERTY_PASSWORD).setIsRequired(true).setIsSensitive(true),
         new ConfigurableProperty(Properties.PROPERTY_HOST).setIsRequired(true)
+            .setDescription("URL of the Grid Master, or a comma separated list of grid member URLs "
+                + "each optionally followed by |master or |read and a |weight, for example: "
+                + "https://gm|master,https://member1|read|2,https://reporting|read|1"),
+        new ConfigurableProperty(Properties.PROPERTY_WAPI_VERSION).setValue("1.0")
+            .setDescription("Version of the Infoblox WAPI used for every request, for example 2.7. "
+                + "Paging and multi-requests are only available in the versions of WAPI that support them."),
+        new ConfigurableProperty(Properties.PROPERTY_MAX_CONNECTIONS).setValue("20"),
+        new ConfigurableProperty(Properties.PROPERTY_MAX_CONNECTIONS_PER_ROUTE).setValue("20"),
+        new ConfigurableProperty(Properties.PROPERTY_CONNECT_TIMEOUT).setValue("10000"),
+        new ConfigurableProperty(Properties.PROPERTY_SOCKET_TIMEOUT).setValue("60000"),
+        new ConfigurableProperty(Properties.PROPERTY_CONNECTION_REQUEST_TIMEOUT).setValue("10000"),
+        new ConfigurableProperty(Properties.PROPERTY_KEEP_ALIVE).setValue("60000"),
+        new ConfigurableProperty(Properties.PROPERTY_IDLE_CONNECTION_TIMEOUT).setValue("30000"),
+        new ConfigurableProperty(Properties.PROPERTY_COMPRESS_RESPONSES).setValue("true")
+            .setDescription("When true, responses are requested gzip or deflate compressed."),
+        new ConfigurableProperty(Properties.PROPERTY_COUNT_PAGE_SIZE).setValue("0")
+            .setDescription("Number of objects counted per page of results, 0 counts the results "
+                + "of a single unpaged request. Paging needs a WAPI Version of 1.5 or later, "
+                + "earlier versions always count with a single request."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_TTL).setValue("0")
+            .setDescription("Seconds results are cached for, 0 disables the cache."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_STRUCTURE_TTLS).setValue("")
+            .setDescription("Comma separated structure=seconds pairs overriding the cache TTL, "
+                + "for example: network=300,zone_auth=3600,record:host=0"),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_STALE_TTL).setValue("0")
+            .setDescription("Seconds an expired result is still returned while it is refreshed in the background."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_MAX_SIZE).setValue("33554432")
+            .setDescription("Approximate maximum number of bytes of cached results."),
+        new ConfigurableProperty(Properties.PROPERTY_COALESCE_REQUESTS).setValue("true")
+            .setDescription("When true, identical requests made at the same time share one request "
+                + "to Infoblox. Only requests limited to a page of results are shared, as their "
+                + "responses are buffered in memory rather than streamed."),
+        new ConfigurableProperty(Properties.PROPERTY_COALESCE_WAIT_TIMEOUT).setValue("60000")
+            .setDescription("Milliseconds a request waits for an identical request already in progress."),
+        new ConfigurableProperty(Properties.PROPERTY_MIRROR_STRUCTURES).setValue("")
+            .setDescription("Comma separated structures to keep an in-memory copy of, supported "
+                + "structures are network, ipv6network, record:host, record:a and ipv4address. "
+                + "Simple lookups on these structures are answered from memory. Needs a WAPI "
+                + "Version of 1.5 or later."),
+        new ConfigurableProperty(Properties.PROPERTY_MIRROR_REFRESH_INTERVAL).setValue("300")
+            .setDescription("Seconds between reloads of the mirrored structures."),
+        new ConfigurableProperty(Properties.PROPERTY_MIRROR_PAGE_SIZE).setValue("1000")
+            .setDescription("Number of objects requested per page when loading the mirrored structures."),
+        new ConfigurableProperty(Properties.PROPERTY_MEMBER_FAILURE_THRESHOLD).setValue("3")
+            .setDescription("Consecutive timeouts or server errors after which a grid member stops "
+                + "receiving requests until it passes a health check."),
+        new ConfigurableProperty(Properties.PROPERTY_MEMBER_RETRY_INTERVAL).setValue("30000")
+            .setDescription("Milliseconds between health checks of a grid member that stopped receiving requests."),
+        new ConfigurableProperty(Properties.PROPERTY_MEMBER_MAX_CONCURRENT_REQUESTS).setValue("10")
+            .setDescription("Maximum number of requests sent to each grid member at the same time, 0 for no limit."),
+        new ConfigurableProperty(Properties.PROPERTY_MEMBER_RATE_LIMIT).setValue("0")
+            .setDescription("Maximum number of requests sent to each grid member per second, 0 for no limit."),
+        new ConfigurableProperty(Properties.PROPERTY_MEMBER_MAX_WAITING_REQUESTS).setValue("100")
+            .setDescription("Maximum number of requests waiting to be sent to each grid member. "
+                + "Requests beyond this fail immediately."),
+        new ConfigurableProperty(Properties.PROPERTY_MEMBER_WAIT_TIMEOUT).setValue("10000")
+            .setDescription("Milliseconds a request waits to be sent to a grid member before failing."),
+        new ConfigurableProperty(Properties.PROPERTY_OVERLOAD_RETRY_ATTEMPTS).setValue("3")
+            .setDescription("Number of times a request is retried when a grid member responds that "
+                + "it is overloaded (429 or 503)."),
+        new ConfigurableProperty(Properties.PROPERTY_OVERLOAD_RETRY_BACKOFF).setValue("500")
+            .setDescription("Milliseconds of the first backoff before retrying an overloaded request, "
+                + "doubled for each retry unless the member sends a Retry-After header."),
+        new ConfigurableProperty(Properties.PROPERTY_BATCH_WINDOW).setValue("0")
+            .setDescription("Milliseconds a request waits for other requests to send with it as one "
+                + "WAPI multi-request, 0 disables batching. Requires a WAPI version that supports "
+                + "the request object."),
+        new ConfigurableProperty(Properties.PROPERTY_BATCH_MAX_SIZE).setValue("20")
+            .setDescription("Maximum number of requests sent in one WAPI multi-request."),
+        new ConfigurableProperty(Properties.PROPERTY_WRITE_BATCH_SIZE).setValue("50")
+            .setDescription("Maximum number of records created by one WAPI multi-request."),
+        new ConfigurableProperty(Properties.PROPERTY_WRITE_PARALLELISM).setValue("4")
+            .setDescription("Maximum number of record creation requests sent at the same time."),
+        new ConfigurableProperty(Properties.PROPERTY_METRICS_LOG_INTERVAL).setValue("0")
+            .setDescription("Seconds between log lines summarizing the calls made through the "
+                + "adapter, 0 disables them. The same statistics are always available over JMX.")
     );
 
     private String username;
     private String password;
     private String host;
+    private String wapiPath;
+    private boolean pagingSupported;
+    private int countPageSize;
+    private int overloadRetryAttempts;
+    private long overloadRetryBackoff;
+    
+    /** Long lived, pooled client shared by every bridge request made through this adapter. */
+    private volatile CloseableHttpClient httpClient;
+    
+    /** Chooses the grid member for each request, and holds a WAPI session for each member. */
+    private volatile InfobloxMemberRouter router;
+    
+    /** Caches results of repeated requests, passes every request through when disabled. */
+    private volatile InfobloxResultCache resultCache;
+    
+    /** Refreshes stale cached results, null unless a stale TTL is configured. */
+    private volatile ExecutorService cacheRefreshExecutor;
+    
+    /** Shares identical in-flight requests, null when coalescing is disabled. */
+    private volatile InfobloxRequestCoalescer requestCoalescer;
+    
+    /** In-memory copy of the mirrored structures, null when no structures are mirrored. */
+    private volatile InfobloxMirror mirror;
+    
+    /** Combines requests into WAPI multi-requests. */
+    private volatile InfobloxRequestBatcher requestBatcher;
+    
+    /** Creates records on the Grid Master. */
+    private volatile InfobloxRecordWriter recordWriter;
+    
+    /** Timings and counters of the calls made through the adapter, kept across re-initialization. */
+    private final InfobloxMetrics metrics = new InfobloxMetrics();
+    
+    /** Logs the metrics periodically, null when the log is disabled. */
+    private volatile ScheduledExecutorService metricsLogExecutor;
 
     /*---------------------------------------------------------------------------------------------
      * SETUP METHODS
@@ -89,8 +280,130 @@ public class InfobloxAdapter implements BridgeAdapter {
     public void initialize() throws BridgeError {
         this.username = properties.getValue(Properties.PROPERTY_USERNAME);
         this.password = properties.getValue(Properties.PROPERTY_PASSWORD);
-        this.host = StringUtils.removeEnd(properties.getValue(Properties.PROPERTY_HOST), "/");
+        this.host = properties.getValue(Properties.PROPERTY_HOST);
+        String wapiVersion = getWapiVersion();
+        this.wapiPath = "/wapi/v" + wapiVersion;
+        this.pagingSupported = supportsPaging(wapiVersion);
+        if (!this.pagingSupported 
+            && StringUtils.isNotBlank(properties.getValue(Properties.PROPERTY_MIRROR_STRUCTURES))) 
+        {
+            // Loading whole structures in one request would run into the grid's result limit
+            throw new BridgeError("The mirror loads structures a page at a time, which needs a '"
+                + Properties.PROPERTY_WAPI_VERSION+"' of 1.5 or later, but was "+wapiVersion+".");
+        }
+        this.countPageSize = getIntegerProperty(Properties.PROPERTY_COUNT_PAGE_SIZE);
+        this.overloadRetryAttempts = getIntegerProperty(Properties.PROPERTY_OVERLOAD_RETRY_ATTEMPTS);
+        this.overloadRetryBackoff = getLongProperty(Properties.PROPERTY_OVERLOAD_RETRY_BACKOFF);
+        
+        // Build the shared client before releasing the previous one so that a re-initialization
+        // never leaves the adapter without a usable client.
+        CloseableHttpClient previousClient = this.httpClient;
+        InfobloxMemberRouter previousRouter = this.router;
+        ExecutorService previousCacheRefreshExecutor = this.cacheRefreshExecutor;
+        InfobloxMirror previousMirror = this.mirror;
+        InfobloxRequestBatcher previousBatcher = this.requestBatcher;
+        InfobloxRecordWriter previousWriter = this.recordWriter;
+        ScheduledExecutorService previousMetricsLogExecutor = this.metricsLogExecutor;
+        this.httpClient = createHttpClient();
+        this.router = new InfobloxMemberRouter(this.httpClient, this.host, this.wapiPath, this.username, 
+            this.password, getIntegerProperty(Properties.PROPERTY_MEMBER_FAILURE_THRESHOLD), 
+            getIntegerProperty(Properties.PROPERTY_MEMBER_RETRY_INTERVAL), new InfobloxRateLimiter.Limits(
+                getIntegerProperty(Properties.PROPERTY_MEMBER_MAX_CONCURRENT_REQUESTS), 
+                getIntegerProperty(Properties.PROPERTY_MEMBER_RATE_LIMIT), 
+                getIntegerProperty(Properties.PROPERTY_MEMBER_MAX_WAITING_REQUESTS), 
+                getLongProperty(Properties.PROPERTY_MEMBER_WAIT_TIMEOUT)));
+        this.resultCache = createResultCache();
+        this.metrics.setResultCache(this.resultCache);
+        this.requestCoalescer = Boolean.valueOf(properties.getValue(Properties.PROPERTY_COALESCE_REQUESTS))
+            ? new InfobloxRequestCoalescer(getIntegerProperty(Properties.PROPERTY_COALESCE_WAIT_TIMEOUT))
+            : null;
+        this.requestBatcher = createRequestBatcher();
+        this.recordWriter = createRecordWriter();
+        this.mirror = createMirror();
+        this.metricsLogExecutor = createMetricsLogExecutor();
+        this.metrics.register(this.host);
+        if (previousMetricsLogExecutor != null) {
+            previousMetricsLogExecutor.shutdownNow();
+        }
+        if (previousWriter != null) {
+            previousWriter.shutdown();
+        }
+        if (previousBatcher != null) {
+            previousBatcher.shutdown();
+        }
+        if (previousMirror != null) {
+            previousMirror.shutdown();
+        }
+        if (previousRouter != null) {
+            previousRouter.shutdown();
+        }
+        if (previousCacheRefreshExecutor != null) {
+            previousCacheRefreshExecutor.shutdownNow();
+        }
+        closeQuietly(previousClient);
+    }
 
+    /**
+     * Ends the WAPI session and releases the pooled connections held by the adapter. The adapter
+     * must be initialized again before it can be used.
+     */
+    public void destroy() {
+        InfobloxMemberRouter currentRouter = this.router;
+        CloseableHttpClient client = this.httpClient;
+        ExecutorService refreshExecutor = this.cacheRefreshExecutor;
+        InfobloxMirror currentMirror = this.mirror;
+        InfobloxRequestBatcher currentBatcher = this.requestBatcher;
+        InfobloxRecordWriter currentWriter = this.recordWriter;
+        ScheduledExecutorService currentMetricsLogExecutor = this.metricsLogExecutor;
+        this.router = null;
+        this.httpClient = null;
+        this.resultCache = null;
+        this.cacheRefreshExecutor = null;
+        this.requestCoalescer = null;
+        this.mirror = null;
+        this.requestBatcher = null;
+        this.recordWriter = null;
+        this.metricsLogExecutor = null;
+        this.metrics.unregister();
+        this.metrics.setConnectionManager(null);
+        this.metrics.setResultCache(null);
+        if (currentMetricsLogExecutor != null) {
+            currentMetricsLogExecutor.shutdownNow();
+        }
+        if (currentWriter != null) {
+            currentWriter.shutdown();
+        }
+        if (currentBatcher != null) {
+            currentBatcher.shutdown();
+        }
+        if (currentMirror != null) {
+            currentMirror.shutdown();
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        if (currentRouter != null) {
+            currentRouter.shutdown();
+        }
+        closeQuietly(client);
+    }
+    
+    /**
+     * Removes every cached result for the structure, so that changes made to it outside of the
+     * adapter are visible to the next request. If the structure is mirrored, it is also reloaded
+     * in the background.
+     * 
+     * @param structure
+     */
+    public void invalidateCache(String structure) {
+        InfobloxResultCache cache = this.resultCache;
+        if (cache != null) {
+            cache.invalidate(structure);
+        }
+        InfobloxMirror currentMirror = this.mirror;
+        if (currentMirror != null) {
+            currentMirror.refresh(structure);
+        }
     }
 
     @Override
@@ -119,275 +432,994 @@ public class InfobloxAdapter implements BridgeAdapter {
 
     @Override
     public Count count(BridgeRequest request) throws BridgeError {
-        // Build the URL
-        StringBuilder buildUrl = new StringBuilder();
-        buildUrl.append(this.host);
-        buildUrl.append("/wapi/v1.0/");
-        buildUrl.append(request.getStructure());
-        
+        InfobloxMetrics.Call call = this.metrics.begin("count", request.getStructure());
+        try {
+            Count count = countRecords(request);
+            call.setRecords(count.getValue() == null ? 0 : count.getValue());
+            return count;
+        } finally {
+            this.metrics.end(call);
+        }
+    }
+
+    @Override
+    public Record retrieve(BridgeRequest request) throws BridgeError {
+        InfobloxMetrics.Call call = this.metrics.begin("retrieve", request.getStructure());
+        try {
+            Record record = retrieveRecord(request);
+            call.setRecords(record.getRecord() == null ? 0 : 1);
+            return record;
+        } finally {
+            this.metrics.end(call);
+        }
+    }
+
+    @Override
+    public RecordList search(BridgeRequest request) throws BridgeError {
+        InfobloxMetrics.Call call = this.metrics.begin("search", request.getStructure());
+        try {
+            RecordList records = searchRecords(request);
+            call.setRecords(records.getRecords().size());
+            return records;
+        } finally {
+            this.metrics.end(call);
+        }
+    }
+    
+    private Count countRecords(final BridgeRequest request) throws BridgeError {
         // Parsing the query to include parameters if they have been used. 
         InfobloxQualificationParser parser = new InfobloxQualificationParser();
-        String query = parser.parse(request.getQuery(),request.getParameters());
+        final String query = parser.parse(request.getQuery(),request.getParameters());
         
-        if (!query.equals("") || !query.equals("network=*")) {
-            buildUrl.append("?").append(encodeQuery(query));
+        List<JSONObject> mirrored = findMirrored(request.getStructure(), query, 
+            Collections.<String>emptySet());
+        if (mirrored != null) {
+            return new Count(mirrored.size());
         }
         
-        String output = "";
-        try (CloseableHttpClient httpclient = createAcceptSelfSignedCertificateClient()) {
-            HttpGet get = new HttpGet(buildUrl.toString());
-            
-            // Setting up the basic authentication and appending it to the Http object
-            logger.trace("Appending the authorization header to the post call");
-            String creds = this.username + ":" + this.password;
-            byte[] basicAuthBytes = Base64.encodeBase64(creds.getBytes());
-            get.setHeader("Authorization", "Basic " + new String(basicAuthBytes));
-            
-            HttpResponse response = httpclient.execute(get);
-            output = EntityUtils.toString(response.getEntity());
-            logger.trace("Request response code: " + response.getStatusLine().getStatusCode());
-            logger.trace("Request response: " + output);
-        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException | IOException e) {
-            throw new BridgeError(e);
+        String cacheKey = InfobloxResultCache.key("count", request.getStructure(), query, null, null);
+        return getCached(request, cacheKey, new InfobloxResultCache.Loader<Count>() {
+            @Override
+            public Count load() throws BridgeError {
+                return countFromWapi(request.getStructure(), query);
+            }
+        });
+    }
+
+    private Record retrieveRecord(final BridgeRequest request) throws BridgeError {
+        // Parsing the query to include parameters if they have been used. 
+        InfobloxQualificationParser parser = new InfobloxQualificationParser();
+        final String query = parser.parse(request.getQuery(),request.getParameters());
+        
+        InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(request.getFields());
+        List<JSONObject> mirrored = findMirrored(request.getStructure(), query, plan.getTopLevelFields());
+        if (mirrored != null) {
+            if (mirrored.size() > 1) {
+                throw new BridgeError("Multiple results matched an expected single match query");
+            }
+            return new Record(mirrored.isEmpty() ? null : plan.project(mirrored.get(0), true));
         }
         
-        JSONArray jsonArray = parseResponse(output);
-        return new Count(jsonArray.size());
+        String cacheKey = InfobloxResultCache.key("retrieve", request.getStructure(), query, 
+            request.getFields(), null);
+        return getCached(request, cacheKey, new InfobloxResultCache.Loader<Record>() {
+            @Override
+            public Record load() throws BridgeError {
+                return retrieveFromWapi(request.getStructure(), query, request.getFields());
+            }
+        });
     }
 
-    @Override
-    public Record retrieve(BridgeRequest request) throws BridgeError {
-        StringBuilder buildUrl = new StringBuilder();
-        buildUrl.append(this.host);
-        buildUrl.append("/wapi/v1.0/");
-        buildUrl.append(request.getStructure());
+    private RecordList searchRecords(final BridgeRequest request) throws BridgeError {
+        // Parsing the query to include parameters if they have been used. 
+        InfobloxQualificationParser parser = new InfobloxQualificationParser();
+        final String query = parser.parse(request.getQuery(),request.getParameters());
+        
+        final Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
+        Map<String,String> pagination = new LinkedHashMap<>();
+        pagination.put("pageSize", metadata.get("pageSize"));
+        pagination.put("offset", metadata.get("offset"));
+        pagination.put("pageToken", metadata.get("pageToken"));
         
-        List<String> fields = request.getFields();
-        List<String> returnableFields = new ArrayList<String>();
-        for (String field : fields) {
-            if (field.matches("extensible_attributes\\..*") && !returnableFields.contains("extensible_attributes")) {
-                returnableFields.add("extensible_attributes");
-            } else if (!field.equals("_ref") && !field.matches("extensible_attributes\\..*")) {
-                returnableFields.add(fieldToFieldList(field).get(0));
+        // Page tokens refer to a WAPI paging session, so only a search from an offset can be
+        // answered by the mirror
+        if (StringUtils.isBlank(metadata.get("pageToken"))) {
+            String mirrorQuery = query.equals("network=*") ? "" : query;
+            InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(request.getFields());
+            List<JSONObject> mirrored = findMirrored(request.getStructure(), mirrorQuery, 
+                plan.getTopLevelFields());
+            if (mirrored != null) {
+                return searchFromMirror(mirrored, request.getFields(), plan, new LinkedHashMap<>(metadata));
             }
         }
-
-        buildUrl.append("?_return_fields=");
-        buildUrl.append(StringUtils.join(returnableFields,","));
         
-        // Parsing the query to include parameters if they have been used. 
+        String cacheKey = InfobloxResultCache.key("search", request.getStructure(), query, 
+            request.getFields(), pagination);
+        return getCached(request, cacheKey, new InfobloxResultCache.Loader<RecordList>() {
+            @Override
+            public RecordList load() throws BridgeError {
+                return searchFromWapi(request.getStructure(), query, request.getFields(), 
+                    new LinkedHashMap<>(metadata));
+            }
+        });
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+    * BULK METHODS
+    *--------------------------------------------------------------------------------------------*/
+    
+    /**
+     * Retrieves the record for each request. The requests are sent to Infoblox together as WAPI
+     * multi-requests rather than one round trip each.
+     * 
+     * @param requests
+     * @return the records, in the same order as the requests
+     * @throws BridgeError if a request fails or matches more than one object
+     */
+    public List<Record> retrieveAll(List<BridgeRequest> requests) throws BridgeError {
+        InfobloxQualificationParser parser = new InfobloxQualificationParser();
+        List<InfobloxFieldPlan> plans = new ArrayList<>(requests.size());
+        List<String> paths = new ArrayList<>(requests.size());
+        for (BridgeRequest request : requests) {
+            String query = parser.parse(request.getQuery(),request.getParameters());
+            InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(request.getFields());
+            plans.add(plan);
+            paths.add(buildRetrievePath(request.getStructure(), query, plan));
+        }
+        
+        List<InfobloxRequestCoalescer.Response> responses = this.requestBatcher.executeAll(paths);
+        List<Record> records = new ArrayList<>(responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            RetrieveCollector collector = new RetrieveCollector(plans.get(i));
+            responses.get(i).parse(collector, plans.get(i).getTopLevelFields());
+            records.add(collector.getRecord());
+        }
+        return records;
+    }
+    
+    /**
+     * Retrieves the objects with the given references in one round trip (or a few, for more
+     * references than fit in one multi-request). Objects held by the mirror are not requested.
+     * 
+     * @param refs the <code>_ref</code> values of the objects
+     * @param fields the bridge fields to return for each object
+     * @return the records, in the same order as the references. The record of a reference that
+     *     could not be retrieved (for example because the object was deleted) is empty.
+     * @throws BridgeError if the requests could not be sent
+     */
+    public List<Record> retrieveByRefs(List<String> refs, List<String> fields) throws BridgeError {
+        InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(fields);
+        InfobloxMirror currentMirror = this.mirror;
+        Record[] records = new Record[refs.size()];
+        List<Integer> requested = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < refs.size(); i++) {
+            String ref = refs.get(i);
+            JSONObject mirrored = currentMirror == null ? null : currentMirror.findByRef(ref);
+            if (mirrored != null 
+                && currentMirror.getFields(ref.substring(0, ref.indexOf('/'))).containsAll(plan.getTopLevelFields())) 
+            {
+                records[i] = new Record(plan.project(mirrored, true));
+            } else {
+                requested.add(i);
+                paths.add(this.wapiPath + "/" + encodeRef(ref) + "?_return_fields=" + plan.getReturnFields());
+            }
+        }
+        
+        List<InfobloxRequestCoalescer.Response> responses = this.requestBatcher.executeAll(paths);
+        for (int i = 0; i < responses.size(); i++) {
+            Object result = responses.get(i).getValue();
+            Map<String,Object> record = null;
+            if (result instanceof JSONObject && ((JSONObject)result).containsKey("_ref")) {
+                record = plan.project((JSONObject)result, true);
+            } else {
+                logger.debug("Unable to retrieve the Infoblox object {}: {}", refs.get(requested.get(i)), result);
+            }
+            records[requested.get(i)] = new Record(record);
+        }
+        return Arrays.asList(records);
+    }
+    
+    /**
+     * Searches for records and counts every record matching the query, sending both requests to
+     * Infoblox as one WAPI multi-request. The "count" metadata of the result is the total number
+     * of matches rather than the number of records on the page. Pages are read from the start of
+     * the results rather than from a WAPI paging session, so no "nextPageToken" is returned.
+     * 
+     * @param request
+     * @return
+     * @throws BridgeError
+     */
+    public RecordList searchWithCount(BridgeRequest request) throws BridgeError {
         InfobloxQualificationParser parser = new InfobloxQualificationParser();
         String query = parser.parse(request.getQuery(),request.getParameters());
+        String searchQuery = query.equals("network=*") ? "" : query;
+        Map<String,String> metadata = new LinkedHashMap<>(
+            BridgeUtils.normalizePaginationMetadata(request.getMetadata()));
         
-        if (!query.equals("") || !query.equals("network=*")) {
-            buildUrl.append("&").append(encodeQuery(query));
+        if (StringUtils.isNotBlank(metadata.get("pageToken"))) {
+            // Continuing a paging session, which cannot be part of a multi-request
+            RecordList page = search(request);
+            page.getMetadata().put("count", String.valueOf(countFromWapi(request.getStructure(), searchQuery).getValue()));
+            return page;
         }
         
-        String output = "";
-        try (CloseableHttpClient httpclient = createAcceptSelfSignedCertificateClient()) {
-            HttpGet get = new HttpGet(buildUrl.toString());
-            
-            // Setting up the basic authentication and appending it to the Http object
-            logger.trace("Appending the authorization header to the post call");
-            String creds = this.username + ":" + this.password;
-            byte[] basicAuthBytes = Base64.encodeBase64(creds.getBytes());
-            get.setHeader("Authorization", "Basic " + new String(basicAuthBytes));
-            
-            HttpResponse response = httpclient.execute(get);
-            output = EntityUtils.toString(response.getEntity());
-            logger.trace("Request response code: " + response.getStatusLine().getStatusCode());
-            logger.trace("Request response: " + output);
-        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException | IOException e) {
-            throw new BridgeError(e);
-        }
-        
-        JSONArray jsonArray = parseResponse(output);
-        Map<String,Object> record = null;
-        if (jsonArray.size() > 1) {
-            throw new BridgeError("Multiple results matched an expected single match query");
-        } else if (!jsonArray.isEmpty()) {
-            record = new LinkedHashMap<>();
-            JSONObject json = (JSONObject)JSONValue.parse(jsonArray.get(0).toString());
-            for (String field : request.getFields()) {
-                if (field.matches("extensible_attributes\\..*")) {
-                    String subField = field.substring("extensible_attributes.".length());
-                    JSONObject extattr = (JSONObject)JSONValue.parse(json.get("extensible_attributes").toString());
-                    record.put(field,extattr.get(subField));
-                } else {
-                    record.put(field,toString(getBridgeField(json,fieldToFieldList(field))));
-                }
+        InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(request.getFields());
+        int pageSize = getPaginationValue(metadata, "pageSize");
+        int offset = pageSize == 0 ? 0 : getPaginationValue(metadata, "offset");
+        
+        List<JSONObject> mirrored = findMirrored(request.getStructure(), searchQuery, plan.getTopLevelFields());
+        if (mirrored != null) {
+            RecordList page = searchFromMirror(mirrored, request.getFields(), plan, metadata);
+            page.getMetadata().put("count", String.valueOf(mirrored.size()));
+            return page;
+        }
+        
+        String searchPath = buildSearchPath(request.getStructure(), query, plan);
+        if (pageSize > 0) {
+            // Only the results up to the end of the page are needed
+            searchPath += "&_max_results=-" + Math.min(Integer.MAX_VALUE, (long)offset + pageSize);
+        }
+        List<InfobloxRequestCoalescer.Response> responses = this.requestBatcher.executeAll(
+            Arrays.asList(buildCountPath(request.getStructure(), searchQuery), searchPath));
+        
+        InfobloxResponseParser.Result count = responses.get(0).parse(null, null);
+        List<Record> records = new ArrayList<>();
+        PageCollector collector = new PageCollector(records, plan, offset, 
+            pageSize == 0 ? Integer.MAX_VALUE : pageSize);
+        InfobloxResponseParser.Result page = responses.get(1).parse(collector, plan.getTopLevelFields());
+        if (!page.hasResults()) {
+            throw new BridgeError("Unable to retrieve the results from Infoblox: " + page.getErrorText());
+        }
+        
+        putSearchMetadata(metadata, pageSize, offset, records.size(), null);
+        metadata.put("count", String.valueOf(count.getCount()));
+        return new RecordList(request.getFields(), records, metadata);
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+    * WRITE METHODS
+    *--------------------------------------------------------------------------------------------*/
+    
+    /**
+     * Creates the records for each entry on the Grid Master, sending the entries in batches of
+     * WAPI multi-requests. An entry that fails does not stop the others from being created, and
+     * the cached and mirrored results of the structures written to are refreshed.
+     * 
+     * @param entries
+     * @return the outcome of each entry, along with the rate the records were created at
+     * @throws BridgeError
+     */
+    public InfobloxRecordWriter.Report createRecords(List<InfobloxRecordWriter.Entry> entries) throws BridgeError {
+        return this.recordWriter.write(entries);
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+    * WAPI REQUEST METHODS
+    *--------------------------------------------------------------------------------------------*/
+
+    private Count countFromWapi(String structure, String query) throws BridgeError {
+        // Only the reference of each result is returned, and the results are only counted rather
+        // than built. Paging through the results keeps each response small and lets the count go
+        // beyond the grid's limit on the number of results of a single request. Every page of a
+        // WAPI paging session has to be read from the member that started it.
+        InfobloxMemberRouter.Affinity affinity = new InfobloxMemberRouter.Affinity();
+        String path = buildCountPath(structure, query);
+        String pageUrl = buildFirstPagePath(path, this.countPageSize);
+        if (pageUrl == null) {
+            pageUrl = path;
+        }
+        long count = 0;
+        while (pageUrl != null) {
+            InfobloxResponseParser.Result page = executeGet(pageUrl, affinity, null, null);
+            if (!page.hasResults()) {
+                throw new BridgeError("Unable to count the "+structure+" objects in Infoblox: "
+                    + page.getErrorText());
             }
+            count += page.getCount();
+            pageUrl = page.getNextPageId() == null ? null : buildPageUrl(structure, page.getNextPageId());
         }
+        return new Count((int)Math.min(Integer.MAX_VALUE, count));
+    }
+
+    private Record retrieveFromWapi(String structure, String query, List<String> fields) throws BridgeError {
+        InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(fields);
+        RetrieveCollector collector = new RetrieveCollector(plan);
+        executeGet(buildRetrievePath(structure, query, plan), null, collector, plan.getTopLevelFields());
         
         // Returning the response
-        return new Record(record);
+        return collector.getRecord();
     }
 
-    @Override
-    public RecordList search(BridgeRequest request) throws BridgeError {
-        StringBuilder buildUrl = new StringBuilder();
-        buildUrl.append(this.host);
-        buildUrl.append("/wapi/v1.0/");
-        buildUrl.append(request.getStructure());
+    private RecordList searchFromWapi(String structure, String query, List<String> fields, 
+        Map<String,String> metadata) throws BridgeError 
+    {
+        final InfobloxFieldPlan plan = InfobloxFieldPlan.forFields(fields);
+        StringBuilder buildUrl = new StringBuilder(buildSearchPath(structure, query, plan));
         
-        List<String> fields = request.getFields();
-        List<String> returnableFields = new ArrayList<String>();
-        for (String field : fields) {
-            if (field.matches("extensible_attributes\\..*") && !returnableFields.contains("extensible_attributes")) {
-                returnableFields.add("extensible_attributes");
-            } else if (!field.equals("_ref") && !field.matches("extensible_attributes\\..*")) {
-                returnableFields.add(fieldToFieldList(field).get(0));
+        int pageSize = getPaginationValue(metadata, "pageSize");
+        int offset = getPaginationValue(metadata, "offset");
+        String pageToken = metadata.get("pageToken");
+        
+        Set<String> fieldFilter = plan.getTopLevelFields();
+        final List<Record> records = new ArrayList<>();
+        String nextPageToken = null;
+        if (pageSize == 0) {
+            // No page was requested, so retrieve the whole result set in one request. Each result
+            // is projected onto its record as soon as it has been read from the response.
+            executeGet(buildUrl.toString(), null, new InfobloxResponseParser.ResultHandler() {
+                @Override
+                public void handle(JSONObject result) {
+                    records.add(new Record(plan.project(result)));
+                }
+            }, fieldFilter);
+            offset = 0;
+        } else {
+            // Page through the results server side. A page token returned by a previous search
+            // continues directly from where that search stopped, otherwise the results before the
+            // offset are skipped a page at a time. Every page of a WAPI paging session has to be
+            // read from the member that started it.
+            InfobloxMemberRouter.Affinity affinity = new InfobloxMemberRouter.Affinity();
+            String pageUrl;
+            int skip;
+            if (StringUtils.isNotBlank(pageToken)) {
+                pageUrl = buildPageUrl(structure, this.router.decodePageToken(pageToken, affinity));
+                skip = 0;
+            } else {
+                pageUrl = buildFirstPagePath(buildUrl.toString(), pageSize);
+                skip = offset;
+            }
+            
+            PageCollector collector = new PageCollector(records, plan, skip, pageSize);
+            if (pageUrl == null) {
+                // WAPI before 1.5 has no paging, so the whole result set is read and the page is
+                // taken from it as the results are parsed. There is no session for a page token.
+                executeGet(buildUrl.toString(), null, collector, fieldFilter);
+            }
+            while (pageUrl != null && records.size() < pageSize) {
+                InfobloxResponseParser.Result page = executeGet(pageUrl, affinity, collector, fieldFilter);
+                if (!page.hasResults()) {
+                    throw new BridgeError("Unable to retrieve the page of results from Infoblox: "
+                        + page.getErrorText());
+                }
+                String nextPageId = page.getNextPageId();
+                
+                // A continuation token is only valid if every record on the page was returned,
+                // otherwise continuing from it would silently skip the remaining records.
+                nextPageToken = collector.remainderOfPage() == 0 && nextPageId != null
+                    ? this.router.encodePageToken(affinity.getMember(), nextPageId) : null;
+                pageUrl = nextPageId == null ? null : buildPageUrl(structure, nextPageId);
+                collector.startPage();
             }
         }
 
+        // Returning the response
+        putSearchMetadata(metadata, pageSize, offset, records.size(), nextPageToken);
+        return new RecordList(fields, records, metadata);
+    }
+    
+    private String buildCountPath(String structure, String query) {
+        StringBuilder buildUrl = new StringBuilder();
+        buildUrl.append(this.wapiPath).append("/");
+        buildUrl.append(structure);
+        // An empty list of return fields returns only the reference of each object
         buildUrl.append("?_return_fields=");
-        buildUrl.append(StringUtils.join(returnableFields,","));
         
-        // Parsing the query to include parameters if they have been used. 
-        InfobloxQualificationParser parser = new InfobloxQualificationParser();
-        String query = parser.parse(request.getQuery(),request.getParameters());
+        if (!query.equals("") && !query.equals("network=*")) {
+            buildUrl.append("&").append(encodeQuery(query));
+        }
+        return buildUrl.toString();
+    }
+    
+    private String buildRetrievePath(String structure, String query, InfobloxFieldPlan plan) {
+        StringBuilder buildUrl = new StringBuilder();
+        buildUrl.append(this.wapiPath).append("/");
+        buildUrl.append(structure);
+        buildUrl.append("?_return_fields=");
+        buildUrl.append(plan.getReturnFields());
         
         if (!query.equals("") && !query.equals("network=*")) {
             buildUrl.append("&").append(encodeQuery(query));
         }
         
-        String output = "";
-        try (CloseableHttpClient httpclient = createAcceptSelfSignedCertificateClient()) {
-            HttpGet get = new HttpGet(buildUrl.toString());
-            
-            // Setting up the basic authentication and appending it to the Http object
-            logger.trace("Appending the authorization header to the post call");
-            String creds = this.username + ":" + this.password;
-            byte[] basicAuthBytes = Base64.encodeBase64(creds.getBytes());
-            get.setHeader("Authorization", "Basic " + new String(basicAuthBytes));
-            
-            HttpResponse response = httpclient.execute(get);
-            output = EntityUtils.toString(response.getEntity());
-            logger.trace("Request response code: " + response.getStatusLine().getStatusCode());
-            logger.trace("Request response: " + output);
-        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException | IOException e) {
-            throw new BridgeError(e);
+        // Two results are enough to know the query is ambiguous, so there is no need for the
+        // server to return (or for the adapter to read) any further matches. A negative limit
+        // truncates the results, a positive one would make WAPI return an error instead.
+        buildUrl.append("&_max_results=-2");
+        return buildUrl.toString();
+    }
+    
+    private String buildSearchPath(String structure, String query, InfobloxFieldPlan plan) {
+        StringBuilder buildUrl = new StringBuilder();
+        buildUrl.append(this.wapiPath).append("/");
+        buildUrl.append(structure);
+        buildUrl.append("?_return_fields=");
+        buildUrl.append(plan.getReturnFields());
+        
+        if (!query.equals("") && !query.equals("network=*")) {
+            buildUrl.append("&").append(encodeQuery(query));
+        }
+        return buildUrl.toString();
+    }
+    
+    /**
+     * Loads every object of a structure a page at a time, used to populate the mirror.
+     */
+    private void fetchAllFromWapi(String structure, String returnFields, String query, 
+        InfobloxResponseParser.ResultHandler handler, int pageSize) throws BridgeError 
+    {
+        StringBuilder buildUrl = new StringBuilder();
+        buildUrl.append(this.wapiPath).append("/");
+        buildUrl.append(structure);
+        buildUrl.append("?_return_fields=").append(returnFields);
+        if (!query.equals("")) {
+            buildUrl.append("&").append(encodeQuery(query));
         }
         
-        JSONArray jsonArray = parseResponse(output);
-        List<Record> records = new ArrayList<>();
-        for (int i = 0; i<jsonArray.size(); i++) {
-            JSONObject record = (JSONObject)jsonArray.get(i);
-            JSONObject extensibleAttributes = null;
-            // Initialize Map for Record data
-            Map<String,Object> data = new LinkedHashMap<>();
-            for (String key : request.getFields()) {
-                if (key.startsWith("extensible_attributes.")) {
-                    String subKey = key.substring("extensible_attributes.".length());
-                    if (extensibleAttributes == null) extensibleAttributes = (JSONObject)record.get("extensible_attributes");
-                    data.put(key,extensibleAttributes.get(subKey));
-                } else {
-                    data.put(key,getBridgeField(record,fieldToFieldList(key)));
-                }
+        InfobloxMemberRouter.Affinity affinity = new InfobloxMemberRouter.Affinity();
+        String pageUrl = buildFirstPagePath(buildUrl.toString(), pageSize);
+        if (pageUrl == null) {
+            pageUrl = buildUrl.toString();
+        }
+        while (pageUrl != null) {
+            InfobloxResponseParser.Result page = executeGet(pageUrl, affinity, handler, null);
+            if (!page.hasResults()) {
+                throw new BridgeError("Unable to retrieve the "+structure+" objects from Infoblox: "
+                    + page.getErrorText());
             }
-            records.add(new Record(data));
+            pageUrl = page.getNextPageId() == null ? null : buildPageUrl(structure, page.getNextPageId());
         }
-
-        // Building the output metadata
-        Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
-        metadata.put("pageSize", "0");
-        metadata.put("pageNumber", "1");
-        metadata.put("offset", "0");
-        metadata.put("size", String.valueOf(records.size()));
-        metadata.put("count", metadata.get("size"));
-
-        // Returning the response
-        return new RecordList(request.getFields(), records, metadata);
     }
     
     /*----------------------------------------------------------------------------------------------
-    * PRIVATE HELPER METHODS
+    * MIRROR METHODS
     *--------------------------------------------------------------------------------------------*/
-    private static final Pattern isMultipleFields = Pattern.compile("\\w+(?:\\[\"\\w*?\"\\])*");
-    private static final Pattern findChildFields = Pattern.compile("\\[\"(\\w*?)\"\\]");
     
-    private List<String> fieldToFieldList(String field) {
-        List<String> fieldList = new ArrayList<String>();
-        if (isMultipleFields.matcher(field).matches()) {
-            fieldList.add(field.split("\\[")[0]);
-            Matcher m = findChildFields.matcher(field);
-            while (m.find()) {
-                fieldList.add(m.group(1));
+    /**
+     * Returns the mirrored objects matching the query, or null if the query has to be sent to
+     * WAPI.
+     */
+    private List<JSONObject> findMirrored(String structure, String query, Set<String> fields) {
+        InfobloxMirror currentMirror = this.mirror;
+        return currentMirror == null ? null : currentMirror.find(structure, query, fields);
+    }
+    
+    private RecordList searchFromMirror(List<JSONObject> results, List<String> fields, 
+        InfobloxFieldPlan plan, Map<String,String> metadata) throws BridgeError 
+    {
+        int pageSize = getPaginationValue(metadata, "pageSize");
+        int offset = pageSize == 0 ? 0 : getPaginationValue(metadata, "offset");
+        int end = pageSize == 0 ? results.size() : (int)Math.min(results.size(), (long)offset + pageSize);
+        
+        List<Record> records = new ArrayList<>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            records.add(new Record(plan.project(results.get(i))));
+        }
+        
+        putSearchMetadata(metadata, pageSize, offset, records.size(), null);
+        return new RecordList(fields, records, metadata);
+    }
+    
+    private InfobloxMirror createMirror() throws BridgeError {
+        String structuresValue = properties.getValue(Properties.PROPERTY_MIRROR_STRUCTURES);
+        if (StringUtils.isBlank(structuresValue)) {
+            return null;
+        }
+        List<String> structures = new ArrayList<>();
+        for (String structure : structuresValue.split(",")) {
+            if (StringUtils.isNotBlank(structure) && !structures.contains(structure.trim())) {
+                structures.add(structure.trim());
+            }
+        }
+        long refreshInterval = getIntegerProperty(Properties.PROPERTY_MIRROR_REFRESH_INTERVAL) * 1000L;
+        final int pageSize = getIntegerProperty(Properties.PROPERTY_MIRROR_PAGE_SIZE);
+        if (refreshInterval == 0 || pageSize == 0) {
+            throw new BridgeError("The '"+Properties.PROPERTY_MIRROR_REFRESH_INTERVAL+"' and '"
+                + Properties.PROPERTY_MIRROR_PAGE_SIZE+"' properties must be greater than 0.");
+        }
+        
+        InfobloxMirror newMirror = new InfobloxMirror(new InfobloxMirror.Source() {
+            @Override
+            public void fetchAll(String structure, String returnFields, String query,
+                InfobloxResponseParser.ResultHandler handler) throws BridgeError 
+            {
+                fetchAllFromWapi(structure, returnFields, query, handler, pageSize);
             }
+        }, structures, refreshInterval);
+        newMirror.start();
+        return newMirror;
+    }
+    
+    /*----------------------------------------------------------------------------------------------
+    * PRIVATE HELPER METHODS
+    *--------------------------------------------------------------------------------------------*/
+    /**
+     * Returns the cached result of the request, loading it if it is not cached. Requests with the
+     * "cacheControl" metadata set to "no-cache" always load (and re-cache) the result.
+     */
+    private <T> T getCached(BridgeRequest request, String cacheKey, InfobloxResultCache.Loader<T> loader) 
+        throws BridgeError 
+    {
+        InfobloxResultCache cache = this.resultCache;
+        if (cache == null) {
+            throw new BridgeError("The Infoblox adapter has been destroyed, it must be initialized "
+                + "again before it can be used.");
+        }
+        Map<String,String> metadata = request.getMetadata();
+        boolean bypass = metadata != null 
+            && CACHE_CONTROL_NO_CACHE.equalsIgnoreCase(metadata.get(METADATA_CACHE_CONTROL));
+        return cache.get(request.getStructure(), cacheKey, loader, bypass);
+    }
+    
+    private void putSearchMetadata(Map<String,String> metadata, int pageSize, int offset, int size, 
+        String nextPageToken) 
+    {
+        metadata.put("pageSize", String.valueOf(pageSize));
+        metadata.put("pageNumber", String.valueOf(pageSize == 0 ? 1 : offset / pageSize + 1));
+        metadata.put("offset", String.valueOf(offset));
+        metadata.put("size", String.valueOf(size));
+        metadata.put("count", metadata.get("size"));
+        metadata.remove("pageToken");
+        if (nextPageToken != null) {
+            metadata.put("nextPageToken", nextPageToken);
         } else {
-            fieldList.add(field);
+            metadata.remove("nextPageToken");
+        }
+    }
+    
+    /**
+     * Adds the WAPI paging arguments to the path. Every paged request starts here, as paging is
+     * only available from WAPI 1.5.
+     * 
+     * @param path the WAPI path and query string
+     * @param pageSize the number of results per page, 0 for no paging
+     * @return the path of the first page, or null if the request cannot be paged and the whole
+     *     result set has to be read with the path as it is
+     */
+    private String buildFirstPagePath(String path, int pageSize) {
+        if (!this.pagingSupported || pageSize <= 0) {
+            return null;
         }
-        return fieldList;
+        return path + (path.indexOf('?') == -1 ? "?" : "&") 
+            + "_paging=1&_return_as_object=1&_max_results=" + pageSize;
     }
     
-    private Object getBridgeField(Object parentObject, List<String> fieldList) {
-        if (fieldList == null || fieldList.isEmpty()) {
-            return parentObject;
-        } else if (parentObject.getClass().equals(JSONObject.class)) {
-            JSONObject json = (JSONObject)parentObject;
-            String currentField = fieldList.get(0);
-            return getBridgeField(json.get(currentField),fieldList.subList(1,fieldList.size()));
-        } else if (parentObject.getClass().equals(JSONArray.class)) {
-            JSONArray array = (JSONArray)parentObject;
-            List returnList = new ArrayList();
-            for (Object o : array) {
-                returnList.add(getBridgeField(o,fieldList));
+    private String buildPageUrl(String structure, String pageId) {
+        try {
+            return this.wapiPath + "/" + structure + "?_page_id=" + URLEncoder.encode(pageId, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private int getPaginationValue(Map<String,String> metadata, String name) throws BridgeError {
+        String value = metadata.get(name);
+        try {
+            int result = Integer.parseInt(value);
+            if (result < 0) {
+                throw new NumberFormatException();
             }
-            return returnList;
+            return result;
+        } catch (NumberFormatException e) {
+            throw new BridgeError("The '"+name+"' metadata value must be a non-negative integer, but was '"+value+"'.");
+        }
+    }
+    
+    /**
+     * Executes a GET against the Infoblox WAPI and parses the response with the
+     * {@link InfobloxResponseParser}.
+     * <p>
+     * When request coalescing is enabled, identical GETs that are in flight at the same time share
+     * a single request and its buffered response, and each caller parses the response on its own.
+     * When a batch window is configured, GETs from concurrent callers are combined into
+     * multi-requests. Only GETs whose responses are limited to a page of results are coalesced or
+     * batched, so a whole result set is never buffered. The first page of a paged search is never
+     * shared either, so that every search gets its own paging session and page token. Otherwise
+     * the response body is streamed straight into the parser.
+     * 
+     * @param path the WAPI path and query string
+     * @param affinity binds the request to a grid member, or null to let the router choose
+     */
+    private InfobloxResponseParser.Result executeGet(final String path, 
+        final InfobloxMemberRouter.Affinity affinity, final InfobloxResponseParser.ResultHandler handler, 
+        final Set<String> fieldFilter) throws BridgeError 
+    {
+        boolean bounded = BOUNDED_PATTERN.matcher(path).find();
+        InfobloxRequestCoalescer coalescer = bounded ? this.requestCoalescer : null;
+        final InfobloxRequestBatcher batcher = this.requestBatcher;
+        final InfobloxMember pinned = affinity == null ? null : affinity.getMember();
+        final boolean batched = bounded && pinned == null && batcher.isWindowed() && batcher.isBatchable(path);
+        InfobloxResponseParser.Result result;
+        if (coalescer == null && !batched) {
+            result = sendRequest(path, null, affinity, new EntityConsumer<InfobloxResponseParser.Result>() {
+                @Override
+                public InfobloxResponseParser.Result consume(HttpEntity entity, Charset charset) 
+                    throws IOException, BridgeError 
+                {
+                    try (Reader reader = new InputStreamReader(entity.getContent(), charset)) {
+                        return InfobloxResponseParser.parse(reader, handler, fieldFilter);
+                    }
+                }
+            });
         } else {
-            return null;
+            // The session is shared by the whole adapter, so the path (and the member when the
+            // request is bound to one) identifies the request
+            InfobloxRequestCoalescer.Fetcher fetcher = new InfobloxRequestCoalescer.Fetcher() {
+                @Override
+                public InfobloxRequestCoalescer.Response fetch() throws BridgeError {
+                    return batched ? batcher.submit(path) : sendBuffered(path, null, pinned);
+                }
+            };
+            InfobloxRequestCoalescer.Response response = coalescer == null 
+                ? fetcher.fetch() 
+                : coalescer.execute(pinned == null ? path : pinned.getUrl() + path, fetcher);
+            if (affinity != null && pinned == null) {
+                affinity.setMember(this.router.getMember(response.getOrigin()));
+            }
+            long parseStart = System.nanoTime();
+            result = response.parse(handler, fieldFilter);
+            InfobloxMetrics.recordPhase(InfobloxMetrics.Phase.PARSE, System.nanoTime() - parseStart);
         }
+        
+        if (!result.hasResults()) {
+            if (result.getEnvelope() instanceof JSONObject) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(((JSONObject)result.getEnvelope()).toJSONString());
+                }
+            } else {
+                logger.error("The response received is not a JSON array: {}", result.getEnvelope());
+            }
+        }
+        return result;
     }
+    
+    /** Reads the entity of a successfully authenticated response. */
+    private interface EntityConsumer<T> {
+        T consume(HttpEntity entity, Charset charset) throws IOException, BridgeError;
+    }
+    
+    /**
+     * Sends a request and buffers the response body, so it can be shared or parsed later.
+     * 
+     * @param path the WAPI path and query string
+     * @param body the JSON body of a POST, or null to send a GET
+     * @param member the member to send the request to, or null to let the router choose
+     */
+    private InfobloxRequestCoalescer.Response sendBuffered(String path, String body, InfobloxMember member) 
+        throws BridgeError 
+    {
+        final InfobloxMemberRouter.Affinity used = new InfobloxMemberRouter.Affinity();
+        used.setMember(member);
+        return sendRequest(path, body, used, new EntityConsumer<InfobloxRequestCoalescer.Response>() {
+            @Override
+            public InfobloxRequestCoalescer.Response consume(HttpEntity entity, Charset charset) 
+                throws IOException 
+            {
+                return new InfobloxRequestCoalescer.Response(EntityUtils.toByteArray(entity), 
+                    charset, used.getMember().getUrl());
+            }
+        });
+    }
+    
+    /**
+     * Sends a request to a grid member and passes the response entity to the consumer.
+     * <p>
+     * Unless the affinity is already bound to a member, the router chooses the member and the
+     * affinity is bound to it. If the member cannot be reached, times out or returns a server
+     * error before any of the response has been consumed, the request is sent to the next best
+     * member instead. Writes are always bound to the Grid Master, so they are never sent twice.
+     */
+    private <T> T sendRequest(String path, String body, InfobloxMemberRouter.Affinity affinity, 
+        EntityConsumer<T> consumer) throws BridgeError 
+    {
+        InfobloxMemberRouter currentRouter = this.router;
+        InfobloxMember pinned = affinity == null ? null : affinity.getMember();
+        Set<InfobloxMember> tried = new HashSet<>();
+        while (true) {
+            InfobloxMember member = pinned != null ? pinned : currentRouter.selectReader(tried);
+            tried.add(member);
+            if (affinity != null) {
+                affinity.setMember(member);
+            }
+            try {
+                return sendRequest(currentRouter, member, path, body, consumer);
+            } catch (MemberFailure e) {
+                if (pinned != null || currentRouter.selectReader(tried) == null) {
+                    throw e.getCause();
+                }
+                logger.warn("The request to the Infoblox member {} failed, retrying on another member: {}", 
+                    member, e.getCause().getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Sends a request using the shared client and passes the response entity to the consumer. The
+     * response entity is always fully consumed so the connection can be returned to the pool and
+     * reused by the next request.
+     * <p>
+     * If the member rejects the shared session (for example because it was restarted) the session
+     * is re-established and the request is retried once. If the member is overloaded (it returns
+     * 429 or 503) every request to it is held back for the time it asks for, or a jittered
+     * exponential backoff, and the request is retried a limited number of times.
+     * 
+     * @throws MemberFailure if the request failed in a way that another member may not
+     */
+    private <T> T sendRequest(InfobloxMemberRouter currentRouter, InfobloxMember member, String path, 
+        String body, EntityConsumer<T> consumer) throws BridgeError, MemberFailure 
+    {
+        InfobloxAuthenticationManager authentication = member.getAuthenticationManager();
+        InfobloxRateLimiter rateLimiter = member.getRateLimiter();
+        boolean reauthenticated = false;
+        int retries = 0;
+        long backoff = 0;
+        while (true) {
+            if (backoff > 0) {
+                sleep(backoff);
+                backoff = 0;
+            }
+            HttpRequestBase request;
+            if (body == null) {
+                request = new HttpGet(member.getUrl() + path);
+            } else {
+                HttpPost post = new HttpPost(member.getUrl() + path);
+                post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+                request = post;
+            }
+            InfobloxAuthenticationManager.Session session;
+            long authStart = System.nanoTime();
+            try {
+                session = authentication.authorize(request);
+            } catch (BridgeError e) {
+                if (e.getCause() instanceof IOException) {
+                    currentRouter.recordFailure(member);
+                    throw new MemberFailure(e);
+                }
+                throw e;
+            } finally {
+                InfobloxMetrics.recordPhase(InfobloxMetrics.Phase.AUTH, System.nanoTime() - authStart);
+            }
+            
+            long waitStart = System.nanoTime();
+            try {
+                rateLimiter.acquire();
+            } catch (BridgeError e) {
+                // The member is busy rather than failing, so its circuit is left alone
+                throw new MemberFailure(e);
+            } finally {
+                InfobloxMetrics.recordPhase(InfobloxMetrics.Phase.WAIT, System.nanoTime() - waitStart);
+            }
+            long start = System.nanoTime();
+            member.begin();
+            CloseableHttpResponse response;
+            InfobloxMetrics.takeConnectTime();
+            try {
+                response = this.httpClient.execute(request);
+            } catch (IOException e) {
+                member.end();
+                rateLimiter.release();
+                this.metrics.recordError("io");
+                currentRouter.recordFailure(member);
+                throw new MemberFailure(new BridgeError("Unable to send the request to the Infoblox "
+                    + "member "+member+".", e));
+            }
+            
+            long connect = InfobloxMetrics.takeConnectTime();
+            InfobloxMetrics.recordPhase(InfobloxMetrics.Phase.CONNECT, connect);
+            InfobloxMetrics.recordPhase(InfobloxMetrics.Phase.SERVER, System.nanoTime() - start - connect);
+            
+            try {
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode >= 400) {
+                    this.metrics.recordError(String.valueOf(statusCode));
+                }
+                if (statusCode == 401 && session != null && !reauthenticated) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    authentication.invalidate(session);
+                    reauthenticated = true;
+                    continue;
+                }
+                logger.trace("Request response code: {}", statusCode);
+                if ((statusCode == 429 || statusCode == 503) && retries < this.overloadRetryAttempts) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    backoff = getOverloadDelay(response, retries++);
+                    rateLimiter.pause(backoff);
+                    logger.debug("The Infoblox member {} returned {}, retrying in {} ms.", 
+                        member, response.getStatusLine(), backoff);
+                    continue;
+                }
+                if (statusCode == 429) {
+                    throw new BridgeError("The Infoblox member "+member+" is limiting the rate of "
+                        + "requests ("+response.getStatusLine()+").");
+                }
+                if (statusCode >= 500) {
+                    String error = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+                    currentRouter.recordFailure(member);
+                    throw new MemberFailure(new BridgeError("The Infoblox member "+member+" returned "
+                        + response.getStatusLine()+": "+error));
+                }
+                currentRouter.recordSuccess(member, System.nanoTime() - start);
+                
+                HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    throw new BridgeError("Infoblox returned an empty response ("+response.getStatusLine()+").");
+                }
+                Charset charset = ContentType.getOrDefault(entity).getCharset();
+                long readStart = System.nanoTime();
+                try {
+                    return consumer.consume(entity, charset == null ? Consts.UTF_8 : charset);
+                } finally {
+                    InfobloxMetrics.recordPhase(InfobloxMetrics.Phase.READ, System.nanoTime() - readStart);
+                    InfobloxMetrics.recordResponse(InfobloxMetrics.takeResponseBytes());
+                }
+            } catch (IOException e) {
+                // Part of the response may already have been consumed, so it is not retried
+                currentRouter.recordFailure(member);
+                throw new BridgeError(e);
+            } finally {
+                member.end();
+                rateLimiter.release();
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    logger.debug("Unable to close the Infoblox response.", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * How long to wait before retrying a request the member rejected because it is overloaded: the
+     * time given by its Retry-After header, or otherwise an exponential backoff with full jitter so
+     * the retries of concurrent requests are spread out.
+     */
+    private long getOverloadDelay(HttpResponse response, int retry) {
+        Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null && StringUtils.isNotBlank(retryAfter.getValue())) {
+            String value = retryAfter.getValue().trim();
+            if (StringUtils.isNumeric(value)) {
+                return Math.min(MAX_OVERLOAD_DELAY, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+            }
+            Date date = DateUtils.parseDate(value);
+            if (date != null) {
+                return Math.max(0, Math.min(MAX_OVERLOAD_DELAY, date.getTime() - System.currentTimeMillis()));
+            }
+        }
+        long ceiling = Math.min(MAX_OVERLOAD_DELAY, this.overloadRetryBackoff << Math.min(retry, 16));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+    
+    private static void sleep(long millis) throws BridgeError {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting to retry the Infoblox request.", e);
+        }
+    }
+    
+    /** A request failure that may succeed if the request is sent to another grid member. */
+    private static class MemberFailure extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        MemberFailure(BridgeError cause) {
+            super(cause);
+        }
 
-    private JSONArray parseResponse(String responseBody) throws BridgeError {
-        Object object = JSONValue.parse(responseBody);
-        if (object == null) {
-            throw new BridgeError("The returned output is not valid JSON and therefore cannot be parsed. Turn on trace logging to see the full output the adapter is receiving.");
-        } else if (object instanceof JSONArray) {
-            return (JSONArray) object;
-        } else if (object instanceof JSONObject) {
-            JSONObject jsonObject = (JSONObject) object;
-            logger.trace(jsonObject.toJSONString());
-            return new JSONArray();
-        } else {
-            logger.error("The response received is not JSON: " + object.getClass().getName());
-            return new JSONArray();
+        @Override
+        public synchronized BridgeError getCause() {
+            return (BridgeError)super.getCause();
         }
     }
 
     /**
-    * Returns the string value of the object.
-    * <p>
-    * If the value is not a String, a JSON representation of the object will be returned.
-    * 
-    * @param value
-    * @return 
-    */
-    private String toString(Object value) {
-        String result = null;
-        if (value != null) {
-            if (String.class.isInstance(value)) {
-                result = (String)value;
+     * Projects the results of one or more pages onto records, skipping the results before the
+     * requested offset and ignoring the results after the requested page.
+     */
+    private class PageCollector implements InfobloxResponseParser.ResultHandler {
+        private final List<Record> records;
+        private final InfobloxFieldPlan plan;
+        private int skip;
+        private int remaining;
+        private int remainderOfPage;
+        
+        PageCollector(List<Record> records, InfobloxFieldPlan plan, int skip, int pageSize) {
+            this.records = records;
+            this.plan = plan;
+            this.skip = skip;
+            this.remaining = pageSize;
+        }
+        
+        @Override
+        public void handle(JSONObject result) {
+            if (skip > 0) {
+                skip--;
+            } else if (remaining > 0) {
+                records.add(new Record(plan.project(result)));
+                remaining--;
             } else {
-                result = JSONValue.toJSONString(value);
+                remainderOfPage++;
             }
         }
-        return result;
-     }
+        
+        /** The number of results on the current page that were not returned. */
+        int remainderOfPage() {
+            return remainderOfPage;
+        }
+        
+        void startPage() {
+            remainderOfPage = 0;
+        }
+    }
+    
+    /** Projects the single result of a retrieve, failing if the query matched more than one. */
+    private static class RetrieveCollector implements InfobloxResponseParser.ResultHandler {
+        private final InfobloxFieldPlan plan;
+        private Map<String,Object> record;
+        
+        RetrieveCollector(InfobloxFieldPlan plan) {
+            this.plan = plan;
+        }
+        
+        @Override
+        public void handle(JSONObject result) throws BridgeError {
+            if (record != null) {
+                throw new BridgeError("Multiple results matched an expected single match query");
+            }
+            record = plan.project(result, true);
+        }
+        
+        Record getRecord() {
+            return new Record(record);
+        }
+    }
 
-    private String encodeQuery(String query) {
-        String encodedQuery = URLEncoder.encode(query);
-        return encodedQuery.replaceAll("%3D", "=").replaceAll("%26", "&");
+    /** Encodes a reference for use as a path, keeping the separators WAPI expects. */
+    private String encodeRef(String ref) {
+        try {
+            return URLEncoder.encode(ref, "UTF-8").replace("%2F", "/").replace("%3A", ":");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /** URL encodes a bridge query, leaving its = and & separators intact. */
+    static String encodeQuery(String query) {
+        try {
+            String encodedQuery = URLEncoder.encode(query, "UTF-8");
+            return encodedQuery.replaceAll("%3D", "=").replaceAll("%26", "&");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
-    private static CloseableHttpClient createAcceptSelfSignedCertificateClient()
-            throws KeyManagementException, NoSuchAlgorithmException, KeyStoreException {
+    /**
+     * Builds the pooled client used for all requests made by this adapter.
+     * <p>
+     * The SSLContext (and therefore its TLS session cache) is created once, so connections opened
+     * after the first handshake resume the existing session instead of doing a full handshake.
+     * Idle and expired connections are evicted by a background thread owned by the client, which
+     * is stopped when the client is closed.
+     */
+    private CloseableHttpClient createHttpClient() throws BridgeError {
+        int maxConnections = getIntegerProperty(Properties.PROPERTY_MAX_CONNECTIONS);
+        int maxConnectionsPerRoute = getIntegerProperty(Properties.PROPERTY_MAX_CONNECTIONS_PER_ROUTE);
+        int connectTimeout = getIntegerProperty(Properties.PROPERTY_CONNECT_TIMEOUT);
+        int socketTimeout = getIntegerProperty(Properties.PROPERTY_SOCKET_TIMEOUT);
+        int connectionRequestTimeout = getIntegerProperty(Properties.PROPERTY_CONNECTION_REQUEST_TIMEOUT);
+        final long keepAlive = getIntegerProperty(Properties.PROPERTY_KEEP_ALIVE);
+        long idleConnectionTimeout = getIntegerProperty(Properties.PROPERTY_IDLE_CONNECTION_TIMEOUT);
 
-        // use the TrustSelfSignedStrategy to allow Self Signed Certificates
-        SSLContext sslContext = SSLContextBuilder
+        SSLContext sslContext;
+        try {
+            // use the TrustSelfSignedStrategy to allow Self Signed Certificates
+            sslContext = SSLContextBuilder
                 .create()
                 .loadTrustMaterial(new TrustSelfSignedStrategy())
                 .build();
+        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
+            throw new BridgeError("Unable to build the SSL context for the Infoblox client.", e);
+        }
 
         // we can optionally disable hostname verification. 
         // if you don't want to further weaken the security, you don't have to include this.
@@ -397,10 +1429,206 @@ public class InfobloxAdapter implements BridgeAdapter {
         // and allow all hosts verifier.
         SSLConnectionSocketFactory connectionFactory = new SSLConnectionSocketFactory(sslContext, allowAllHosts);
         
-        // finally create the HttpClient using HttpClient factory methods and assign the ssl socket factory
-        return HttpClients
-                .custom()
-                .setSSLSocketFactory(connectionFactory)
-                .build();
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", new InfobloxMetrics.TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory(), this.metrics))
+            .register("https", new InfobloxMetrics.TimedSocketFactory(connectionFactory, this.metrics))
+            .build();
+        
+        PoolingHttpClientConnectionManager connectionManager = 
+            new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        this.metrics.setConnectionManager(connectionManager);
+        
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .setConnectionRequestTimeout(connectionRequestTimeout)
+            .build();
+        
+        // Honor the Keep-Alive timeout sent by the server, falling back to the configured value
+        // when the server does not send one.
+        ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAlive;
+            }
+        };
+        
+        HttpClientBuilder builder = HttpClients
+            .custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            // The WAPI session cookie is managed by the InfobloxAuthenticationManager
+            .disableCookieManagement()
+            .evictExpiredConnections()
+            .evictIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS)
+            // Added first so the response bytes are counted before the content is decoded
+            .addInterceptorFirst(new InfobloxMetrics.ResponseCounter());
+        
+        // Unless disabled, every request accepts gzip or deflate encoded responses, which are
+        // decoded as they are read so the parser and response buffers only see the JSON.
+        if (!Boolean.valueOf(properties.getValue(Properties.PROPERTY_COMPRESS_RESPONSES))) {
+            builder.disableContentCompression();
+        }
+        return builder.build();
+    }
+    
+    private InfobloxResultCache createResultCache() throws BridgeError {
+        long ttl = getIntegerProperty(Properties.PROPERTY_CACHE_TTL) * 1000L;
+        long staleTtl = getIntegerProperty(Properties.PROPERTY_CACHE_STALE_TTL) * 1000L;
+        long maxBytes = getLongProperty(Properties.PROPERTY_CACHE_MAX_SIZE);
+        
+        Map<String,Long> structureTtls = new HashMap<>();
+        String structureTtlsValue = properties.getValue(Properties.PROPERTY_CACHE_STRUCTURE_TTLS);
+        if (StringUtils.isNotBlank(structureTtlsValue)) {
+            for (String pair : structureTtlsValue.split(",")) {
+                String[] parts = pair.split("=");
+                try {
+                    structureTtls.put(parts[0].trim(), Long.parseLong(parts[1].trim()) * 1000L);
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    throw new BridgeError("The '"+Properties.PROPERTY_CACHE_STRUCTURE_TTLS+"' property "
+                        + "must be a comma separated list of structure=seconds pairs, but contained '"+pair+"'.");
+                }
+            }
+        }
+        
+        if (staleTtl > 0) {
+            this.cacheRefreshExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, 
+                new ArrayBlockingQueue<Runnable>(100), new DaemonThreadFactory("infoblox-cache-refresh"));
+        } else {
+            this.cacheRefreshExecutor = null;
+        }
+        return new InfobloxResultCache(ttl, structureTtls, staleTtl, maxBytes, this.cacheRefreshExecutor);
+    }
+    
+    private InfobloxRequestBatcher createRequestBatcher() throws BridgeError {
+        return new InfobloxRequestBatcher(new InfobloxRequestBatcher.Sender() {
+            @Override
+            public InfobloxRequestCoalescer.Response get(String path) throws BridgeError {
+                return sendBuffered(path, null, null);
+            }
+            
+            @Override
+            public InfobloxRequestCoalescer.Response post(String path, String body) throws BridgeError {
+                return sendBuffered(path, body, null);
+            }
+        }, this.wapiPath, getIntegerProperty(Properties.PROPERTY_BATCH_WINDOW), 
+            getIntegerProperty(Properties.PROPERTY_BATCH_MAX_SIZE));
+    }
+    
+    private ScheduledExecutorService createMetricsLogExecutor() throws BridgeError {
+        long interval = getLongProperty(Properties.PROPERTY_METRICS_LOG_INTERVAL);
+        if (interval == 0) {
+            return null;
+        }
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, 
+            new DaemonThreadFactory("infoblox-metrics"));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                metrics.log();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        return executor;
+    }
+    
+    private InfobloxRecordWriter createRecordWriter() throws BridgeError {
+        return new InfobloxRecordWriter(new InfobloxRecordWriter.Sender() {
+            @Override
+            public InfobloxRequestCoalescer.Response post(String path, String body) throws BridgeError {
+                // Writes are only accepted by the Grid Master, and are never sent to another member
+                return sendBuffered(path, body, router.getMaster());
+            }
+        }, new InfobloxRecordWriter.Listener() {
+            @Override
+            public void written(Set<String> structures) {
+                for (String structure : structures) {
+                    invalidateCache(structure);
+                }
+            }
+        }, this.wapiPath, getIntegerProperty(Properties.PROPERTY_WRITE_BATCH_SIZE), 
+            getIntegerProperty(Properties.PROPERTY_WRITE_PARALLELISM));
+    }
+    
+    /** The configured WAPI version, for example 2.7. */
+    private String getWapiVersion() throws BridgeError {
+        String version = properties.getValue(Properties.PROPERTY_WAPI_VERSION);
+        if (version == null || !version.trim().matches("\\d{1,4}(\\.\\d{1,4})*")) {
+            throw new BridgeError("The '"+Properties.PROPERTY_WAPI_VERSION+"' property must be a "
+                + "version number such as 2.7, but was '"+version+"'.");
+        }
+        return version.trim();
+    }
+    
+    /**
+     * Whether the WAPI version supports paging with <code>_paging</code>, which was added in
+     * WAPI 1.5.
+     * 
+     * @param version a version number such as 2.7
+     * @return
+     */
+    static boolean supportsPaging(String version) {
+        String[] parts = version.split("\\.");
+        int major = Integer.parseInt(parts[0]);
+        int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        return major > 1 || (major == 1 && minor >= 5);
+    }
+    
+    private long getLongProperty(String name) throws BridgeError {
+        String value = properties.getValue(name);
+        try {
+            long result = Long.parseLong(value.trim());
+            if (result < 0) {
+                throw new NumberFormatException();
+            }
+            return result;
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new BridgeError("The '"+name+"' property must be a non-negative integer, but was '"+value+"'.");
+        }
+    }
+    
+    private int getIntegerProperty(String name) throws BridgeError {
+        String value = properties.getValue(name);
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result < 0) {
+                throw new NumberFormatException();
+            }
+            return result;
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new BridgeError("The '"+name+"' property must be a non-negative integer, but was '"+value+"'.");
+        }
+    }
+    
+    /**
+     * Creates named daemon threads so adapter background work never keeps the JVM running.
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+        
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+    
+    private static void closeQuietly(CloseableHttpClient client) {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close the previous Infoblox http client.", e);
+            }
+        }
     }
 }
\ No newline at end of file
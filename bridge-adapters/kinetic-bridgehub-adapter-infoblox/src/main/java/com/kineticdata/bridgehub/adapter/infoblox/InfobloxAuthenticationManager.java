@@ -0,0 +1,251 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains a single WAPI session for an adapter instance.
+ * <p>
+ * The Grid Master issues an <code>ibapauth</code> cookie when a request is authenticated with
+ * basic credentials. Sending that cookie on subsequent requests skips the credential check, which
+ * is expensive when the grid delegates authentication to RADIUS or Active Directory. The session
+ * is shared by every thread using the adapter and is renewed shortly before the grid would expire
+ * it. If the grid does not issue a session cookie the manager falls back to sending basic
+ * credentials on every request.
+ */
+class InfobloxAuthenticationManager {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxAuthenticationManager.class);
+
+    /** Name of the WAPI session cookie. */
+    public static final String COOKIE_NAME = "ibapauth";
+
+    /** Session lifetime assumed when the cookie does not advertise a timeout (grid default). */
+    private static final long DEFAULT_SESSION_TIMEOUT = 600000;
+
+    /** Longest amount of time before expiry at which the session is renewed. */
+    private static final long MAX_REFRESH_MARGIN = 30000;
+
+    private static final Pattern TIMEOUT_PATTERN = Pattern.compile("[\"\\s,]timeout=(\\d+)");
+
+    private final CloseableHttpClient httpClient;
+    private final String wapiUrl;
+    private final String basicAuthorization;
+    private final Object loginLock = new Object();
+
+    private volatile Session session;
+    private volatile boolean cookiesSupported = true;
+
+    /**
+     * @param httpClient the shared client used to log in and out
+     * @param wapiUrl the WAPI base url, for example https://gridmaster/wapi/v1.0
+     * @param username
+     * @param password
+     */
+    InfobloxAuthenticationManager(CloseableHttpClient httpClient, String wapiUrl, String username, String password) {
+        this.httpClient = httpClient;
+        this.wapiUrl = wapiUrl;
+        String creds = username + ":" + password;
+        this.basicAuthorization = "Basic " + new String(Base64.encodeBase64(creds.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Adds the session cookie (or basic credentials when sessions are not available) to the
+     * request, logging in first if there is no session or the current one is about to expire.
+     *
+     * @param request
+     * @return the session applied to the request, or null if basic credentials were applied. The
+     *     returned value should be passed to {@link #invalidate(Session)} if the grid rejects it.
+     * @throws BridgeError if the login request fails
+     */
+    Session authorize(HttpRequestBase request) throws BridgeError {
+        Session current = getSession();
+        if (current == null) {
+            request.setHeader("Authorization", basicAuthorization);
+        } else {
+            request.setHeader("Cookie", current.cookie);
+            current.touch();
+        }
+        return current;
+    }
+
+    /**
+     * Discards the session if it is still the current one, so the next call to
+     * {@link #authorize(HttpRequestBase)} logs in again. Comparing against the rejected session
+     * prevents several threads that received a 401 at the same time from each forcing a login.
+     *
+     * @param rejected
+     */
+    void invalidate(Session rejected) {
+        if (rejected != null && session == rejected) {
+            logger.debug("The Infoblox session was rejected, a new session will be established.");
+            session = null;
+        }
+    }
+
+    /**
+     * Ends the current session on the grid. Failures are logged and otherwise ignored since the
+     * grid expires abandoned sessions on its own.
+     */
+    void logout() {
+        Session current = session;
+        session = null;
+        if (current != null) {
+            logout(current);
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private Session getSession() throws BridgeError {
+        Session current = session;
+        if (current != null && !current.isExpiring()) {
+            return current;
+        }
+        if (!cookiesSupported) {
+            return null;
+        }
+        // Only one thread logs in, the rest wait and then share the new session.
+        Session renewed = null;
+        synchronized (loginLock) {
+            current = session;
+            if (!cookiesSupported) {
+                // The login this thread waited for found that the grid does not issue sessions
+                return null;
+            }
+            if (current == null || current.isExpiring()) {
+                renewed = current;
+                current = login();
+                session = current;
+            }
+        }
+        // The renewed session has not expired on the grid yet, so end it rather than leaving it
+        // open until the grid's idle timeout
+        if (renewed != null) {
+            logout(renewed);
+        }
+        return current;
+    }
+
+    private Session login() throws BridgeError {
+        // The schema request is the cheapest authenticated WAPI call available to every user.
+        HttpGet get = new HttpGet(wapiUrl + "/?_schema");
+        get.setHeader("Authorization", basicAuthorization);
+        logger.trace("Logging in to the Infoblox WAPI at {}", wapiUrl);
+
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 401 || statusCode == 403) {
+                throw new BridgeError("Unable to authenticate with Infoblox, the server responded with "
+                    + response.getStatusLine() + ".");
+            }
+            // Only a successful login shows whether the grid issues sessions, any other response
+            // (for example from a proxy, or a member that is failing over) fails this login alone
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new BridgeError("Unable to log in to Infoblox, the server responded with "
+                    + response.getStatusLine() + ".");
+            }
+            for (Header header : response.getHeaders("Set-Cookie")) {
+                String cookie = parseSessionCookie(header.getValue());
+                if (cookie != null) {
+                    return new Session(cookie, parseSessionTimeout(cookie));
+                }
+            }
+        } catch (IOException e) {
+            throw new BridgeError("Unable to authenticate with Infoblox.", e);
+        }
+
+        logger.warn("Infoblox did not return an "+COOKIE_NAME+" session cookie, basic "
+            + "authentication will be sent with every request.");
+        cookiesSupported = false;
+        return null;
+    }
+
+    private void logout(Session ended) {
+        HttpPost post = new HttpPost(wapiUrl + "/logout");
+        post.setHeader("Cookie", ended.cookie);
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            logger.trace("Logout response code: {}", response.getStatusLine().getStatusCode());
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to log out of the Infoblox session.", e);
+        }
+    }
+
+    /**
+     * Returns the <code>name=value</code> portion of an ibapauth Set-Cookie header, or null if the
+     * header is for a different cookie.
+     */
+    static String parseSessionCookie(String setCookieHeader) {
+        String value = setCookieHeader.trim();
+        if (!value.startsWith(COOKIE_NAME + "=")) {
+            return null;
+        }
+        // The quoted cookie value contains commas but never semicolons.
+        int end = value.indexOf(';');
+        return end < 0 ? value : value.substring(0, end);
+    }
+
+    /**
+     * The ibapauth value embeds the idle timeout (in seconds) configured on the grid.
+     */
+    static long parseSessionTimeout(String cookie) {
+        Matcher matcher = TIMEOUT_PATTERN.matcher(cookie);
+        if (matcher.find()) {
+            try {
+                return Long.parseLong(matcher.group(1)) * 1000;
+            } catch (NumberFormatException e) {
+                // Fall through to the default
+            }
+        }
+        return DEFAULT_SESSION_TIMEOUT;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * An established session. WAPI sessions expire after a period of inactivity, so the expiry is
+     * pushed back every time the session is used.
+     */
+    static class Session {
+        private final String cookie;
+        private final long refreshAfter;
+        private volatile long lastUsed;
+
+        Session(String cookie, long timeout) {
+            this.cookie = cookie;
+            this.refreshAfter = timeout - Math.min(MAX_REFRESH_MARGIN, timeout / 10);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        boolean isExpiring() {
+            return System.currentTimeMillis() - lastUsed >= refreshAfter;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONValue;
+
+/**
+ * A compiled form of the bridge fields requested for a structure.
+ * <p>
+ * Bridge fields are either a top level WAPI property (<code>name</code>), a path into nested
+ * objects (<code>ipv4addrs["ipv4addr"]</code>) or an extensible attribute
+ * (<code>extensible_attributes.Site</code>). Parsing these for every record of every request is
+ * wasteful since bridges request the same handful of field lists over and over, so each distinct
+ * list is parsed once into a plan holding the split paths, the <code>_return_fields</code> value
+ * and the top level properties that need to be read from the response. Plans are immutable and
+ * cached, so they are shared between threads.
+ */
+class InfobloxFieldPlan {
+
+    /** Prefix used by bridge fields that refer to an extensible attribute. */
+    public static final String EXTENSIBLE_ATTRIBUTES_PREFIX = "extensible_attributes.";
+
+    /** Name of the WAPI property holding the extensible attributes. */
+    public static final String EXTENSIBLE_ATTRIBUTES = "extensible_attributes";
+
+    /** Maximum number of plans kept in the cache. */
+    private static final int MAX_CACHED_PLANS = 512;
+
+    private static final ConcurrentMap<List<String>,InfobloxFieldPlan> CACHE = new ConcurrentHashMap<>();
+
+    private static final Pattern isMultipleFields = Pattern.compile("\\w+(?:\\[\"\\w*?\"\\])*");
+    private static final Pattern findChildFields = Pattern.compile("\\[\"(\\w*?)\"\\]");
+
+    private final Field[] fields;
+    private final boolean hasExtensibleAttributes;
+    private final String returnFields;
+    private final Set<String> topLevelFields;
+
+    /*---------------------------------------------------------------------------------------------
+     * CONSTRUCTOR
+     *-------------------------------------------------------------------------------------------*/
+
+    private InfobloxFieldPlan(List<String> fieldNames) {
+        this.fields = new Field[fieldNames.size()];
+        Set<String> returnable = new LinkedHashSet<>();
+        Set<String> topLevel = new LinkedHashSet<>();
+        boolean extensible = false;
+        for (int i = 0; i < fields.length; i++) {
+            Field field = new Field(fieldNames.get(i));
+            fields[i] = field;
+            if (field.extensibleAttribute != null) {
+                extensible = true;
+                returnable.add(EXTENSIBLE_ATTRIBUTES);
+                topLevel.add(EXTENSIBLE_ATTRIBUTES);
+            } else {
+                // _ref is always returned, and is not accepted as a return field
+                if (!field.name.equals("_ref")) {
+                    returnable.add(field.path[0]);
+                }
+                topLevel.add(field.path[0]);
+            }
+        }
+        this.hasExtensibleAttributes = extensible;
+        this.returnFields = StringUtils.join(returnable, ",");
+        this.topLevelFields = Collections.unmodifiableSet(topLevel);
+    }
+
+    /**
+     * Returns the plan for the given bridge fields, compiling it if it has not been used before.
+     *
+     * @param fieldNames
+     * @return
+     */
+    static InfobloxFieldPlan forFields(List<String> fieldNames) {
+        InfobloxFieldPlan plan = CACHE.get(fieldNames);
+        if (plan == null) {
+            List<String> key = Collections.unmodifiableList(new ArrayList<>(fieldNames));
+            plan = new InfobloxFieldPlan(key);
+            // Keep the cache bounded, dropping an arbitrary plan since rebuilding one is cheap
+            if (CACHE.size() >= MAX_CACHED_PLANS) {
+                Iterator<List<String>> iterator = CACHE.keySet().iterator();
+                if (iterator.hasNext()) {
+                    CACHE.remove(iterator.next());
+                }
+            }
+            InfobloxFieldPlan existing = CACHE.putIfAbsent(key, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** The compiled fields, in the order they were requested. */
+    Field[] getFields() {
+        return fields;
+    }
+
+    /** The value of the WAPI <code>_return_fields</code> parameter for these fields. */
+    String getReturnFields() {
+        return returnFields;
+    }
+
+    /** The top level properties that need to be read from each result. */
+    Set<String> getTopLevelFields() {
+        return topLevelFields;
+    }
+
+    /**
+     * Projects a WAPI result onto the bridge fields. Extensible attributes are resolved once per
+     * result regardless of how many are requested.
+     *
+     * @param result
+     * @return a map of bridge field name to value, in the requested order
+     */
+    Map<String,Object> project(Map<?,?> result) {
+        return project(result, false);
+    }
+
+    /**
+     * Projects a WAPI result onto the bridge fields, optionally converting the values of fields
+     * that are not extensible attributes to strings (see {@link #toString(Object)}).
+     *
+     * @param result
+     * @param stringifyValues
+     * @return a map of bridge field name to value, in the requested order
+     */
+    Map<String,Object> project(Map<?,?> result, boolean stringifyValues) {
+        Map<?,?> extensibleAttributes = null;
+        if (hasExtensibleAttributes) {
+            Object value = result.get(EXTENSIBLE_ATTRIBUTES);
+            if (value instanceof Map) {
+                extensibleAttributes = (Map<?,?>)value;
+            }
+        }
+        Map<String,Object> data = new LinkedHashMap<>(fields.length * 2);
+        for (Field field : fields) {
+            if (field.extensibleAttribute != null) {
+                data.put(field.name, extensibleAttributes == null
+                    ? null : extensibleAttributes.get(field.extensibleAttribute));
+            } else if (stringifyValues) {
+                data.put(field.name, toString(field.getValue(result)));
+            } else {
+                data.put(field.name, field.getValue(result));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Returns the string value of the object.
+     * <p>
+     * If the value is not a String, a JSON representation of the object will be returned.
+     * 
+     * @param value
+     * @return 
+     */
+    static String toString(Object value) {
+        String result = null;
+        if (value != null) {
+            if (String.class.isInstance(value)) {
+                result = (String)value;
+            } else {
+                result = JSONValue.toJSONString(value);
+            }
+        }
+        return result;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /** A single compiled bridge field. */
+    static class Field {
+        private final String name;
+        private final String[] path;
+        private final String extensibleAttribute;
+
+        Field(String name) {
+            this.name = name;
+            if (name.startsWith(EXTENSIBLE_ATTRIBUTES_PREFIX)) {
+                this.extensibleAttribute = name.substring(EXTENSIBLE_ATTRIBUTES_PREFIX.length());
+                this.path = null;
+            } else {
+                this.extensibleAttribute = null;
+                this.path = toPath(name);
+            }
+        }
+
+        /** The bridge field name. */
+        String getName() {
+            return name;
+        }
+
+        /** The name of the extensible attribute, or null if this is not an extensible attribute. */
+        String getExtensibleAttribute() {
+            return extensibleAttribute;
+        }
+
+        /**
+         * Returns the value of the field within the result. When the path passes through an
+         * array the value is a list of the values found in each of its elements.
+         */
+        Object getValue(Object result) {
+            return getValue(result, 0);
+        }
+
+        private Object getValue(Object parent, int index) {
+            if (index == path.length) {
+                return parent;
+            } else if (parent instanceof Map) {
+                return getValue(((Map<?,?>)parent).get(path[index]), index + 1);
+            } else if (parent instanceof List) {
+                List<?> array = (List<?>)parent;
+                List<Object> values = new ArrayList<>(array.size());
+                for (Object element : array) {
+                    values.add(getValue(element, index));
+                }
+                return values;
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * Splits a field such as <code>ipv4addrs["ipv4addr"]</code> into its path segments.
+         */
+        private static String[] toPath(String field) {
+            List<String> fieldList = new ArrayList<>();
+            if (isMultipleFields.matcher(field).matches()) {
+                fieldList.add(field.split("\\[")[0]);
+                Matcher m = findChildFields.matcher(field);
+                while (m.find()) {
+                    fieldList.add(m.group(1));
+                }
+            } else {
+                fieldList.add(field);
+            }
+            return fieldList.toArray(new String[fieldList.size()]);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A grid member the adapter can send requests to, along with its own WAPI session and the
+ * statistics used to choose between members.
+ * <p>
+ * Response times are tracked as an exponentially weighted moving average so a member that slows
+ * down is quickly avoided, and a member that recovers is quickly used again. After a number of
+ * consecutive failures the member's circuit is opened and it receives no requests until a health
+ * probe succeeds.
+ */
+class InfobloxMember {
+
+    /** The requests a member accepts. */
+    enum Role {
+        /** The Grid Master, which accepts every request. */
+        MASTER,
+        /** A member (or reporting appliance) that only serves reads. */
+        READ
+    }
+
+    /** How much of each new response time is blended into the moving average. */
+    private static final double LATENCY_DECAY = 0.2;
+
+    private final String url;
+    private final Role role;
+    private final double weight;
+    private final InfobloxAuthenticationManager authenticationManager;
+    private final InfobloxRateLimiter rateLimiter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guarded by this
+    private double latency = -1;
+    private int consecutiveFailures = 0;
+    private boolean open = false;
+    private long openedAt = 0;
+
+    /**
+     * @param url the base url of the member, for example https://member1
+     * @param role
+     * @param weight the relative share of reads the member should receive at equal latency
+     * @param authenticationManager the session used for requests to the member
+     * @param rateLimiter limits the requests sent to the member
+     */
+    InfobloxMember(String url, Role role, double weight, InfobloxAuthenticationManager authenticationManager,
+        InfobloxRateLimiter rateLimiter
+    ) {
+        this.url = url;
+        this.role = role;
+        this.weight = weight;
+        this.authenticationManager = authenticationManager;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    String getUrl() {
+        return url;
+    }
+
+    Role getRole() {
+        return role;
+    }
+
+    double getWeight() {
+        return weight;
+    }
+
+    InfobloxAuthenticationManager getAuthenticationManager() {
+        return authenticationManager;
+    }
+
+    InfobloxRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /** Marks the start of a request to the member. */
+    void begin() {
+        inFlight.incrementAndGet();
+    }
+
+    /** Marks the end of a request started with {@link #begin()}. */
+    void end() {
+        inFlight.decrementAndGet();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * The cost of sending the next read to this member: the average response time scaled by the
+     * number of requests already in flight and divided by the weight. A member with a weight of
+     * zero is only compared with other zero weight members, so its cost is not divided. A member
+     * without any observed response times has a cost of zero, so it is tried first.
+     */
+    synchronized double getScore() {
+        if (latency < 0) {
+            return 0;
+        }
+        double score = latency * (inFlight.get() + 1);
+        return weight > 0 ? score / weight : score;
+    }
+
+    /** The moving average response time in milliseconds, or -1 if none has been observed. */
+    synchronized double getLatency() {
+        return latency < 0 ? -1 : latency / 1000000d;
+    }
+
+    /**
+     * Records a successful response.
+     *
+     * @param nanos the time taken for the response to arrive
+     */
+    synchronized void recordSuccess(long nanos) {
+        latency = latency < 0 ? nanos : latency + LATENCY_DECAY * (nanos - latency);
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failed request (a timeout, connection failure or server error).
+     *
+     * @param threshold the number of consecutive failures that open the circuit
+     * @return true if this failure opened the circuit
+     */
+    synchronized boolean recordFailure(int threshold) {
+        consecutiveFailures++;
+        if (!open && consecutiveFailures >= threshold) {
+            open = true;
+            openedAt = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /** Closes the circuit after a successful health probe. */
+    synchronized void close() {
+        open = false;
+        consecutiveFailures = 0;
+        // Forget the latency observed before the failure so the member is tried again promptly
+        latency = -1;
+    }
+
+    /** Whether the member is currently receiving requests. */
+    synchronized boolean isAvailable() {
+        return !open;
+    }
+
+    /** When the circuit was last opened, in milliseconds since the epoch. */
+    synchronized long getOpenedAt() {
+        return openedAt;
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
@@ -0,0 +1,340 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the grid member each request is sent to.
+ * <p>
+ * The members are configured as a comma separated list of urls, each optionally followed by its
+ * role and weight, for example <code>https://gm|master|1,https://member1|read|2</code>. When no
+ * member is marked as the master the first one is. Reads are sent to the available member with
+ * the lowest score (see {@link InfobloxMember#getScore()}), writes are always sent to the master.
+ * Members whose circuit has been opened are probed in the background and used again once they
+ * respond. When every member is unavailable the one that failed longest ago is still tried, so a
+ * single member configuration behaves exactly like the original single host.
+ */
+class InfobloxMemberRouter {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxMemberRouter.class);
+
+    private final CloseableHttpClient httpClient;
+    private final String wapiPath;
+    private final List<InfobloxMember> members;
+    private final InfobloxMember master;
+    private final int failureThreshold;
+    private final long retryInterval;
+    private final ScheduledExecutorService prober;
+
+    /**
+     * @param httpClient the shared client
+     * @param hosts the configured members
+     * @param wapiPath the WAPI path, for example /wapi/v1.0
+     * @param username
+     * @param password
+     * @param failureThreshold consecutive failures that open a member's circuit
+     * @param retryInterval milliseconds between health probes of an unavailable member
+     * @param limits the limits applied to the requests sent to each member
+     * @throws BridgeError if the hosts are not valid
+     */
+    InfobloxMemberRouter(CloseableHttpClient httpClient, String hosts, String wapiPath, String username,
+        String password, int failureThreshold, long retryInterval, InfobloxRateLimiter.Limits limits
+    ) throws BridgeError {
+        this.httpClient = httpClient;
+        this.wapiPath = wapiPath;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.retryInterval = Math.max(1000, retryInterval);
+
+        List<String[]> entries = new ArrayList<>();
+        boolean hasMaster = false;
+        for (String entry : hosts.split(",")) {
+            if (StringUtils.isNotBlank(entry)) {
+                String[] parts = entry.trim().split("\\|");
+                entries.add(parts);
+                if (parts.length > 1 && parseRole(parts[1], entry) == InfobloxMember.Role.MASTER) {
+                    if (hasMaster) {
+                        throw new BridgeError("Only one Infoblox host can have the master role.");
+                    }
+                    hasMaster = true;
+                }
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new BridgeError("At least one Infoblox host must be configured.");
+        }
+
+        List<InfobloxMember> parsed = new ArrayList<>();
+        InfobloxMember parsedMaster = null;
+        for (String[] parts : entries) {
+            String entry = StringUtils.join(parts, "|");
+            String url = StringUtils.removeEnd(parts[0].trim(), "/");
+            InfobloxMember.Role role;
+            if (parts.length > 1) {
+                role = parseRole(parts[1], entry);
+            } else {
+                // Without an explicit master, the first host is the Grid Master
+                role = !hasMaster && parsed.isEmpty() ? InfobloxMember.Role.MASTER : InfobloxMember.Role.READ;
+            }
+            double weight = parts.length > 2 ? parseWeight(parts[2], entry) : 1;
+            InfobloxMember member = new InfobloxMember(url, role, weight,
+                new InfobloxAuthenticationManager(httpClient, url + wapiPath, username, password),
+                new InfobloxRateLimiter(url, limits));
+            if (role == InfobloxMember.Role.MASTER) {
+                parsedMaster = member;
+            }
+            parsed.add(member);
+        }
+        if (parsedMaster == null) {
+            throw new BridgeError("One of the Infoblox hosts must have the master role.");
+        }
+        this.members = Collections.unmodifiableList(parsed);
+        this.master = parsedMaster;
+
+        if (members.size() > 1) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new InfobloxAdapter.DaemonThreadFactory("infoblox-member-probe"));
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    probeUnavailableMembers();
+                }
+            }, this.retryInterval, this.retryInterval, TimeUnit.MILLISECONDS);
+            this.prober = executor;
+        } else {
+            this.prober = null;
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Chooses the member to send a read to.
+     *
+     * @param excluded members that have already failed this request
+     * @return the member, or null if every member has been excluded
+     */
+    InfobloxMember selectReader(Set<InfobloxMember> excluded) {
+        InfobloxMember selected = selectLowestScore(excluded, true);
+        if (selected == null) {
+            // Members with a weight of zero only receive reads when no other member can
+            selected = selectLowestScore(excluded, false);
+        }
+        if (selected == null) {
+            // Every member is unavailable, so try the one whose circuit opened the longest ago
+            for (InfobloxMember member : members) {
+                if (!excluded.contains(member)
+                    && (selected == null || member.getOpenedAt() < selected.getOpenedAt())) {
+                    selected = member;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /** The member that accepts writes. */
+    InfobloxMember getMaster() {
+        return master;
+    }
+
+    List<InfobloxMember> getMembers() {
+        return members;
+    }
+
+    /** Returns the configured member with the url, or null. */
+    InfobloxMember getMember(String url) {
+        for (InfobloxMember member : members) {
+            if (member.getUrl().equals(url)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a response from the member, closing its circuit if it had been opened.
+     *
+     * @param member
+     * @param nanos the time taken for the response to arrive
+     */
+    void recordSuccess(InfobloxMember member, long nanos) {
+        member.recordSuccess(nanos);
+        if (!member.isAvailable()) {
+            member.close();
+            logger.info("The Infoblox member {} is responding again.", member);
+        }
+    }
+
+    /**
+     * Records a failed request to the member, opening its circuit after too many consecutive
+     * failures.
+     *
+     * @param member
+     */
+    void recordFailure(InfobloxMember member) {
+        if (member.recordFailure(failureThreshold) && members.size() > 1) {
+            logger.warn("The Infoblox member {} failed {} consecutive requests and will not be used "
+                + "until it responds to a health check.", member, failureThreshold);
+        }
+    }
+
+    /**
+     * Continuing a WAPI paging session has to be done on the member that started it, so the page
+     * tokens returned to bridge callers identify the member when there is more than one.
+     *
+     * @param member the member that returned the page id
+     * @param pageId
+     * @return
+     */
+    String encodePageToken(InfobloxMember member, String pageId) {
+        return members.size() > 1 ? members.indexOf(member) + "." + pageId : pageId;
+    }
+
+    /**
+     * Decodes a token created by {@link #encodePageToken}, pinning the affinity to the member
+     * that created it.
+     *
+     * @param token
+     * @param affinity
+     * @return the WAPI page id
+     */
+    String decodePageToken(String token, Affinity affinity) {
+        int separator = token.indexOf('.');
+        if (members.size() > 1 && separator > 0 && StringUtils.isNumeric(token.substring(0, separator))) {
+            try {
+                int index = Integer.parseInt(token.substring(0, separator));
+                if (index < members.size()) {
+                    affinity.setMember(members.get(index));
+                    return token.substring(separator + 1);
+                }
+            } catch (NumberFormatException e) {
+                // Not a token created by this router
+            }
+        }
+        return token;
+    }
+
+    /** Stops probing members and ends the session with each member. */
+    void shutdown() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+        for (InfobloxMember member : members) {
+            member.getAuthenticationManager().logout();
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private InfobloxMember selectLowestScore(Set<InfobloxMember> excluded, boolean weighted) {
+        InfobloxMember selected = null;
+        double selectedScore = Double.POSITIVE_INFINITY;
+        int ties = 0;
+        for (InfobloxMember member : members) {
+            if (excluded.contains(member) || !member.isAvailable() || (member.getWeight() > 0) != weighted) {
+                continue;
+            }
+            double score = member.getScore();
+            if (score < selectedScore) {
+                selected = member;
+                selectedScore = score;
+                ties = 1;
+            } else if (score == selectedScore && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                // Spread requests evenly between equally scored members
+                selected = member;
+            }
+        }
+        return selected;
+    }
+
+    private void probeUnavailableMembers() {
+        long now = System.currentTimeMillis();
+        for (InfobloxMember member : members) {
+            if (!member.isAvailable() && now - member.getOpenedAt() >= retryInterval) {
+                probe(member);
+            }
+        }
+    }
+
+    private void probe(InfobloxMember member) {
+        HttpGet get = new HttpGet(member.getUrl() + wapiPath + "/?_schema");
+        long start = System.nanoTime();
+        try {
+            member.getAuthenticationManager().authorize(get);
+            try (CloseableHttpResponse response = httpClient.execute(get)) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                if (response.getStatusLine().getStatusCode() < 500) {
+                    recordSuccess(member, System.nanoTime() - start);
+                } else {
+                    logger.debug("The health check of the Infoblox member {} returned {}.",
+                        member, response.getStatusLine());
+                }
+            }
+        } catch (BridgeError | IOException | RuntimeException e) {
+            logger.debug("The health check of the Infoblox member {} failed.", member, e);
+        }
+    }
+
+    private static InfobloxMember.Role parseRole(String value, String entry) throws BridgeError {
+        if (StringUtils.isBlank(value)) {
+            return InfobloxMember.Role.READ;
+        }
+        try {
+            return InfobloxMember.Role.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BridgeError("The role of the Infoblox host '"+entry+"' must be master or read.");
+        }
+    }
+
+    private static double parseWeight(String value, String entry) throws BridgeError {
+        try {
+            double weight = Double.parseDouble(value.trim());
+            if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new NumberFormatException();
+            }
+            return weight;
+        } catch (NumberFormatException e) {
+            throw new BridgeError("The weight of the Infoblox host '"+entry+"' must be a non-negative number.");
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Tracks the member a sequence of requests is bound to. An unpinned affinity lets the router
+     * choose the member of the first request, which then serves the rest of the sequence (such as
+     * the remaining pages of a WAPI paging session).
+     */
+    static class Affinity {
+        private volatile InfobloxMember member;
+
+        InfobloxMember getMember() {
+            return member;
+        }
+
+        void setMember(InfobloxMember member) {
+            this.member = member;
+        }
+    }
+}
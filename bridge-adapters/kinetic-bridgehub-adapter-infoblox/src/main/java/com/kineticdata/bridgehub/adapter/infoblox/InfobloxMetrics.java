@@ -0,0 +1,778 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects timings and counters for the bridge calls made through an adapter, by operation and
+ * structure, and publishes them as JMX MBeans and a periodic log line.
+ * <p>
+ * Each call is broken down into phases: waiting for the member's rate limiter, authorizing,
+ * connecting (including the TLS handshake), waiting for the response headers, reading the body
+ * and parsing a buffered body. The phases are recorded against the call that is running on the
+ * current thread, so the requests of a call that is answered by a request of another call (a
+ * coalesced or batched request) are counted once, on the call that sent them. Recording is a few
+ * atomic increments and a thread local lookup, so it is always enabled.
+ * <p>
+ * The structure comes from the bridge request, so only the first {@value #MAX_STRUCTURES}
+ * structures called get statistics (and MBeans) of their own. Calls to any others are counted
+ * together under the structure {@value #OTHER_STRUCTURES}.
+ */
+public class InfobloxMetrics {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxMetrics.class);
+
+    /** The JMX domain the MBeans are registered in. */
+    public static final String DOMAIN = "com.kineticdata.bridgehub.adapter.infoblox";
+
+    /** The most structures that get statistics of their own. */
+    static final int MAX_STRUCTURES = 64;
+    /** The structure the calls to structures beyond {@link #MAX_STRUCTURES} are counted under. */
+    static final String OTHER_STRUCTURES = "(other)";
+
+    /** The phases of a call, in the order they happen. */
+    enum Phase {
+        /** Waiting for the member's rate limiter. */
+        WAIT,
+        /** Logging in, or renewing the session. */
+        AUTH,
+        /** Opening connections, including the TLS handshake of https connections. */
+        CONNECT,
+        /** Waiting for the response headers once the request is sent. */
+        SERVER,
+        /** Reading (and for streamed responses, parsing) the response body. */
+        READ,
+        /** Parsing a buffered response body. */
+        PARSE
+    }
+
+    /** Attributes of the MBean published for each operation and structure. */
+    public interface OperationMXBean {
+        String getOperation();
+        String getStructure();
+        long getCalls();
+        long getErrors();
+        long getRecords();
+        long getRequests();
+        /** The response body bytes received, before any gzip or deflate encoding is decoded. */
+        long getResponseBytes();
+        double getLatencyMeanMillis();
+        double getLatencyP50Millis();
+        double getLatencyP99Millis();
+        double getLatencyMaxMillis();
+        /** The mean time per call spent in each phase, in milliseconds. */
+        Map<String,Double> getPhaseMeanMillis();
+    }
+
+    /** Attributes of the MBean published for the adapter as a whole. */
+    public interface AdapterMXBean {
+        int getPoolLeased();
+        int getPoolAvailable();
+        int getPoolPending();
+        int getPoolMax();
+        /** The number of connections opened to the grid, including replacements for expired ones. */
+        long getConnectionsOpened();
+        long getCacheHits();
+        long getCacheStaleHits();
+        long getCacheMisses();
+        /** The number of failed requests by HTTP status, or "io" for requests with no response. */
+        Map<String,Long> getErrorsByStatus();
+    }
+
+    private static final AtomicInteger instances = new AtomicInteger();
+    private static final ThreadLocal<Call> currentCall = new ThreadLocal<>();
+    /** Connect time of the request being sent on this thread, see {@link #recordConnect(long)}. */
+    private static final ThreadLocal<long[]> connectTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    /** Encoded response bytes of the request being sent on this thread, see {@link ResponseCounter}. */
+    private static final ThreadLocal<long[]> responseBytes = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final String instance = String.valueOf(instances.incrementAndGet());
+    /** The statistics by structure, then operation. */
+    private final ConcurrentMap<String,ConcurrentMap<String,Stats>> stats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,AtomicLong> errorsByStatus = new ConcurrentHashMap<>();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private volatile String name;
+    private volatile PoolingHttpClientConnectionManager connectionManager;
+    private volatile InfobloxResultCache resultCache;
+
+    /*---------------------------------------------------------------------------------------------
+     * RECORDING METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Starts timing a bridge call on the current thread. Every call must be passed to
+     * {@link #end(Call)}.
+     *
+     * @param operation count, retrieve or search
+     * @param structure
+     * @return
+     */
+    Call begin(String operation, String structure) {
+        Call call = new Call(getStats(operation, structure == null ? "" : structure), currentCall.get());
+        currentCall.set(call);
+        return call;
+    }
+
+    /** Finishes timing the call and records it as failed unless it was given its records. */
+    void end(Call call) {
+        long elapsed = System.nanoTime() - call.start;
+        currentCall.set(call.outer);
+        call.stats.record(call, elapsed);
+    }
+
+    /** Adds the time spent in a phase to the call running on the current thread. */
+    static void recordPhase(Phase phase, long nanos) {
+        Call call = currentCall.get();
+        if (call != null) {
+            call.phases[phase.ordinal()] += nanos;
+        }
+    }
+
+    /** Counts a request and its response bytes against the call running on the current thread. */
+    static void recordResponse(long bytes) {
+        Call call = currentCall.get();
+        if (call != null) {
+            call.requests++;
+            call.bytes += bytes;
+        }
+    }
+
+    /** Counts a failed request by its HTTP status, or "io" if no response was received. */
+    void recordError(String status) {
+        AtomicLong count = errorsByStatus.get(status);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = errorsByStatus.putIfAbsent(status, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Adds to the time spent connecting by the request being sent on the current thread. Called
+     * by the socket factories, which run on the thread executing the request.
+     */
+    static void recordConnect(long nanos) {
+        connectTime.get()[0] += nanos;
+    }
+
+    /** Returns and resets the connect time recorded on the current thread. */
+    static long takeConnectTime() {
+        long[] time = connectTime.get();
+        long nanos = time[0];
+        time[0] = 0;
+        return nanos;
+    }
+
+    /** Returns and resets the response bytes recorded on the current thread. */
+    static long takeResponseBytes() {
+        long[] count = responseBytes.get();
+        long bytes = count[0];
+        count[0] = 0;
+        return bytes;
+    }
+
+    /** Wraps the entity so the bytes read from it are counted as it is consumed. */
+    static HttpEntity countBytes(HttpEntity entity, final long[] count) {
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public InputStream getContent() throws IOException {
+                return new FilterInputStream(super.getContent()) {
+                    @Override
+                    public int read() throws IOException {
+                        int read = super.read();
+                        if (read >= 0) {
+                            count[0]++;
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int read = super.read(buffer, offset, length);
+                        if (read > 0) {
+                            count[0] += read;
+                        }
+                        return read;
+                    }
+                };
+            }
+        };
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLISHING METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Points the pool statistics at the connection pool of the current client. */
+    void setConnectionManager(PoolingHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /** Points the cache statistics at the current cache. */
+    void setResultCache(InfobloxResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Registers the MBeans under the name, which identifies the adapter in the JMX tree. MBeans of
+     * operations first called later are registered as they appear.
+     *
+     * @param name for example the configured host
+     */
+    synchronized void register(String name) {
+        unregister();
+        this.name = name;
+        register(objectName("Adapter", null, null), new AdapterMXBean() {
+            @Override
+            public int getPoolLeased() {
+                return getPoolStats().getLeased();
+            }
+
+            @Override
+            public int getPoolAvailable() {
+                return getPoolStats().getAvailable();
+            }
+
+            @Override
+            public int getPoolPending() {
+                return getPoolStats().getPending();
+            }
+
+            @Override
+            public int getPoolMax() {
+                return getPoolStats().getMax();
+            }
+
+            @Override
+            public long getConnectionsOpened() {
+                return connectionsOpened.get();
+            }
+
+            @Override
+            public long getCacheHits() {
+                InfobloxResultCache cache = resultCache;
+                return cache == null ? 0 : cache.getHits();
+            }
+
+            @Override
+            public long getCacheStaleHits() {
+                InfobloxResultCache cache = resultCache;
+                return cache == null ? 0 : cache.getStaleHits();
+            }
+
+            @Override
+            public long getCacheMisses() {
+                InfobloxResultCache cache = resultCache;
+                return cache == null ? 0 : cache.getMisses();
+            }
+
+            @Override
+            public Map<String,Long> getErrorsByStatus() {
+                Map<String,Long> errors = new TreeMap<>();
+                for (Map.Entry<String,AtomicLong> entry : errorsByStatus.entrySet()) {
+                    errors.put(entry.getKey(), entry.getValue().get());
+                }
+                return errors;
+            }
+        });
+        for (Stats operation : getAllStats()) {
+            register(objectName("Operation", operation.operation, operation.structure), operation);
+        }
+    }
+
+    /** Removes the MBeans registered by {@link #register(String)}. */
+    synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.debug("Unable to unregister the Infoblox MBean {}.", objectName, e);
+            }
+        }
+        registered.clear();
+        name = null;
+    }
+
+    /**
+     * Logs one line per operation and structure called since the previous log, followed by the
+     * adapter level statistics.
+     */
+    void log() {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        for (Stats operation : getAllStats()) {
+            Snapshot snapshot = operation.takeInterval();
+            if (snapshot.calls == 0) {
+                continue;
+            }
+            logger.info("infoblox.metrics operation={} structure={} calls={} errors={} records={} "
+                + "requests={} bytes={} mean_ms={} p50_ms={} p99_ms={} max_ms={} phases_ms={}",
+                operation.operation, operation.structure, snapshot.calls, snapshot.errors,
+                snapshot.records, snapshot.requests, snapshot.bytes, format(snapshot.mean),
+                format(snapshot.p50), format(snapshot.p99), format(snapshot.max),
+                formatPhases(snapshot.phases, snapshot.calls));
+        }
+        PoolStats pool = getPoolStats();
+        InfobloxResultCache cache = resultCache;
+        logger.info("infoblox.metrics pool_leased={} pool_available={} pool_pending={} pool_max={} "
+            + "connections_opened={} cache_hits={} cache_misses={} errors={}", pool.getLeased(),
+            pool.getAvailable(), pool.getPending(), pool.getMax(), connectionsOpened.get(),
+            cache == null ? 0 : cache.getHits(), cache == null ? 0 : cache.getMisses(), errorsByStatus);
+    }
+
+    /** Returns the statistics of each operation and structure called so far. */
+    List<OperationMXBean> getOperations() {
+        return new ArrayList<OperationMXBean>(getAllStats());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private Stats getStats(String operation, String structure) {
+        Map<String,Stats> byOperation = stats.get(structure);
+        if (byOperation == null && stats.size() >= MAX_STRUCTURES) {
+            byOperation = stats.get(OTHER_STRUCTURES);
+        }
+        Stats operationStats = byOperation == null ? null : byOperation.get(operation);
+        return operationStats != null ? operationStats : createStats(operation, structure);
+    }
+
+    /** Adds the statistics of an operation first called, and registers its MBean. */
+    private synchronized Stats createStats(String operation, String structure) {
+        if (!stats.containsKey(structure) && stats.size() >= MAX_STRUCTURES) {
+            structure = OTHER_STRUCTURES;
+        }
+        ConcurrentMap<String,Stats> byOperation = stats.get(structure);
+        if (byOperation == null) {
+            byOperation = new ConcurrentHashMap<>();
+            stats.put(structure, byOperation);
+        }
+        Stats operationStats = byOperation.get(operation);
+        if (operationStats == null) {
+            operationStats = new Stats(operation, structure);
+            byOperation.put(operation, operationStats);
+            if (name != null) {
+                register(objectName("Operation", operation, structure), operationStats);
+            }
+        }
+        return operationStats;
+    }
+
+    private List<Stats> getAllStats() {
+        List<Stats> all = new ArrayList<>();
+        for (Map<String,Stats> byOperation : stats.values()) {
+            all.addAll(byOperation.values());
+        }
+        return all;
+    }
+
+    private PoolStats getPoolStats() {
+        PoolingHttpClientConnectionManager manager = connectionManager;
+        return manager == null ? new PoolStats(0, 0, 0, 0) : manager.getTotalStats();
+    }
+
+    private ObjectName objectName(String type, String operation, String structure) {
+        StringBuilder objectName = new StringBuilder(DOMAIN).append(":type=").append(type)
+            .append(",name=").append(ObjectName.quote(name)).append(",instance=").append(instance);
+        if (operation != null) {
+            objectName.append(",operation=").append(operation)
+                .append(",structure=").append(ObjectName.quote(structure));
+        }
+        try {
+            return new ObjectName(objectName.toString());
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void register(ObjectName objectName, Object mbean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            registered.add(objectName);
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Unable to register the Infoblox MBean {}.", objectName, e);
+        }
+    }
+
+    private static String format(double millis) {
+        return String.format("%.2f", millis);
+    }
+
+    private static String formatPhases(long[] phases, long calls) {
+        StringBuilder result = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(phase.name().toLowerCase()).append(':')
+                .append(format(phases[phase.ordinal()] / 1000000d / calls));
+        }
+        return result.toString();
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Counts the response body bytes as they arrive, before any gzip or deflate encoding is decoded,
+     * so the response bytes of a call are what was sent over the connection. It must be added ahead
+     * of the client's content decoding, and the body is read on the thread that sent the request,
+     * see {@link InfobloxMetrics#takeResponseBytes()}.
+     */
+    static class ResponseCounter implements HttpResponseInterceptor {
+        @Override
+        public void process(HttpResponse response, HttpContext context) {
+            long[] count = responseBytes.get();
+            count[0] = 0;
+            if (response.getEntity() != null) {
+                response.setEntity(countBytes(response.getEntity(), count));
+            }
+        }
+    }
+
+    /**
+     * Counts the connections opened and records the time taken to open them (including the TLS
+     * handshake of https connections), see {@link InfobloxMetrics#recordConnect(long)}.
+     */
+    static class TimedSocketFactory implements LayeredConnectionSocketFactory {
+        private final ConnectionSocketFactory delegate;
+        private final InfobloxMetrics metrics;
+
+        /**
+         * @param delegate the factory creating the sockets, which must be a layered factory if
+         *     this one is used for https
+         * @param metrics the metrics the connections are counted in
+         */
+        TimedSocketFactory(ConnectionSocketFactory delegate, InfobloxMetrics metrics) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host,
+            InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context
+        ) throws IOException {
+            long start = System.nanoTime();
+            try {
+                Socket connected = delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+                metrics.connectionsOpened.incrementAndGet();
+                return connected;
+            } finally {
+                recordConnect(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+            throws IOException
+        {
+            long start = System.nanoTime();
+            try {
+                return ((LayeredConnectionSocketFactory)delegate).createLayeredSocket(socket, target, port, context);
+            } finally {
+                recordConnect(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /** A bridge call in progress. Only used by the thread that started it. */
+    static class Call {
+        private final Stats stats;
+        private final Call outer;
+        private final long start = System.nanoTime();
+        private final long[] phases = new long[Phase.values().length];
+        private long records = -1;
+        private int requests;
+        private long bytes;
+
+        Call(Stats stats, Call outer) {
+            this.stats = stats;
+            this.outer = outer;
+        }
+
+        /** Marks the call as successful. */
+        void setRecords(long records) {
+            this.records = records;
+        }
+    }
+
+    /**
+     * A histogram of durations in microseconds. Each power of two is split into 8 buckets, so a
+     * percentile is accurate to within 12.5% using a fixed 4KB of counters.
+     */
+    static class Histogram {
+        private static final int BUCKETS = 62 * 8;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        void record(long micros) {
+            counts.incrementAndGet(bucket(Math.max(0, micros)));
+        }
+
+        /** Copies the counts, for a consistent view while calculating percentiles. */
+        long[] snapshot() {
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return snapshot;
+        }
+
+        /** The value below which the fraction of recorded values fall, in microseconds. */
+        static long percentile(long[] counts, double fraction) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(total * fraction));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+
+        static int bucket(long value) {
+            if (value < 8) {
+                return (int)value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int index = (exponent - 2) * 8 + (int)((value >>> (exponent - 3)) & 7);
+            return Math.min(BUCKETS - 1, index);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < 8) {
+                return bucket;
+            }
+            int exponent = bucket / 8 + 2;
+            long lower = (8L + bucket % 8) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+    }
+
+    /** Totals of one operation and structure. */
+    static class Stats implements OperationMXBean {
+        private final String operation;
+        private final String structure;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong latency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLongArray phases = new AtomicLongArray(Phase.values().length);
+        private final Histogram histogram = new Histogram();
+        // The totals at the previous log, guarded by this
+        private Snapshot logged = new Snapshot();
+        private long[] loggedHistogram = new long[Histogram.BUCKETS];
+
+        Stats(String operation, String structure) {
+            this.operation = operation;
+            this.structure = structure;
+        }
+
+        void record(Call call, long elapsed) {
+            calls.incrementAndGet();
+            if (call.records < 0) {
+                errors.incrementAndGet();
+            } else {
+                records.addAndGet(call.records);
+            }
+            requests.addAndGet(call.requests);
+            bytes.addAndGet(call.bytes);
+            latency.addAndGet(elapsed);
+            long max = maxLatency.get();
+            while (elapsed > max && !maxLatency.compareAndSet(max, elapsed)) {
+                max = maxLatency.get();
+            }
+            for (int i = 0; i < call.phases.length; i++) {
+                if (call.phases[i] != 0) {
+                    phases.addAndGet(i, call.phases[i]);
+                }
+            }
+            histogram.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+        }
+
+        /** The activity since the previous call. The maximum is the maximum of all calls. */
+        synchronized Snapshot takeInterval() {
+            Snapshot current = new Snapshot();
+            current.calls = calls.get();
+            current.errors = errors.get();
+            current.records = records.get();
+            current.requests = requests.get();
+            current.bytes = bytes.get();
+            current.latency = latency.get();
+            for (int i = 0; i < current.phases.length; i++) {
+                current.phases[i] = phases.get(i);
+            }
+            long[] counts = histogram.snapshot();
+
+            Snapshot interval = new Snapshot();
+            interval.calls = current.calls - logged.calls;
+            interval.errors = current.errors - logged.errors;
+            interval.records = current.records - logged.records;
+            interval.requests = current.requests - logged.requests;
+            interval.bytes = current.bytes - logged.bytes;
+            for (int i = 0; i < current.phases.length; i++) {
+                interval.phases[i] = current.phases[i] - logged.phases[i];
+            }
+            long[] intervalCounts = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                intervalCounts[i] = counts[i] - loggedHistogram[i];
+            }
+            interval.mean = interval.calls == 0 ? 0 : (current.latency - logged.latency) / 1000000d / interval.calls;
+            interval.p50 = percentileMillis(intervalCounts, 0.5);
+            interval.p99 = percentileMillis(intervalCounts, 0.99);
+            interval.max = maxLatency.get() / 1000000d;
+            logged = current;
+            loggedHistogram = counts;
+            return interval;
+        }
+
+        @Override
+        public String getOperation() {
+            return operation;
+        }
+
+        @Override
+        public String getStructure() {
+            return structure;
+        }
+
+        @Override
+        public long getCalls() {
+            return calls.get();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Override
+        public long getRecords() {
+            return records.get();
+        }
+
+        @Override
+        public long getRequests() {
+            return requests.get();
+        }
+
+        @Override
+        public long getResponseBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public double getLatencyMeanMillis() {
+            long count = calls.get();
+            return count == 0 ? 0 : latency.get() / 1000000d / count;
+        }
+
+        @Override
+        public double getLatencyP50Millis() {
+            return percentileMillis(histogram.snapshot(), 0.5);
+        }
+
+        @Override
+        public double getLatencyP99Millis() {
+            return percentileMillis(histogram.snapshot(), 0.99);
+        }
+
+        /** Bucket bounds can overshoot the slowest call, which is known exactly. */
+        private double percentileMillis(long[] counts, double fraction) {
+            return Math.min(Histogram.percentile(counts, fraction) / 1000d, maxLatency.get() / 1000000d);
+        }
+
+        @Override
+        public double getLatencyMaxMillis() {
+            return maxLatency.get() / 1000000d;
+        }
+
+        @Override
+        public Map<String,Double> getPhaseMeanMillis() {
+            long count = Math.max(1, calls.get());
+            Map<String,Double> means = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                means.put(phase.name().toLowerCase(), phases.get(phase.ordinal()) / 1000000d / count);
+            }
+            return means;
+        }
+    }
+
+    /** Totals at a point in time, or the difference between two points in time. */
+    private static class Snapshot {
+        private long calls;
+        private long errors;
+        private long records;
+        private long requests;
+        private long bytes;
+        private long latency;
+        private final long[] phases = new long[Phase.values().length];
+        private double mean;
+        private double p50;
+        private double p99;
+        private double max;
+    }
+}
@@ -0,0 +1,658 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory copy of frequently queried IPAM structures.
+ * <p>
+ * The mirror bulk loads the configured structures (with paging) and indexes them by
+ * <code>_ref</code>, name, address and network, with a prefix trie over the IPv4 and IPv6 networks
+ * for "which network contains this address" lookups. Queries that only use conditions the mirror
+ * understands are answered from memory, anything else returns null so the caller falls through to
+ * WAPI. Each structure is reloaded on a schedule in the background and swapped in atomically, so
+ * lookups never wait on a refresh. WAPI does not provide a change feed, so a refresh re-reads the
+ * structure rather than applying deltas.
+ */
+class InfobloxMirror {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxMirror.class);
+
+    /** Loads every object of a structure from WAPI, one page at a time. */
+    interface Source {
+        void fetchAll(String structure, String returnFields, String query,
+            InfobloxResponseParser.ResultHandler handler) throws BridgeError;
+    }
+
+    /** The structures that can be mirrored, by structure name. */
+    static final Map<String,Definition> DEFINITIONS;
+    static {
+        Map<String,Definition> definitions = new LinkedHashMap<>();
+        definitions.put("network", new Definition("network", true,
+            new String[] {"network", "network_view", "comment", "extensible_attributes"},
+            null, null, "network")
+            .condition("network", Condition.NETWORK)
+            .condition("contains_address", Condition.CONTAINS_ADDRESS)
+            .condition("network_view", Condition.equalTo("network_view")));
+        definitions.put("ipv6network", new Definition("ipv6network", true,
+            new String[] {"network", "network_view", "comment", "extensible_attributes"},
+            null, null, "network")
+            .condition("network", Condition.NETWORK)
+            .condition("contains_address", Condition.CONTAINS_ADDRESS)
+            .condition("network_view", Condition.equalTo("network_view")));
+        definitions.put("record:host", new Definition("record:host", true,
+            new String[] {"name", "view", "ipv4addrs", "comment", "extensible_attributes"},
+            "name", new String[] {"ipv4addrs", "ipv4addr"}, null)
+            .condition("name", Condition.NAME)
+            .condition("ipv4addr", Condition.ADDRESS)
+            .condition("view", Condition.equalTo("view")));
+        definitions.put("record:a", new Definition("record:a", true,
+            new String[] {"name", "view", "ipv4addr", "comment", "extensible_attributes"},
+            "name", new String[] {"ipv4addr"}, null)
+            .condition("name", Condition.NAME)
+            .condition("ipv4addr", Condition.ADDRESS)
+            .condition("view", Condition.equalTo("view")));
+        // WAPI only lists ipv4address objects within a network, so only the used addresses of the
+        // mirrored networks are loaded. A lookup that finds nothing falls through to WAPI, which
+        // also knows about the unused addresses.
+        definitions.put("ipv4address", new Definition("ipv4address", false,
+            new String[] {"ip_address", "names", "network", "network_view", "status", "mac_address", "types", "usage"},
+            null, new String[] {"ip_address"}, null)
+            .condition("ip_address", Condition.ADDRESS)
+            .condition("network_view", Condition.equalTo("network_view")));
+        DEFINITIONS = Collections.unmodifiableMap(definitions);
+    }
+
+    private final Source source;
+    private final List<String> structures;
+    private final long refreshInterval;
+    private final Map<String,Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong fallThroughs = new AtomicLong();
+
+    /**
+     * @param source loads the mirrored structures
+     * @param structures the structures to mirror, each must be one of {@link #DEFINITIONS}
+     * @param refreshInterval milliseconds between reloads of the mirrored structures
+     * @throws BridgeError if a structure cannot be mirrored
+     */
+    InfobloxMirror(Source source, List<String> structures, long refreshInterval) throws BridgeError {
+        for (String structure : structures) {
+            if (!DEFINITIONS.containsKey(structure)) {
+                throw new BridgeError("The '"+structure+"' structure cannot be mirrored, the supported "
+                    + "structures are: "+DEFINITIONS.keySet());
+            }
+        }
+        if (structures.contains("ipv4address") && !structures.contains("network")) {
+            throw new BridgeError("Mirroring the 'ipv4address' structure requires the 'network' structure to be mirrored.");
+        }
+        this.source = source;
+        // Networks are loaded before addresses since addresses are loaded network by network
+        this.structures = new ArrayList<>(structures);
+        if (this.structures.remove("ipv4address")) {
+            this.structures.add("ipv4address");
+        }
+        this.refreshInterval = refreshInterval;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+            new InfobloxAdapter.DaemonThreadFactory("infoblox-mirror"));
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Starts loading the mirrored structures in the background. */
+    void start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshAll();
+            }
+        }, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops refreshing the mirror. */
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Schedules an immediate reload of the structure, if it is mirrored.
+     *
+     * @param structure
+     */
+    void refresh(final String structure) {
+        if (structures.contains(structure) && !scheduler.isShutdown()) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshStructure(structure);
+                }
+            });
+        }
+    }
+
+    /**
+     * Finds the objects of a structure matching a query.
+     *
+     * @param structure
+     * @param query the query that would have been sent to WAPI (with parameters substituted)
+     * @param fields the top level properties that will be read from the results
+     * @return the matching objects, or null if the query cannot be answered from the mirror
+     */
+    List<JSONObject> find(String structure, String query, Set<String> fields) {
+        Snapshot snapshot = snapshots.get(structure);
+        if (snapshot == null || !snapshot.definition.fields.containsAll(fields)) {
+            return fallThrough(snapshot);
+        }
+        Definition definition = snapshot.definition;
+
+        // Parse the query into simple equality conditions, any modifier (such as ~= or :=) or
+        // unknown field means the query has to go to WAPI.
+        Map<Condition,String> conditions = new LinkedHashMap<>();
+        if (!query.isEmpty()) {
+            for (String part : query.split("&")) {
+                int separator = part.indexOf('=');
+                if (separator < 1) {
+                    return fallThrough(snapshot);
+                }
+                Condition condition = definition.conditions.get(part.substring(0, separator));
+                if (condition == null || conditions.containsKey(condition)) {
+                    return fallThrough(snapshot);
+                }
+                conditions.put(condition, part.substring(separator + 1));
+            }
+        }
+
+        // Use the first indexed condition to find the candidates and filter them by the rest
+        List<JSONObject> candidates = null;
+        Condition indexed = null;
+        for (Map.Entry<Condition,String> entry : conditions.entrySet()) {
+            if (entry.getKey().isIndexed()) {
+                indexed = entry.getKey();
+                candidates = indexed.lookup(snapshot, entry.getValue());
+                if (candidates == null) {
+                    // The value could not be interpreted (for example an invalid address)
+                    return fallThrough(snapshot);
+                }
+                break;
+            }
+        }
+        if (candidates == null) {
+            candidates = snapshot.all;
+        }
+        List<JSONObject> results = new ArrayList<>();
+        for (JSONObject candidate : candidates) {
+            boolean matches = true;
+            for (Map.Entry<Condition,String> entry : conditions.entrySet()) {
+                if (entry.getKey() != indexed && !entry.getKey().matches(snapshot, candidate, entry.getValue())) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                results.add(candidate);
+            }
+        }
+        if (results.isEmpty() && !definition.complete) {
+            return fallThrough(snapshot);
+        }
+        hits.incrementAndGet();
+        return results;
+    }
+
+    /**
+     * Returns the mirrored object with the given reference, or null if it is not mirrored.
+     *
+     * @param ref
+     * @return
+     */
+    JSONObject findByRef(String ref) {
+        int separator = ref.indexOf('/');
+        Snapshot snapshot = separator < 0 ? null : snapshots.get(ref.substring(0, separator));
+        return snapshot == null ? null : snapshot.byRef.get(ref);
+    }
+
+    /** The fields available for the mirrored objects of the structure, or null if not mirrored. */
+    Set<String> getFields(String structure) {
+        Definition definition = DEFINITIONS.get(structure);
+        return definition == null ? null : definition.fields;
+    }
+
+    /** The number of queries answered by the mirror. */
+    long getHits() {
+        return hits.get();
+    }
+
+    /** The number of queries on mirrored structures that had to go to WAPI. */
+    long getFallThroughs() {
+        return fallThroughs.get();
+    }
+
+    /** The number of mirrored objects of each loaded structure. */
+    Map<String,Integer> getSizes() {
+        Map<String,Integer> sizes = new LinkedHashMap<>();
+        for (String structure : structures) {
+            Snapshot snapshot = snapshots.get(structure);
+            if (snapshot != null) {
+                sizes.put(structure, snapshot.all.size());
+            }
+        }
+        return sizes;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * LOADING
+     *-------------------------------------------------------------------------------------------*/
+
+    private List<JSONObject> fallThrough(Snapshot snapshot) {
+        if (snapshot != null) {
+            fallThroughs.incrementAndGet();
+        }
+        return null;
+    }
+
+    private void refreshAll() {
+        for (String structure : structures) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            refreshStructure(structure);
+        }
+    }
+
+    private void refreshStructure(String structure) {
+        long start = System.currentTimeMillis();
+        try {
+            Snapshot snapshot = load(DEFINITIONS.get(structure));
+            snapshots.put(structure, snapshot);
+            logger.info("Mirrored {} Infoblox {} objects in {}ms.",
+                snapshot.all.size(), structure, System.currentTimeMillis() - start);
+        } catch (BridgeError | RuntimeException e) {
+            // Keep serving the previous snapshot (if any), the next refresh will try again
+            logger.warn("Unable to refresh the Infoblox mirror of the "+structure+" structure.", e);
+        }
+    }
+
+    private Snapshot load(Definition definition) throws BridgeError {
+        final Snapshot snapshot = new Snapshot(definition);
+        InfobloxResponseParser.ResultHandler handler = new InfobloxResponseParser.ResultHandler() {
+            @Override
+            public void handle(JSONObject result) {
+                snapshot.add(result);
+            }
+        };
+        if (definition.structure.equals("ipv4address")) {
+            Snapshot networks = snapshots.get("network");
+            if (networks == null) {
+                throw new BridgeError("The network structure has not been mirrored yet.");
+            }
+            for (JSONObject network : networks.all) {
+                String cidr = canonicalNetwork((String)network.get("network"));
+                if (cidr == null || cidr.indexOf(':') >= 0) {
+                    continue;
+                }
+                source.fetchAll(definition.structure, definition.returnFields,
+                    "network="+network.get("network")+"&network_view="+network.get("network_view")+"&status=USED",
+                    handler);
+            }
+        } else {
+            source.fetchAll(definition.structure, definition.returnFields, "", handler);
+        }
+        return snapshot;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * ADDRESS HELPERS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Parses an IPv4 or IPv6 address literal, returning null if the value is not one. Host names
+     * are never resolved.
+     */
+    static byte[] parseAddress(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        if (value.indexOf(':') >= 0) {
+            try {
+                // A value containing a colon is only ever parsed as an IPv6 literal
+                return InetAddress.getByName(value).getAddress();
+            } catch (UnknownHostException | SecurityException e) {
+                return null;
+            }
+        }
+        String[] octets = value.split("\\.", -1);
+        if (octets.length != 4) {
+            return null;
+        }
+        byte[] address = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            if (octets[i].isEmpty() || octets[i].length() > 3) {
+                return null;
+            }
+            int octet = 0;
+            for (int j = 0; j < octets[i].length(); j++) {
+                char c = octets[i].charAt(j);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                octet = octet * 10 + (c - '0');
+            }
+            if (octet > 255) {
+                return null;
+            }
+            address[i] = (byte)octet;
+        }
+        return address;
+    }
+
+    /** Returns the canonical string form of an address literal, or null if it is not one. */
+    static String canonicalAddress(String value) {
+        byte[] address = parseAddress(value);
+        return address == null ? null : formatAddress(address);
+    }
+
+    /** Returns the canonical form of a network in CIDR notation, or null if it is not one. */
+    static String canonicalNetwork(String value) {
+        int separator = value == null ? -1 : value.indexOf('/');
+        if (separator < 0) {
+            return null;
+        }
+        byte[] address = parseAddress(value.substring(0, separator));
+        int prefix = parsePrefix(value.substring(separator + 1), address);
+        return prefix < 0 ? null : formatAddress(address) + "/" + prefix;
+    }
+
+    private static int parsePrefix(String value, byte[] address) {
+        if (address == null) {
+            return -1;
+        }
+        try {
+            int prefix = Integer.parseInt(value);
+            return prefix >= 0 && prefix <= address.length * 8 ? prefix : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String formatAddress(byte[] address) {
+        if (address.length == 4) {
+            return (address[0] & 0xff)+"."+(address[1] & 0xff)+"."+(address[2] & 0xff)+"."+(address[3] & 0xff);
+        }
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Describes how a structure is loaded and which query conditions it supports. */
+    static class Definition {
+        private final String structure;
+        private final boolean complete;
+        private final String returnFields;
+        private final Set<String> fields;
+        private final String nameField;
+        private final String[] addressPath;
+        private final String networkField;
+        private final Map<String,Condition> conditions = new HashMap<>();
+
+        /**
+         * @param structure
+         * @param complete whether every object of the structure is loaded, when false an empty
+         *     lookup falls through to WAPI
+         * @param fields the fields that are loaded
+         * @param nameField the field indexed by name, or null
+         * @param addressPath the path to the addresses indexed by address, or null
+         * @param networkField the field indexed by network, or null
+         */
+        Definition(String structure, boolean complete, String[] fields, String nameField,
+            String[] addressPath, String networkField
+        ) {
+            this.structure = structure;
+            this.complete = complete;
+            this.returnFields = StringUtils.join(fields, ",");
+            Set<String> fieldSet = new HashSet<>(Arrays.asList(fields));
+            fieldSet.add("_ref");
+            this.fields = Collections.unmodifiableSet(fieldSet);
+            this.nameField = nameField;
+            this.addressPath = addressPath;
+            this.networkField = networkField;
+        }
+
+        private Definition condition(String field, Condition condition) {
+            conditions.put(field, condition);
+            return this;
+        }
+
+        /** Returns the canonical addresses of an object. */
+        private List<String> getAddresses(JSONObject object) {
+            List<String> addresses = new ArrayList<>(1);
+            collectAddresses(object, 0, addresses);
+            return addresses;
+        }
+
+        private void collectAddresses(Object value, int index, List<String> addresses) {
+            if (index == addressPath.length) {
+                String address = value instanceof String ? canonicalAddress((String)value) : null;
+                if (address != null) {
+                    addresses.add(address);
+                }
+            } else if (value instanceof JSONObject) {
+                collectAddresses(((JSONObject)value).get(addressPath[index]), index + 1, addresses);
+            } else if (value instanceof JSONArray) {
+                for (Object element : (JSONArray)value) {
+                    collectAddresses(element, index, addresses);
+                }
+            }
+        }
+    }
+
+    /** A query condition the mirror can evaluate. */
+    abstract static class Condition {
+        static final Condition NAME = new Condition() {
+            @Override
+            List<JSONObject> lookup(Snapshot snapshot, String value) {
+                return snapshot.get(snapshot.byName, value.toLowerCase(Locale.ENGLISH));
+            }
+            @Override
+            boolean matches(Snapshot snapshot, JSONObject object, String value) {
+                return value.equalsIgnoreCase((String)object.get(snapshot.definition.nameField));
+            }
+        };
+        static final Condition ADDRESS = new Condition() {
+            @Override
+            List<JSONObject> lookup(Snapshot snapshot, String value) {
+                String address = canonicalAddress(value);
+                return address == null ? null : snapshot.get(snapshot.byAddress, address);
+            }
+            @Override
+            boolean matches(Snapshot snapshot, JSONObject object, String value) {
+                return snapshot.definition.getAddresses(object).contains(canonicalAddress(value));
+            }
+        };
+        static final Condition NETWORK = new Condition() {
+            @Override
+            List<JSONObject> lookup(Snapshot snapshot, String value) {
+                String network = canonicalNetwork(value);
+                return network == null ? null : snapshot.get(snapshot.byNetwork, network);
+            }
+            @Override
+            boolean matches(Snapshot snapshot, JSONObject object, String value) {
+                String network = canonicalNetwork(value);
+                return network != null
+                    && network.equals(canonicalNetwork((String)object.get(snapshot.definition.networkField)));
+            }
+        };
+        static final Condition CONTAINS_ADDRESS = new Condition() {
+            @Override
+            List<JSONObject> lookup(Snapshot snapshot, String value) {
+                byte[] address = parseAddress(value);
+                return address == null ? null : snapshot.networks.findContaining(address);
+            }
+            @Override
+            boolean matches(Snapshot snapshot, JSONObject object, String value) {
+                byte[] address = parseAddress(value);
+                return address != null && snapshot.networks.findContaining(address).contains(object);
+            }
+        };
+
+        /** A condition that compares a field to the value, and is not indexed. */
+        static Condition equalTo(final String field) {
+            return new Condition() {
+                @Override
+                boolean isIndexed() {
+                    return false;
+                }
+                @Override
+                List<JSONObject> lookup(Snapshot snapshot, String value) {
+                    return null;
+                }
+                @Override
+                boolean matches(Snapshot snapshot, JSONObject object, String value) {
+                    return value.equals(object.get(field));
+                }
+            };
+        }
+
+        boolean isIndexed() {
+            return true;
+        }
+
+        /** Returns the objects matching the value, or null if the value is not valid. */
+        abstract List<JSONObject> lookup(Snapshot snapshot, String value);
+
+        abstract boolean matches(Snapshot snapshot, JSONObject object, String value);
+    }
+
+    /** The loaded objects of a structure and their indexes. Not modified once published. */
+    static class Snapshot {
+        private final Definition definition;
+        private final List<JSONObject> all = new ArrayList<>();
+        private final Map<String,JSONObject> byRef = new HashMap<>();
+        private final Map<String,List<JSONObject>> byName = new HashMap<>();
+        private final Map<String,List<JSONObject>> byAddress = new HashMap<>();
+        private final Map<String,List<JSONObject>> byNetwork = new HashMap<>();
+        private final PrefixTrie networks = new PrefixTrie();
+
+        Snapshot(Definition definition) {
+            this.definition = definition;
+        }
+
+        private void add(JSONObject object) {
+            all.add(object);
+            Object ref = object.get("_ref");
+            if (ref instanceof String) {
+                byRef.put((String)ref, object);
+            }
+            if (definition.nameField != null && object.get(definition.nameField) instanceof String) {
+                put(byName, ((String)object.get(definition.nameField)).toLowerCase(Locale.ENGLISH), object);
+            }
+            if (definition.addressPath != null) {
+                for (String address : definition.getAddresses(object)) {
+                    put(byAddress, address, object);
+                }
+            }
+            if (definition.networkField != null && object.get(definition.networkField) instanceof String) {
+                String value = (String)object.get(definition.networkField);
+                String network = canonicalNetwork(value);
+                if (network != null) {
+                    put(byNetwork, network, object);
+                    int separator = network.indexOf('/');
+                    networks.add(parseAddress(network.substring(0, separator)),
+                        Integer.parseInt(network.substring(separator + 1)), object);
+                }
+            }
+        }
+
+        private static void put(Map<String,List<JSONObject>> index, String key, JSONObject object) {
+            List<JSONObject> objects = index.get(key);
+            if (objects == null) {
+                objects = new ArrayList<>(1);
+                index.put(key, objects);
+            }
+            objects.add(object);
+        }
+
+        private List<JSONObject> get(Map<String,List<JSONObject>> index, String key) {
+            List<JSONObject> objects = index.get(key);
+            return objects == null ? Collections.<JSONObject>emptyList() : objects;
+        }
+    }
+
+    /**
+     * A binary trie over network prefixes. Finding every network containing an address walks at
+     * most one node per address bit, regardless of how many networks are indexed. IPv4 and IPv6
+     * networks are kept in separate roots.
+     */
+    static class PrefixTrie {
+        private final Node ipv4 = new Node();
+        private final Node ipv6 = new Node();
+
+        void add(byte[] address, int prefixLength, JSONObject network) {
+            Node node = address.length == 4 ? ipv4 : ipv6;
+            for (int bit = 0; bit < prefixLength; bit++) {
+                int branch = (address[bit / 8] >> (7 - bit % 8)) & 1;
+                if (node.children[branch] == null) {
+                    node.children[branch] = new Node();
+                }
+                node = node.children[branch];
+            }
+            if (node.networks == null) {
+                node.networks = new ArrayList<>(1);
+            }
+            node.networks.add(network);
+        }
+
+        /** Returns the networks containing the address, from the least to the most specific. */
+        List<JSONObject> findContaining(byte[] address) {
+            List<JSONObject> results = new ArrayList<>();
+            Node node = address.length == 4 ? ipv4 : ipv6;
+            for (int bit = 0; node != null; bit++) {
+                if (node.networks != null) {
+                    results.addAll(node.networks);
+                }
+                if (bit == address.length * 8) {
+                    break;
+                }
+                node = node.children[(address[bit / 8] >> (7 - bit % 8)) & 1];
+            }
+            return results;
+        }
+
+        private static class Node {
+            private final Node[] children = new Node[2];
+            private List<JSONObject> networks;
+        }
+    }
+}
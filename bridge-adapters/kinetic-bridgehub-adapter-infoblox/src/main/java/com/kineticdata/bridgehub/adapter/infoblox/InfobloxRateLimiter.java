@@ -0,0 +1,167 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the requests sent to one grid member.
+ * <p>
+ * A request needs a permit, of which there are a fixed number, and a token from a bucket that is
+ * refilled at a fixed rate and holds up to one second of tokens, so short bursts are let through
+ * while the sustained rate stays within the limit. Requests that cannot get both within the wait
+ * timeout fail, and once too many requests are already waiting new ones fail right away rather
+ * than queueing up behind them. When the member asks for requests to slow down (see
+ * {@link #pause(long)}) no tokens are given out until the pause is over.
+ */
+class InfobloxRateLimiter {
+
+    /** The limits applied to each member. */
+    static class Limits {
+        private final int maxConcurrent;
+        private final double rate;
+        private final int maxWaiting;
+        private final long waitTimeout;
+
+        /**
+         * @param maxConcurrent the most requests in flight at once, 0 for no limit
+         * @param rate the most requests started per second, 0 for no limit
+         * @param maxWaiting the most requests waiting for a permit or token
+         * @param waitTimeout milliseconds a request waits for a permit and token
+         */
+        Limits(int maxConcurrent, double rate, int maxWaiting, long waitTimeout) {
+            this.maxConcurrent = maxConcurrent;
+            this.rate = rate;
+            this.maxWaiting = maxWaiting;
+            this.waitTimeout = waitTimeout;
+        }
+    }
+
+    private final String member;
+    private final Semaphore permits;
+    private final double rate;
+    private final int maxWaiting;
+    private final long waitTimeout;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // Guarded by this
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+
+    /**
+     * @param member the url of the member, for error messages
+     * @param limits
+     */
+    InfobloxRateLimiter(String member, Limits limits) {
+        this.member = member;
+        this.permits = limits.maxConcurrent > 0 ? new Semaphore(limits.maxConcurrent, true) : null;
+        this.rate = limits.rate;
+        this.maxWaiting = limits.maxWaiting;
+        this.waitTimeout = limits.waitTimeout;
+        this.tokens = Math.max(1, rate);
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Waits for a permit and a token. Every successful call must be followed by a call to
+     * {@link #release()}.
+     *
+     * @throws BridgeError if too many requests are waiting or the wait timed out
+     */
+    void acquire() throws BridgeError {
+        if (permits == null && rate <= 0 && isFree()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            throw new BridgeError("The Infoblox member "+member+" is busy, "+maxWaiting
+                +" requests are already waiting to be sent to it.");
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTimeout);
+            if (permits != null && !permits.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS)) {
+                throw new BridgeError("Timed out waiting to send a request to the Infoblox member "+member+".");
+            }
+            try {
+                long delay = reserveToken(deadline - System.nanoTime());
+                if (delay < 0) {
+                    throw new BridgeError("Timed out waiting to send a request to the Infoblox member "+member+".");
+                }
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (BridgeError | InterruptedException | RuntimeException e) {
+                if (permits != null) {
+                    permits.release();
+                }
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting to send a request to the Infoblox member "+member+".", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /** Returns the permit taken by {@link #acquire()}. */
+    void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Holds back every request to the member for a while, because it is overloaded.
+     *
+     * @param millis
+     */
+    synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /** The number of requests waiting for a permit or token. */
+    int getWaiting() {
+        return waiting.get();
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private synchronized boolean isFree() {
+        return pausedUntil - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Takes a token, possibly one that has not been added to the bucket yet.
+     *
+     * @param maxDelay the longest the caller can wait, in nanoseconds
+     * @return how long the caller has to wait before the token can be used, or -1 if that is longer
+     *     than the maximum (in which case no token is taken)
+     */
+    private synchronized long reserveToken(long maxDelay) {
+        long now = System.nanoTime();
+        long delay = Math.max(0, pausedUntil - now);
+        if (rate > 0) {
+            tokens = Math.min(Math.max(1, rate), tokens + (now - refilledAt) * rate / 1000000000d);
+            refilledAt = now;
+            if (tokens < 1) {
+                // Tokens already taken by waiting requests make the bucket negative
+                delay = Math.max(delay, (long)Math.ceil((1 - tokens) * 1000000000d / rate));
+            }
+        }
+        if (delay > maxDelay) {
+            return -1;
+        }
+        if (rate > 0) {
+            tokens -= 1;
+        }
+        return delay;
+    }
+}
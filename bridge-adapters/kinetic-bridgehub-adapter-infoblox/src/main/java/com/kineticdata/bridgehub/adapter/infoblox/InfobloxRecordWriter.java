@@ -0,0 +1,437 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates DNS records in batches.
+ * <p>
+ * The entries are split into batches, each sent as a single WAPI multi-request, and a bounded
+ * number of batches are sent at the same time. WAPI processes a multi-request as one transaction,
+ * so when any entry of a batch is rejected none of the batch is created and its entries are sent
+ * again one at a time to find out which of them failed. An A record and its PTR record are always
+ * created by the same request, so one is never created without the other. If the grid does not
+ * support multi-requests each entry is sent on its own, and an A record and its PTR record take
+ * two requests.
+ * <p>
+ * Writes are not idempotent, so a request whose outcome is unknown (for example because the
+ * connection was lost while waiting for the response) is reported as failed rather than sent
+ * again.
+ */
+public class InfobloxRecordWriter {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxRecordWriter.class);
+
+    /** Sends writes to the grid. */
+    interface Sender {
+        /** Sends a POST with a JSON body to the Grid Master and returns the buffered response. */
+        InfobloxRequestCoalescer.Response post(String path, String body) throws BridgeError;
+    }
+
+    /** Invalidates what the adapter holds for the structures that were written to. */
+    interface Listener {
+        void written(Set<String> structures);
+    }
+
+    /** The records created for an entry. */
+    public enum Type {
+        /** An A (or AAAA) record. */
+        A,
+        /** A PTR record. */
+        PTR,
+        /** An A (or AAAA) record and its PTR record. */
+        A_AND_PTR,
+        /** A host record configured for DNS, which creates the address and PTR records itself. */
+        HOST
+    }
+
+    private final Sender sender;
+    private final Listener listener;
+    private final String wapiPath;
+    private final int batchSize;
+    private final ThreadPoolExecutor executor;
+    private volatile boolean supported = true;
+
+    /**
+     * @param sender sends the writes
+     * @param listener notified of the structures written to by each call
+     * @param wapiPath the WAPI path, for example /wapi/v1.0
+     * @param batchSize the most entries sent in one multi-request
+     * @param parallelism the most requests sent at the same time
+     */
+    InfobloxRecordWriter(Sender sender, Listener listener, String wapiPath, int batchSize, int parallelism) {
+        this.sender = sender;
+        this.listener = listener;
+        this.wapiPath = wapiPath;
+        this.batchSize = Math.max(1, batchSize);
+        int threads = Math.max(1, parallelism);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new InfobloxAdapter.DaemonThreadFactory("infoblox-write"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Creates the records for each entry.
+     *
+     * @param entries
+     * @return the outcome of each entry, in the same order as the entries
+     * @throws BridgeError if interrupted while waiting for the writes
+     */
+    public Report write(List<Entry> entries) throws BridgeError {
+        long start = System.nanoTime();
+        List<Future<List<Result>>> futures = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            final List<Entry> batch = entries.subList(i, Math.min(entries.size(), i + batchSize));
+            futures.add(executor.submit(new Callable<List<Result>>() {
+                @Override
+                public List<Result> call() {
+                    try {
+                        return writeBatch(batch);
+                    } catch (RuntimeException e) {
+                        // Report the batch as failed rather than losing the results of the others
+                        logger.error("Unable to create a batch of Infoblox records.", e);
+                        List<Result> failed = new ArrayList<>(batch.size());
+                        for (Entry entry : batch) {
+                            failed.add(new Result(entry, Collections.<String>emptyList(),
+                                "Unable to create the Infoblox records: " + e));
+                        }
+                        return failed;
+                    }
+                }
+            }));
+        }
+
+        List<Result> results = new ArrayList<>(entries.size());
+        try {
+            for (Future<List<Result>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for the Infoblox records to be created.", e);
+        } catch (ExecutionException e) {
+            throw new BridgeError("Unable to create the Infoblox records.", e.getCause());
+        } finally {
+            Set<String> structures = new LinkedHashSet<>();
+            for (Entry entry : entries) {
+                structures.addAll(entry.getStructures());
+            }
+            listener.written(structures);
+        }
+
+        Report report = new Report(results, System.nanoTime() - start);
+        logger.debug("Created the records of {} of {} entries in {} ms ({} records/s).",
+            report.getSucceeded(), entries.size(), report.getElapsedMillis(),
+            String.format("%.1f", report.getRecordsPerSecond()));
+        return report;
+    }
+
+    /** Stops the threads sending writes. Writes already sent are completed. */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private List<Result> writeBatch(List<Entry> batch) {
+        List<Result> results = new ArrayList<>(batch.size());
+        if (supported && batch.size() > 1) {
+            List<Map<String,Object>> body = new ArrayList<>();
+            for (Entry entry : batch) {
+                body.addAll(entry.toRequests());
+            }
+            Object response;
+            try {
+                response = post(wapiPath + "/request", JSONValue.toJSONString(body));
+            } catch (BridgeError e) {
+                // The batch may or may not have been created, so it is not sent again
+                for (Entry entry : batch) {
+                    results.add(new Result(entry, Collections.<String>emptyList(), e.getMessage()));
+                }
+                return results;
+            }
+            if (response instanceof JSONArray && ((JSONArray)response).size() == body.size()) {
+                int index = 0;
+                for (Entry entry : batch) {
+                    List<String> refs = new ArrayList<>();
+                    for (int i = 0; i < entry.toRequests().size(); i++) {
+                        refs.add(String.valueOf(((JSONArray)response).get(index++)));
+                    }
+                    results.add(new Result(entry, refs, null));
+                }
+                return results;
+            }
+            String error = getErrorText(response);
+            if (InfobloxRequestBatcher.isMultiRequestUnsupported(error)) {
+                logger.warn("The Infoblox grid does not support multi-requests at "+wapiPath+", "
+                    + "records will be created one request at a time.");
+                supported = false;
+            } else {
+                logger.debug("The Infoblox multi-request was rejected ({}), creating the records individually.", error);
+            }
+        }
+
+        // The batch was rejected as a whole and nothing was created, so each entry is sent alone
+        for (Entry entry : batch) {
+            results.add(writeEntry(entry));
+        }
+        return results;
+    }
+
+    private Result writeEntry(Entry entry) {
+        List<Map<String,Object>> requests = entry.toRequests();
+        List<String> refs = new ArrayList<>();
+        try {
+            if (supported && requests.size() > 1) {
+                Object response = post(wapiPath + "/request", JSONValue.toJSONString(requests));
+                if (response instanceof JSONArray && ((JSONArray)response).size() == requests.size()) {
+                    for (Object ref : (JSONArray)response) {
+                        refs.add(String.valueOf(ref));
+                    }
+                    return new Result(entry, refs, null);
+                }
+                String error = getErrorText(response);
+                if (!InfobloxRequestBatcher.isMultiRequestUnsupported(error)) {
+                    return new Result(entry, refs, error);
+                }
+                supported = false;
+            }
+            for (Map<String,Object> request : requests) {
+                Object response = post(wapiPath + "/" + request.get("object"),
+                    JSONValue.toJSONString(request.get("data")));
+                if (!(response instanceof String)) {
+                    // Any record created before the failure is reported along with the error
+                    return new Result(entry, refs, getErrorText(response));
+                }
+                refs.add((String)response);
+            }
+            return new Result(entry, refs, null);
+        } catch (BridgeError e) {
+            return new Result(entry, refs, e.getMessage());
+        }
+    }
+
+    private Object post(String path, String body) throws BridgeError {
+        return sender.post(path, body).getValue();
+    }
+
+    private static String getErrorText(Object response) {
+        if (response instanceof JSONObject && ((JSONObject)response).get("text") != null) {
+            return String.valueOf(((JSONObject)response).get("text"));
+        }
+        return "Unexpected response from Infoblox: " + response;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /** The records to create for one name and address. */
+    public static class Entry {
+        private final Type type;
+        private final String name;
+        private final String address;
+
+        /**
+         * @param type the records to create
+         * @param name the fully qualified domain name, for example server1.example.com
+         * @param address the IPv4 or IPv6 address
+         */
+        public Entry(Type type, String name, String address) {
+            if (type == null || name == null || address == null) {
+                throw new IllegalArgumentException("The type, name and address of a record are required.");
+            }
+            this.type = type;
+            this.name = name;
+            this.address = address;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /** The WAPI structures whose results change when the entry is created. */
+        List<String> getStructures() {
+            boolean ipv6 = address.contains(":");
+            List<String> structures = new ArrayList<>(3);
+            if (type == Type.A || type == Type.A_AND_PTR) {
+                structures.add(ipv6 ? "record:aaaa" : "record:a");
+            }
+            if (type == Type.PTR || type == Type.A_AND_PTR) {
+                structures.add("record:ptr");
+            }
+            if (type == Type.HOST) {
+                structures.add("record:host");
+            }
+            // The address is now in use
+            structures.add(ipv6 ? "ipv6address" : "ipv4address");
+            return structures;
+        }
+
+        /** The multi-request entries that create the records. */
+        List<Map<String,Object>> toRequests() {
+            String addressField = address.contains(":") ? "ipv6addr" : "ipv4addr";
+            List<Map<String,Object>> requests = new ArrayList<>(2);
+            if (type == Type.A || type == Type.A_AND_PTR) {
+                Map<String,Object> data = new LinkedHashMap<>();
+                data.put("name", name);
+                data.put(addressField, address);
+                requests.add(toRequest(address.contains(":") ? "record:aaaa" : "record:a", data));
+            }
+            if (type == Type.PTR || type == Type.A_AND_PTR) {
+                Map<String,Object> data = new LinkedHashMap<>();
+                data.put("ptrdname", name);
+                data.put(addressField, address);
+                requests.add(toRequest("record:ptr", data));
+            }
+            if (type == Type.HOST) {
+                Map<String,Object> hostAddress = new LinkedHashMap<>();
+                hostAddress.put(addressField, address);
+                Map<String,Object> data = new LinkedHashMap<>();
+                data.put("name", name);
+                data.put(addressField + "s", Arrays.asList(hostAddress));
+                data.put("configure_for_dns", Boolean.TRUE);
+                requests.add(toRequest("record:host", data));
+            }
+            return requests;
+        }
+
+        private static Map<String,Object> toRequest(String object, Map<String,Object> data) {
+            Map<String,Object> request = new LinkedHashMap<>();
+            request.put("method", "POST");
+            request.put("object", object);
+            request.put("data", data);
+            return request;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + name + " " + address;
+        }
+    }
+
+    /** The outcome of one entry. */
+    public static class Result {
+        private final Entry entry;
+        private final List<String> refs;
+        private final String error;
+
+        Result(Entry entry, List<String> refs, String error) {
+            this.entry = entry;
+            this.refs = Collections.unmodifiableList(refs);
+            this.error = error;
+        }
+
+        public Entry getEntry() {
+            return entry;
+        }
+
+        /** Whether every record of the entry was created. */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * The references of the records created. A failed entry may still have created some of
+         * its records when they could not be created in a single request.
+         */
+        public List<String> getRefs() {
+            return refs;
+        }
+
+        /** Why the entry failed, or null. */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /** The outcome of a call to {@link InfobloxRecordWriter#write(List)}. */
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsed;
+        private final int succeeded;
+        private final int records;
+
+        Report(List<Result> results, long elapsed) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsed = elapsed;
+            int succeededCount = 0;
+            int recordCount = 0;
+            for (Result result : results) {
+                if (result.isSuccess()) {
+                    succeededCount++;
+                }
+                recordCount += result.getRefs().size();
+            }
+            this.succeeded = succeededCount;
+            this.records = recordCount;
+        }
+
+        /** The outcome of each entry, in the same order as the entries. */
+        public List<Result> getResults() {
+            return results;
+        }
+
+        /** The results of the entries that failed. */
+        public List<Result> getFailures() {
+            List<Result> failures = new ArrayList<>();
+            for (Result result : results) {
+                if (!result.isSuccess()) {
+                    failures.add(result);
+                }
+            }
+            return failures;
+        }
+
+        /** The number of entries whose records were all created. */
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        /** The number of WAPI objects created. */
+        public int getRecordsCreated() {
+            return records;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsed);
+        }
+
+        /** The number of WAPI objects created per second of elapsed time. */
+        public double getRecordsPerSecond() {
+            return elapsed == 0 ? 0 : records * 1000000000d / elapsed;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Combines WAPI GETs into multi-requests.
+ * <p>
+ * A multi-request (a POST to the WAPI <code>request</code> object) carries several requests in one
+ * body and returns their results in one response, so several lookups cost a single round trip.
+ * Requests are batched in two ways: {@link #executeAll(List)} sends a known set of requests
+ * together, and when a batch window is configured {@link #submit(String)} holds each request for
+ * up to that long so requests from concurrent callers share a multi-request. A batch whose window
+ * closed is sent on a thread of its own, so a slow multi-request does not hold back later windows.
+ * <p>
+ * WAPI fails a multi-request as a whole when any of its requests fails, so a failed batch is
+ * retried as individual requests and each caller sees only its own outcome. If the grid does not
+ * support multi-requests at all, batching is turned off.
+ */
+class InfobloxRequestBatcher {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxRequestBatcher.class);
+
+    /** Sends requests to the grid. */
+    interface Sender {
+        /** Sends a GET and returns the buffered response. */
+        InfobloxRequestCoalescer.Response get(String path) throws BridgeError;
+
+        /** Sends a POST with a JSON body and returns the buffered response. */
+        InfobloxRequestCoalescer.Response post(String path, String body) throws BridgeError;
+    }
+
+    private final Sender sender;
+    private final String wapiPath;
+    private final long window;
+    private final int maxSize;
+    private final ScheduledExecutorService flusher;
+    /** Sends the batches whose window closed, each waited on by the callers in it. */
+    private final ExecutorService windowSender;
+
+    /** Requests waiting for the current window to close, guarded by this. */
+    private List<Pending> pending = new ArrayList<>();
+    private volatile boolean supported = true;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedRequests = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param sender sends the requests
+     * @param wapiPath the WAPI path, for example /wapi/v1.0
+     * @param window milliseconds {@link #submit(String)} waits for other requests, 0 disables it
+     * @param maxSize the most requests sent in one multi-request
+     */
+    InfobloxRequestBatcher(Sender sender, String wapiPath, long window, int maxSize) {
+        this.sender = sender;
+        this.wapiPath = wapiPath;
+        this.window = window;
+        this.maxSize = Math.max(1, maxSize);
+        if (window > 0) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new InfobloxAdapter.DaemonThreadFactory("infoblox-batch"));
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            this.flusher = executor;
+            this.windowSender = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, 
+                new SynchronousQueue<Runnable>(), new InfobloxAdapter.DaemonThreadFactory("infoblox-batch-send"));
+        } else {
+            this.flusher = null;
+            this.windowSender = null;
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Whether requests passed to {@link #submit(String)} are batched. */
+    boolean isWindowed() {
+        return flusher != null && supported;
+    }
+
+    /**
+     * Whether the GET can be part of a multi-request. WAPI paging is not available within a
+     * multi-request, and each search field can only be given once.
+     *
+     * @param path the WAPI path and query string
+     * @return
+     */
+    boolean isBatchable(String path) {
+        return toRequest(path) != null;
+    }
+
+    /**
+     * Sends the GET as part of the next multi-request, waiting up to the batch window for other
+     * requests to join it.
+     *
+     * @param path a path for which {@link #isBatchable(String)} is true
+     * @return the response to the GET
+     * @throws BridgeError
+     */
+    InfobloxRequestCoalescer.Response submit(String path) throws BridgeError {
+        Pending request = new Pending(path);
+        List<Pending> full = null;
+        synchronized (this) {
+            pending.add(request);
+            if (pending.size() >= maxSize) {
+                full = pending;
+                pending = new ArrayList<>();
+            } else if (pending.size() == 1) {
+                flusher.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        handOffPending();
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            // The batch is full, so it is sent right away by the caller that filled it
+            send(full);
+        }
+        return request.await();
+    }
+
+    /**
+     * Sends the GETs as multi-requests of at most the maximum batch size, without waiting for a
+     * window. GETs that cannot be batched are sent individually.
+     *
+     * @param paths
+     * @return the responses, in the same order as the paths
+     * @throws BridgeError if any of the requests fails
+     */
+    List<InfobloxRequestCoalescer.Response> executeAll(List<String> paths) throws BridgeError {
+        List<Pending> requests = new ArrayList<>(paths.size());
+        List<Pending> batch = new ArrayList<>();
+        for (String path : paths) {
+            Pending request = new Pending(path);
+            requests.add(request);
+            batch.add(request);
+            if (batch.size() == maxSize) {
+                send(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        send(batch);
+        List<InfobloxRequestCoalescer.Response> responses = new ArrayList<>(requests.size());
+        for (Pending request : requests) {
+            responses.add(request.await());
+        }
+        return responses;
+    }
+
+    /** Sends any requests waiting for the window and stops the window timer. */
+    void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            windowSender.shutdown();
+            flushPending();
+        }
+    }
+
+    /** The number of multi-requests sent. */
+    long getBatches() {
+        return batches.get();
+    }
+
+    /** The number of requests sent as part of a multi-request. */
+    long getBatchedRequests() {
+        return batchedRequests.get();
+    }
+
+    /** The number of multi-requests that failed and were retried as individual requests. */
+    long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private void flushPending() {
+        send(takePending());
+    }
+
+    /** Passes the requests waiting for the window to a sender thread, keeping the timer free. */
+    private void handOffPending() {
+        final List<Pending> batch = takePending();
+        try {
+            windowSender.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the requests are still sent rather than left waiting
+            send(batch);
+        }
+    }
+
+    private synchronized List<Pending> takePending() {
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    /** Sends the requests, completing every one of them whatever the outcome. */
+    private void send(List<Pending> requests) {
+        try {
+            List<Pending> individual = new ArrayList<>();
+            List<Map<String,Object>> body = new ArrayList<>();
+            List<Pending> batched = new ArrayList<>();
+            for (Pending request : requests) {
+                Map<String,Object> multiRequest = supported ? toRequest(request.path) : null;
+                if (multiRequest == null) {
+                    individual.add(request);
+                } else {
+                    body.add(multiRequest);
+                    batched.add(request);
+                }
+            }
+            if (batched.size() == 1) {
+                // A multi-request of one saves nothing
+                individual.addAll(batched);
+            } else if (!batched.isEmpty() && !sendBatch(batched, body)) {
+                individual.addAll(batched);
+            }
+            for (Pending request : individual) {
+                try {
+                    request.complete(sender.get(request.path), null);
+                } catch (BridgeError | RuntimeException e) {
+                    request.complete(null, e);
+                }
+            }
+        } finally {
+            // Nothing should be left waiting, whatever went wrong above
+            for (Pending request : requests) {
+                request.complete(null, new BridgeError("The batched Infoblox request was not sent."));
+            }
+        }
+    }
+
+    /**
+     * Sends the requests as a single multi-request.
+     *
+     * @return false if the multi-request failed and the requests should be sent individually
+     */
+    private boolean sendBatch(List<Pending> requests, List<Map<String,Object>> body) {
+        InfobloxRequestCoalescer.Response response;
+        Object results;
+        try {
+            response = sender.post(wapiPath + "/request", JSONValue.toJSONString(body));
+            results = response.getValue();
+        } catch (BridgeError | RuntimeException e) {
+            logger.debug("The Infoblox multi-request failed, sending the requests individually.", e);
+            fallbacks.incrementAndGet();
+            return false;
+        }
+        if (!(results instanceof JSONArray) || ((JSONArray)results).size() != requests.size()) {
+            String text = results instanceof JSONObject ? String.valueOf(((JSONObject)results).get("text")) : null;
+            if (isMultiRequestUnsupported(text)) {
+                logger.warn("The Infoblox grid does not support multi-requests at "+wapiPath+", "
+                    + "requests will not be batched.");
+                supported = false;
+            } else {
+                // The failure may belong to any one of the requests, so each is sent on its own
+                logger.debug("The Infoblox multi-request failed ({}), sending the requests individually.", text);
+            }
+            fallbacks.incrementAndGet();
+            return false;
+        }
+        batches.incrementAndGet();
+        batchedRequests.addAndGet(requests.size());
+        JSONArray array = (JSONArray)results;
+        for (int i = 0; i < requests.size(); i++) {
+            // Each result is handed over as parsed rather than serialized to be parsed again
+            requests.get(i).complete(new InfobloxRequestCoalescer.Response(array.get(i), response.getOrigin()), null);
+        }
+        return true;
+    }
+
+    /**
+     * Whether a WAPI error says the grid does not know the <code>request</code> object, meaning
+     * it does not support multi-requests at all. Errors about the objects of the requests within
+     * a multi-request only fail those requests.
+     *
+     * @param text the text of the WAPI error, or null
+     * @return
+     */
+    static boolean isMultiRequestUnsupported(String text) {
+        return text != null && text.contains("Unknown object type (request)");
+    }
+
+    /**
+     * Converts a GET path into the equivalent multi-request entry, or returns null if the GET
+     * cannot be part of a multi-request.
+     */
+    private Map<String,Object> toRequest(String path) {
+        if (!path.startsWith(wapiPath + "/")) {
+            return null;
+        }
+        int separator = path.indexOf('?');
+        String object = decode(path.substring(wapiPath.length() + 1, separator < 0 ? path.length() : separator));
+        if (object == null || object.isEmpty() || object.equals("request")) {
+            return null;
+        }
+        Map<String,Object> data = new LinkedHashMap<>();
+        Map<String,Object> args = new LinkedHashMap<>();
+        if (separator >= 0) {
+            for (String parameter : path.substring(separator + 1).split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int equals = parameter.indexOf('=');
+                String name = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+                String value = decode(equals < 0 ? "" : parameter.substring(equals + 1));
+                if (name == null || value == null || name.equals("_paging") || name.equals("_page_id")
+                    || name.equals("_return_as_object")) {
+                    return null;
+                }
+                Map<String,Object> target = name.startsWith("_") ? args : data;
+                if (target.put(name, value) != null) {
+                    return null;
+                }
+            }
+        }
+        Map<String,Object> request = new LinkedHashMap<>();
+        request.put("method", "GET");
+        request.put("object", object);
+        if (!data.isEmpty()) {
+            request.put("data", data);
+        }
+        if (!args.isEmpty()) {
+            request.put("args", args);
+        }
+        return request;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /** A GET waiting for its response. */
+    private static class Pending {
+        private final String path;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private InfobloxRequestCoalescer.Response response;
+        private Exception error;
+
+        Pending(String path) {
+            this.path = path;
+        }
+
+        /** Completes the request, later calls are ignored. */
+        synchronized void complete(InfobloxRequestCoalescer.Response response, Exception error) {
+            if (done.getCount() > 0) {
+                this.response = response;
+                this.error = error;
+                done.countDown();
+            }
+        }
+
+        InfobloxRequestCoalescer.Response await() throws BridgeError {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BridgeError("Interrupted while waiting for the batched Infoblox request.", e);
+            }
+            synchronized (this) {
+                if (error instanceof BridgeError) {
+                    throw (BridgeError)error;
+                } else if (error != null) {
+                    throw (RuntimeException)error;
+                }
+                return response;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Coalesces identical WAPI requests that are in flight at the same time.
+ * <p>
+ * The first caller for a key (the leader) sends the request, every caller that arrives with the
+ * same key while it is running (the followers) waits for the leader's response instead of sending
+ * its own. The response body is buffered so each caller can parse and project it independently.
+ * A failure of the leader's request is reported to every waiting caller. Because only requests
+ * that are in flight at the same moment are shared, results are never older than the request a
+ * caller would have made itself.
+ */
+class InfobloxRequestCoalescer {
+
+    /** Sends the request for a key. */
+    interface Fetcher {
+        Response fetch() throws BridgeError;
+    }
+
+    private final ConcurrentMap<String,FutureTask<Response>> inFlight = new ConcurrentHashMap<>();
+    private final long followerTimeout;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param followerTimeout milliseconds a follower waits for the leader's response
+     */
+    InfobloxRequestCoalescer(long followerTimeout) {
+        this.followerTimeout = followerTimeout;
+    }
+
+    /**
+     * Returns the response for the key, sending the request unless an identical request is
+     * already in flight.
+     *
+     * @param key identifies the request, requests with equal keys must return the same response
+     * @param fetcher sends the request if this caller is the leader
+     * @return
+     * @throws BridgeError if the request fails or a follower times out waiting for it
+     */
+    Response execute(String key, final Fetcher fetcher) throws BridgeError {
+        FutureTask<Response> task = new FutureTask<>(new Callable<Response>() {
+            @Override
+            public Response call() throws BridgeError {
+                return fetcher.fetch();
+            }
+        });
+        FutureTask<Response> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            requests.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            return getLeaderResult(task);
+        } else {
+            coalesced.incrementAndGet();
+            return getFollowerResult(existing);
+        }
+    }
+
+    /** The number of requests that were sent. */
+    long getRequests() {
+        return requests.get();
+    }
+
+    /** The number of requests that were answered by an identical in-flight request. */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private Response getLeaderResult(FutureTask<Response> task) throws BridgeError {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw toBridgeError(e.getCause(), false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while sending the Infoblox request.", e);
+        }
+    }
+
+    private Response getFollowerResult(FutureTask<Response> task) throws BridgeError {
+        try {
+            return task.get(followerTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw toBridgeError(e.getCause(), true);
+        } catch (TimeoutException e) {
+            throw new BridgeError("Timed out after "+followerTimeout+"ms waiting for an identical "
+                + "Infoblox request that was already in progress.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for the Infoblox request.", e);
+        }
+    }
+
+    /**
+     * The leader rethrows its own error, followers get a new error (so the stack trace reflects
+     * the waiting thread) caused by the leader's.
+     */
+    private static BridgeError toBridgeError(Throwable cause, boolean follower) {
+        if (cause instanceof BridgeError && !follower) {
+            return (BridgeError)cause;
+        } else if (cause instanceof BridgeError) {
+            return new BridgeError(cause.getMessage(), cause);
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        } else {
+            return new BridgeError(cause);
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * A response shared by every caller of a coalesced request. The body is either buffered, so
+     * each caller parses it independently, or has already been parsed (as the results within a
+     * multi-request have) and is read as it is rather than being serialized again.
+     */
+    static class Response {
+        private final byte[] body;
+        private final Charset charset;
+        private final Object value;
+        private final String origin;
+
+        /**
+         * @param body
+         * @param charset
+         * @param origin the url of the grid member that returned the response
+         */
+        Response(byte[] body, Charset charset, String origin) {
+            this.body = body;
+            this.charset = charset;
+            this.value = null;
+            this.origin = origin;
+        }
+
+        /**
+         * @param value the parsed body, which is never changed by the callers
+         * @param origin the url of the grid member that returned the response
+         */
+        Response(Object value, String origin) {
+            this.body = null;
+            this.charset = null;
+            this.value = value;
+            this.origin = origin;
+        }
+
+        /**
+         * Reads the body as a WAPI GET response.
+         *
+         * @see InfobloxResponseParser#parse(Reader, InfobloxResponseParser.ResultHandler, Set)
+         */
+        InfobloxResponseParser.Result parse(InfobloxResponseParser.ResultHandler handler,
+            Set<String> fieldFilter) throws BridgeError
+        {
+            return body == null
+                ? InfobloxResponseParser.read(value, handler, fieldFilter)
+                : InfobloxResponseParser.parse(getReader(), handler, fieldFilter);
+        }
+
+        /** Returns the body as parsed JSON. */
+        Object getValue() throws BridgeError {
+            if (body == null) {
+                return value;
+            }
+            try (Reader reader = getReader()) {
+                return new JSONParser().parse(reader);
+            } catch (IOException | ParseException e) {
+                throw new BridgeError("The returned output is not valid JSON and therefore cannot be parsed.", e);
+            }
+        }
+
+        /** The url of the grid member that returned the response. */
+        String getOrigin() {
+            return origin;
+        }
+
+        private Reader getReader() {
+            return new InputStreamReader(new ByteArrayInputStream(body), charset);
+        }
+    }
+}
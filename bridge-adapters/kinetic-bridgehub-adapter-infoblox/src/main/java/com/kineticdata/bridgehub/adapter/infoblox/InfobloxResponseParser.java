@@ -0,0 +1,303 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streaming parser for WAPI GET responses.
+ * <p>
+ * WAPI returns either a bare array of objects or, when <code>_return_as_object=1</code> is used,
+ * an object wrapping the array in a <code>result</code> property (along with the
+ * <code>next_page_id</code> when paging). Rather than building the whole document, the parser
+ * reads the response incrementally and builds one result object at a time, handing each to a
+ * {@link ResultHandler} before moving on to the next. Only the top level properties named in the
+ * field filter are built, and when no handler is given the results are only counted, so no
+ * objects are built at all.
+ */
+class InfobloxResponseParser {
+
+    /** Receives each result object as soon as it has been parsed. */
+    interface ResultHandler {
+        void handle(JSONObject result) throws BridgeError;
+    }
+
+    /** Summary of a parsed response. */
+    static class Result {
+        private long count;
+        private boolean hasResults;
+        private String nextPageId;
+        private Object envelope;
+
+        /** The number of results in the response. */
+        long getCount() {
+            return count;
+        }
+
+        /** The page id of the next page, or null if this was the last (or only) page. */
+        String getNextPageId() {
+            return nextPageId;
+        }
+
+        /**
+         * The response with the result array removed. When a response does not contain a result
+         * array (such as a WAPI error) this is the complete response.
+         */
+        Object getEnvelope() {
+            return envelope;
+        }
+
+        /** Whether the response contained a result array. */
+        boolean hasResults() {
+            return hasResults;
+        }
+
+        /** Returns the WAPI error text if the response was an error, otherwise null. */
+        String getErrorText() {
+            if (envelope instanceof JSONObject && ((JSONObject)envelope).containsKey("text")) {
+                return String.valueOf(((JSONObject)envelope).get("text"));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parses the response, passing each result object to the handler.
+     *
+     * @param reader the response body
+     * @param handler receives each result, or null to only count the results
+     * @param fieldFilter the top level properties to build for each result, or null for all
+     * @return a summary of the response
+     * @throws BridgeError if the response is not valid JSON or the handler fails
+     */
+    static Result parse(Reader reader, ResultHandler handler, Set<String> fieldFilter) throws BridgeError {
+        StreamingHandler streamingHandler = new StreamingHandler(handler, fieldFilter);
+        try {
+            new JSONParser().parse(reader, streamingHandler);
+        } catch (HandlerException e) {
+            throw e.getCause();
+        } catch (ParseException e) {
+            throw new BridgeError("The returned output is not valid JSON and therefore cannot be parsed. Turn on trace logging to see the full output the adapter is receiving.", e);
+        } catch (IOException e) {
+            throw new BridgeError("Unable to read the Infoblox response.", e);
+        }
+        return streamingHandler.result;
+    }
+
+    /**
+     * Reads a response that has already been parsed, such as the result of one request within a
+     * multi-request, the same way {@link #parse(Reader, ResultHandler, Set)} reads a response body.
+     * The handler receives a new object holding the filtered properties of each result, so the
+     * parsed response is never changed and can be read more than once.
+     *
+     * @param response the parsed response
+     * @param handler receives each result, or null to only count the results
+     * @param fieldFilter the top level properties to include for each result, or null for all
+     * @return a summary of the response
+     * @throws BridgeError if the handler fails
+     */
+    @SuppressWarnings("unchecked")
+    static Result read(Object response, ResultHandler handler, Set<String> fieldFilter) throws BridgeError {
+        Result result = new Result();
+        JSONArray results = null;
+        if (response instanceof JSONArray) {
+            results = (JSONArray)response;
+        } else if (response instanceof JSONObject && ((JSONObject)response).get("result") instanceof JSONArray) {
+            JSONObject envelope = new JSONObject();
+            envelope.putAll((JSONObject)response);
+            results = (JSONArray)envelope.put("result", null);
+            Object nextPageId = envelope.remove("next_page_id");
+            result.nextPageId = nextPageId instanceof String ? (String)nextPageId : null;
+            result.envelope = envelope;
+        } else {
+            result.envelope = response;
+        }
+        if (results != null) {
+            result.hasResults = true;
+            for (Object value : results) {
+                result.count++;
+                if (handler != null && value instanceof JSONObject) {
+                    JSONObject filtered = new JSONObject();
+                    for (Object entry : ((JSONObject)value).entrySet()) {
+                        Map.Entry<String,Object> property = (Map.Entry<String,Object>)entry;
+                        if (fieldFilter == null || fieldFilter.contains(property.getKey())) {
+                            filtered.put(property.getKey(), property.getValue());
+                        }
+                    }
+                    handler.handle(filtered);
+                }
+            }
+        }
+        return result;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Marks the array holding the results, which is never built. */
+    private static final Object RESULTS = new Object();
+    /** Marks a value that is being skipped. */
+    private static final Object SKIP = new Object();
+
+    private static class StreamingHandler implements ContentHandler {
+        private final ResultHandler handler;
+        private final Set<String> fieldFilter;
+        private final Result result = new Result();
+
+        /** The containers currently being built (or the RESULTS/SKIP markers). */
+        private final Deque<Object> containers = new ArrayDeque<>();
+        /** The property names of the object entries currently open. */
+        private final Deque<String> keys = new ArrayDeque<>();
+        /** The size of the container stack when the results array is on top. */
+        private int resultsDepth = -1;
+        /** Set when the value of the current object entry should not be built. */
+        private boolean skipValue = false;
+
+        StreamingHandler(ResultHandler handler, Set<String> fieldFilter) {
+            this.handler = handler;
+            this.fieldFilter = fieldFilter;
+        }
+
+        @Override
+        public void startJSON() {}
+
+        @Override
+        public void endJSON() {}
+
+        @Override
+        public boolean startObject() {
+            startContainer(new JSONObject());
+            return true;
+        }
+
+        @Override
+        public boolean endObject() throws ParseException {
+            endContainer();
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            startContainer(new JSONArray());
+            return true;
+        }
+
+        @Override
+        public boolean endArray() throws ParseException {
+            endContainer();
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            keys.push(key);
+            if (containers.size() == resultsDepth + 1 && fieldFilter != null && !fieldFilter.contains(key)) {
+                skipValue = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            keys.pop();
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (containers.isEmpty()) {
+                result.envelope = value;
+            } else if (containers.peek() == RESULTS) {
+                result.count++;
+            } else if (skipValue) {
+                skipValue = false;
+            } else if (containers.size() == 1 && "next_page_id".equals(keys.peek())) {
+                result.nextPageId = (String)value;
+            } else {
+                attach(value);
+            }
+            return true;
+        }
+
+        private void startContainer(Object container) {
+            Object parent = containers.peek();
+            if (parent == null) {
+                // A bare array is the result array, otherwise the root object is the envelope
+                containers.push(container instanceof JSONArray ? RESULTS : container);
+                if (container instanceof JSONArray) {
+                    resultsDepth = containers.size();
+                    result.hasResults = true;
+                }
+            } else if (parent == RESULTS) {
+                result.count++;
+                containers.push(handler == null || container instanceof JSONArray ? SKIP : container);
+            } else if (parent == SKIP || skipValue) {
+                skipValue = false;
+                containers.push(SKIP);
+            } else if (containers.size() == 1 && container instanceof JSONArray && "result".equals(keys.peek())) {
+                containers.push(RESULTS);
+                resultsDepth = containers.size();
+                result.hasResults = true;
+            } else {
+                containers.push(container);
+            }
+        }
+
+        private void endContainer() {
+            Object container = containers.pop();
+            Object parent = containers.peek();
+            if (container == RESULTS) {
+                if (parent instanceof JSONObject) {
+                    // Record that the envelope contained the results without building them
+                    attach(null);
+                }
+            } else if (container == SKIP) {
+                // Nothing was built
+            } else if (parent == null) {
+                result.envelope = container;
+            } else if (parent == RESULTS) {
+                try {
+                    handler.handle((JSONObject)container);
+                } catch (BridgeError e) {
+                    throw new HandlerException(e);
+                }
+            } else {
+                attach(container);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void attach(Object value) {
+            Object parent = containers.peek();
+            if (parent instanceof JSONObject) {
+                ((JSONObject)parent).put(keys.peek(), value);
+            } else if (parent instanceof JSONArray) {
+                ((JSONArray)parent).add(value);
+            }
+        }
+    }
+
+    /** Carries a BridgeError thrown by a result handler out of the parser. */
+    private static class HandlerException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        HandlerException(BridgeError cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized BridgeError getCause() {
+            return (BridgeError)super.getCause();
+        }
+    }
+}
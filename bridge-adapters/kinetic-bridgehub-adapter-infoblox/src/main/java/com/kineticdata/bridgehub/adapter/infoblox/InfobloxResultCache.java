@@ -0,0 +1,372 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.Count;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory cache of bridge results.
+ * <p>
+ * Entries are keyed by the operation, structure, resolved query and requested fields, and live for
+ * the TTL configured for their structure. The cache is bounded by the estimated size of the
+ * cached results, evicting the least recently used entries first. When a stale period is
+ * configured, an expired entry continues to be served for that long while it is refreshed in the
+ * background, so callers never wait on the grid for a popular lookup.
+ * <p>
+ * Results are copied when they are cached and every time they are returned, so a caller that
+ * changes its result (such as adding metadata to a record list) does not change it for others.
+ * Pages of results that carry a page token are never cached.
+ */
+class InfobloxResultCache {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(InfobloxResultCache.class);
+
+    /** Loads the value for a cache miss. */
+    interface Loader<T> {
+        T load() throws BridgeError;
+    }
+
+    private final long defaultTtl;
+    private final Map<String,Long> structureTtls;
+    private final long staleTtl;
+    private final long maxBytes;
+    private final Executor refreshExecutor;
+
+    /** Entries in least recently used order, guarded by this. */
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /** Keys currently being refreshed in the background, guarded by this. */
+    private final Set<String> refreshing = new HashSet<>();
+    private long bytes = 0;
+    /** Incremented by every invalidation, so results loaded before one are not cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param defaultTtl milliseconds results are cached for structures without a specific TTL
+     * @param structureTtls milliseconds results are cached for specific structures
+     * @param staleTtl milliseconds an expired result may be served while it is refreshed
+     * @param maxBytes the maximum estimated size of all cached results
+     * @param refreshExecutor runs background refreshes of stale results
+     */
+    InfobloxResultCache(long defaultTtl, Map<String,Long> structureTtls, long staleTtl, long maxBytes,
+        Executor refreshExecutor
+    ) {
+        this.defaultTtl = defaultTtl;
+        this.structureTtls = new HashMap<>(structureTtls);
+        this.staleTtl = staleTtl;
+        this.maxBytes = maxBytes;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PUBLIC METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /**
+     * Builds the cache key for a request.
+     *
+     * @param operation the bridge operation (count, retrieve or search)
+     * @param structure
+     * @param query the query with its parameters already substituted
+     * @param fields the requested fields, or null for operations that do not return fields
+     * @param metadata the metadata values that change the result (such as paging), or null
+     * @return
+     */
+    static String key(String operation, String structure, String query, Collection<String> fields,
+        Map<String,String> metadata
+    ) {
+        StringBuilder key = new StringBuilder(operation)
+            .append('\n').append(structure)
+            .append('\n').append(query)
+            .append('\n').append(fields);
+        if (metadata != null) {
+            key.append('\n').append(metadata);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached result for the key, loading (and caching) it if there is no usable entry.
+     *
+     * @param structure the structure the result was retrieved from, used to determine the TTL and
+     *     for invalidation
+     * @param key a key built by {@link #key}
+     * @param loader loads the result if it is not cached
+     * @param bypass when true the cached entry is ignored and replaced by a freshly loaded result
+     * @return
+     * @throws BridgeError if the loader fails
+     */
+    <T> T get(String structure, String key, Loader<T> loader, boolean bypass) throws BridgeError {
+        long ttl = getTtl(structure);
+        if (ttl <= 0) {
+            return loader.load();
+        }
+        if (!bypass) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null && now < entry.expiresAt) {
+                    hits.incrementAndGet();
+                    return cast(copy(entry.value));
+                } else if (entry != null && now < entry.expiresAt + staleTtl) {
+                    staleHits.incrementAndGet();
+                    refresh(structure, key, loader);
+                    return cast(copy(entry.value));
+                }
+            }
+        }
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        T value = loader.load();
+        put(structure, key, value, ttl, loadGeneration);
+        return value;
+    }
+
+    /**
+     * Removes every cached result for the structure, so changes made to it are visible to the
+     * next request.
+     *
+     * @param structure
+     */
+    synchronized void invalidate(String structure) {
+        generation.incrementAndGet();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.structure.equals(structure)) {
+                bytes -= entry.bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Removes every cached result. */
+    synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+        bytes = 0;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getStaleHits() {
+        return staleHits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private long getTtl(String structure) {
+        Long ttl = structureTtls.get(structure);
+        return ttl == null ? defaultTtl : ttl;
+    }
+
+    private void put(String structure, String key, Object value, long ttl, long loadGeneration) {
+        if (!isCacheable(value)) {
+            return;
+        }
+        long size = key.length() * 2 + estimateSize(value);
+        if (size > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(structure, copy(value), size, System.currentTimeMillis() + ttl);
+        synchronized (this) {
+            if (generation.get() != loadGeneration) {
+                // The cache was invalidated while the result was loading, so it may be outdated
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += size;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                bytes -= eldest.bytes;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Schedules a background reload of a stale entry unless one is already running. Must be
+     * called while holding the lock on this.
+     */
+    private <T> void refresh(final String structure, final String key, final Loader<T> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            final long loadGeneration = generation.get();
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        put(structure, key, loader.load(), getTtl(structure), loadGeneration);
+                    } catch (BridgeError | RuntimeException e) {
+                        logger.debug("Unable to refresh the cached Infoblox result for {}.", structure, e);
+                    } finally {
+                        synchronized (InfobloxResultCache.this) {
+                            refreshing.remove(key);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The refresh queue is full, a later request will try again
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * Whether the result can be cached. A page of results with a page token cannot, as the token
+     * continues a WAPI paging session, which expires and is used up by whoever continues it first.
+     */
+    private static boolean isCacheable(Object value) {
+        return !(value instanceof RecordList) || ((RecordList)value).getMetadata() == null
+            || ((RecordList)value).getMetadata().get("nextPageToken") == null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T)value;
+    }
+
+    /**
+     * Copies a bridge result along with the maps and lists it holds. Strings, numbers and booleans
+     * are immutable and are shared.
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<Object,Object> copy = value instanceof JSONObject 
+                ? new JSONObject() : new LinkedHashMap<Object,Object>();
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof List) {
+            List<Object> copy = value instanceof JSONArray 
+                ? new JSONArray() : new ArrayList<Object>(((List<?>)value).size());
+            for (Object element : (List<?>)value) {
+                copy.add(copy(element));
+            }
+            return copy;
+        } else if (value instanceof Record) {
+            return copyRecord((Record)value);
+        } else if (value instanceof RecordList) {
+            RecordList recordList = (RecordList)value;
+            List<Record> records = new ArrayList<>(recordList.getRecords().size());
+            for (Record record : recordList.getRecords()) {
+                records.add(copyRecord(record));
+            }
+            return new RecordList(
+                recordList.getFields() == null ? null : new ArrayList<>(recordList.getFields()), 
+                records, 
+                recordList.getMetadata() == null ? null : new LinkedHashMap<>(recordList.getMetadata()));
+        } else if (value instanceof Count) {
+            return new Count(((Count)value).getValue());
+        } else {
+            return value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Record copyRecord(Record record) {
+        return new Record((Map<String,Object>)copy(record.getRecord()));
+    }
+
+    /**
+     * Roughly estimates the heap used by a bridge result. This does not need to be exact, it only
+     * needs to be proportional so the cache bound is meaningful.
+     */
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + ((String)value).length() * 2;
+        } else if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection<?>)value) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        } else if (value instanceof Record) {
+            return 16 + estimateSize(((Record)value).getRecord());
+        } else if (value instanceof RecordList) {
+            RecordList recordList = (RecordList)value;
+            return 32 + estimateSize(recordList.getFields()) + estimateSize(recordList.getRecords())
+                + estimateSize(recordList.getMetadata());
+        } else if (value instanceof Count) {
+            return 32;
+        } else {
+            return 24;
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER CLASSES
+     *-------------------------------------------------------------------------------------------*/
+
+    private static class Entry {
+        private final String structure;
+        private final Object value;
+        private final long bytes;
+        private final long expiresAt;
+
+        Entry(String structure, Object value, long bytes, long expiresAt) {
+            this.structure = structure;
+            this.value = value;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
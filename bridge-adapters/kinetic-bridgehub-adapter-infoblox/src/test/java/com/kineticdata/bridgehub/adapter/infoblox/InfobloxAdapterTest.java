@@ -1,14 +1,463 @@
 package com.kineticdata.bridgehub.adapter.infoblox;
 
-import com.kineticdata.bridgehub.adapter.BridgeAdapter;
 import com.kineticdata.bridgehub.adapter.BridgeError;
 import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
- *
+ * Tests bridge calls made through the adapter against a {@link WapiStub}.
  */
 public class InfobloxAdapterTest {
+
+    private WapiStub wapi;
+    private InfobloxAdapter adapter;
+
+    @After
+    public void tearDown() {
+        if (adapter != null) {
+            adapter.destroy();
+        }
+        if (wapi != null) {
+            wapi.close();
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PAGING
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testSearchWithoutPageSizeReturnsEveryResult() throws Exception {
+        start(5);
+        RecordList records = adapter.search(request("", page(0, 0)));
+
+        assertEquals(networks(0, 1, 2, 3, 4), values(records));
+        assertEquals("5", records.getMetadata().get("size"));
+        assertNull(records.getMetadata().get("nextPageToken"));
+        assertFalse(wapi.getRequests().get(0).contains("_paging"));
+    }
+
+    @Test
+    public void testSearchSkipsToOffsetAcrossWapiPages() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.5");
+        RecordList records = adapter.search(request("", page(2, 3)));
+
+        assertEquals(networks(3, 4), values(records));
+        assertEquals("2", records.getMetadata().get("pageNumber"));
+        assertEquals("3", records.getMetadata().get("offset"));
+        assertNull(records.getMetadata().get("nextPageToken"));
+        // The first page, then the pages holding the rest of the skipped results and the page
+        assertEquals(3, wapi.getRequests().size());
+        assertTrue(wapi.getRequests().get(0).contains("_paging=1&_return_as_object=1&_max_results=2"));
+    }
+
+    @Test
+    public void testPageTokenContinuesWhereTheSearchStopped() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.5");
+        RecordList first = adapter.search(request("", page(2, 0)));
+        String token = first.getMetadata().get("nextPageToken");
+        assertEquals(networks(0, 1), values(first));
+        assertNotNull(token);
+
+        Map<String,String> metadata = page(2, 2);
+        metadata.put("pageToken", token);
+        RecordList second = adapter.search(request("", metadata));
+        assertEquals(networks(2, 3), values(second));
+        assertTrue(wapi.getRequests().get(1).contains("_page_id="));
+        assertEquals(2, wapi.getRequests().size());
+
+        metadata = page(2, 4);
+        metadata.put("pageToken", second.getMetadata().get("nextPageToken"));
+        RecordList last = adapter.search(request("", metadata));
+        assertEquals(networks(4), values(last));
+        assertNull(last.getMetadata().get("nextPageToken"));
+    }
+
+    @Test
+    public void testNoPageTokenWhenAPageIsCutShort() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.5");
+        // The page ends part way through the second WAPI page, so continuing from the next WAPI
+        // page would skip a result
+        RecordList records = adapter.search(request("", page(2, 1)));
+
+        assertEquals(networks(1, 2), values(records));
+        assertNull(records.getMetadata().get("nextPageToken"));
+    }
+
+    @Test
+    public void testSearchPagesOnTheClientBeforeWapi15() throws Exception {
+        start(5);
+        RecordList records = adapter.search(request("", page(2, 1)));
+
+        assertEquals(networks(1, 2), values(records));
+        assertEquals("1", records.getMetadata().get("pageNumber"));
+        assertNull(records.getMetadata().get("nextPageToken"));
+        assertEquals(Arrays.asList("GET /wapi/v1.0/network?_return_fields=network"), wapi.getRequests());
+    }
+
+    @Test
+    public void testSearchWithFilter() throws Exception {
+        start(5);
+        RecordList records = adapter.search(request("comment=net3", page(10, 0)));
+
+        assertEquals(networks(3), values(records));
+    }
+
+    @Test
+    public void testRetrieveFailsOnMultipleMatches() throws Exception {
+        start(5);
+        assertEquals("10.0.2.0/24", adapter.retrieve(request("comment=net2", page(0, 0)))
+            .getRecord().get("network"));
+        try {
+            adapter.retrieve(request("", page(0, 0)));
+            fail("Expected the query to be ambiguous");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().contains("Multiple results"));
+        }
+    }
+
+    @Test
+    public void testPagesWithATokenAreNotCached() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.5",
+            InfobloxAdapter.Properties.PROPERTY_CACHE_TTL, "60");
+        String first = adapter.search(request("", page(2, 0))).getMetadata().get("nextPageToken");
+        String second = adapter.search(request("", page(2, 0))).getMetadata().get("nextPageToken");
+
+        // Each search starts its own paging session rather than sharing one from the cache
+        assertEquals(2, wapi.getRequests().size());
+        assertNotEquals(first, second);
+        adapter.search(request("", page(0, 0)));
+        adapter.search(request("", page(0, 0)));
+        assertEquals(3, wapi.getRequests().size());
+    }
+
+    @Test
+    public void testRejectedSessionIsRenewedAndTheRequestRetried() throws Exception {
+        start(5);
+        adapter.search(request("", page(0, 0)));
+        wapi.expireSessions();
+
+        assertEquals(networks(0, 1, 2, 3, 4), values(adapter.search(request("", page(0, 0)))));
+        assertEquals(2, wapi.getLogins());
+        // The second search was rejected with the expired session and sent again with a new one
+        List<String> authorizations = wapi.getAuthorizations();
+        assertEquals(3, authorizations.size());
+        assertEquals(authorizations.get(0), authorizations.get(1));
+        assertNotEquals(authorizations.get(1), authorizations.get(2));
+    }
+
+    @Test
+    public void testSearchAfterDestroyFails() throws Exception {
+        start(5);
+        adapter.destroy();
+        try {
+            adapter.search(request("", page(0, 0)));
+            fail("Expected the destroyed adapter to refuse the search");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().contains("initialized"));
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * COUNTING
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testCountIsUnpagedByDefault() throws Exception {
+        start(5);
+        assertEquals(Integer.valueOf(5), adapter.count(request("", page(0, 0))).getValue());
+
+        assertEquals(1, wapi.getRequests().size());
+        assertTrue(wapi.getRequests().get(0).startsWith("GET /wapi/v1.0/network?_return_fields="));
+        assertFalse(wapi.getRequests().get(0).contains("_paging"));
+    }
+
+    @Test
+    public void testCountPagesFromWapi15() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "2.7",
+            InfobloxAdapter.Properties.PROPERTY_COUNT_PAGE_SIZE, "2");
+        assertEquals(Integer.valueOf(5), adapter.count(request("", page(0, 0))).getValue());
+
+        assertEquals(3, wapi.getRequests().size());
+        assertTrue(wapi.getRequests().get(0).contains("/wapi/v2.7/network?_return_fields=&_paging=1"));
+        assertTrue(wapi.getRequests().get(2).contains("_page_id="));
+    }
+
+    @Test
+    public void testCountIsUnpagedBeforeWapi15() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.4",
+            InfobloxAdapter.Properties.PROPERTY_COUNT_PAGE_SIZE, "2");
+        assertEquals(Integer.valueOf(5), adapter.count(request("", page(0, 0))).getValue());
+
+        assertEquals(1, wapi.getRequests().size());
+        assertFalse(wapi.getRequests().get(0).contains("_paging"));
+    }
+
+    @Test
+    public void testSupportsPaging() {
+        assertFalse(InfobloxAdapter.supportsPaging("1"));
+        assertFalse(InfobloxAdapter.supportsPaging("1.0"));
+        assertFalse(InfobloxAdapter.supportsPaging("1.4.2"));
+        assertTrue(InfobloxAdapter.supportsPaging("1.5"));
+        assertTrue(InfobloxAdapter.supportsPaging("1.10"));
+        assertTrue(InfobloxAdapter.supportsPaging("2"));
+        assertTrue(InfobloxAdapter.supportsPaging("2.7"));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * MIRROR
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testMirrorNeedsWapi15() throws Exception {
+        try {
+            start(5, InfobloxAdapter.Properties.PROPERTY_MIRROR_STRUCTURES, "network");
+            fail("Expected the mirror to be rejected on WAPI 1.0");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().contains(InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION));
+        }
+        assertTrue(wapi.getRequests().isEmpty());
+    }
+
+    @Test
+    public void testMirrorLoadsAPageAtATime() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.5",
+            InfobloxAdapter.Properties.PROPERTY_MIRROR_STRUCTURES, "network",
+            InfobloxAdapter.Properties.PROPERTY_MIRROR_PAGE_SIZE, "2");
+        for (int i = 0; i < 100 && wapi.getRequests().size() < 3; i++) {
+            Thread.sleep(50);
+        }
+
+        List<String> requests = wapi.getRequests();
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(0).contains("/wapi/v1.5/network?") 
+            && requests.get(0).contains("&_paging=1&_return_as_object=1&_max_results=2"));
+        assertTrue(requests.get(2).contains("_page_id="));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * COALESCING
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testConcurrentRetrievesShareOneRequest() throws Exception {
+        start(5);
+        wapi.setDelay(300);
+        List<Object> results = concurrently(3, new Callable<Object>() {
+            @Override
+            public Object call() throws BridgeError {
+                return adapter.retrieve(request("comment=net1", page(0, 0))).getRecord().get("network");
+            }
+        });
+
+        assertEquals(Arrays.<Object>asList("10.0.1.0/24", "10.0.1.0/24", "10.0.1.0/24"), results);
+        assertEquals(1, wapi.getRequests().size());
+    }
+
+    @Test
+    public void testUnpagedSearchesAreNotCoalesced() throws Exception {
+        start(5);
+        wapi.setDelay(300);
+        List<Object> results = concurrently(3, new Callable<Object>() {
+            @Override
+            public Object call() throws BridgeError {
+                return values(adapter.search(request("", page(0, 0))));
+            }
+        });
+
+        // Each unpaged search streams its own response rather than buffering a shared one
+        assertEquals(networks(0, 1, 2, 3, 4), results.get(2));
+        assertEquals(3, wapi.getRequests().size());
+    }
+
+    @Test
+    public void testPagedSearchesDoNotShareAPagingSession() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_WAPI_VERSION, "1.5");
+        wapi.setDelay(300);
+        List<Object> tokens = concurrently(3, new Callable<Object>() {
+            @Override
+            public Object call() throws BridgeError {
+                return adapter.search(request("", page(2, 0))).getMetadata().get("nextPageToken");
+            }
+        });
+
+        // Each search continues its own session, so no two are handed the same page token
+        assertEquals(3, new HashSet<>(tokens).size());
+        assertEquals(3, wapi.getRequests().size());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * METRICS
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testResponseBytesAreCountedBeforeDecompression() throws Exception {
+        start(50);
+        assertEquals(50, adapter.search(request("", page(0, 0))).getRecords().size());
+
+        long sent = wapi.getBytesSent();
+        assertEquals(sent, responseBytes("search"));
+        // The JSON of 50 networks is well over twice the size of its gzip encoding
+        assertTrue(sent * 2 < json(50).length());
+    }
+
+    @Test
+    public void testCountsAreRecordedAsTheirRecords() throws Exception {
+        start(5);
+        assertEquals(Integer.valueOf(5), adapter.count(request("", page(0, 0))).getValue());
+
+        assertEquals(5, attribute("count", "Records"));
+        assertEquals(0, attribute("count", "Errors"));
+    }
+
+    @Test
+    public void testResponseBytesWithoutCompression() throws Exception {
+        start(50, InfobloxAdapter.Properties.PROPERTY_COMPRESS_RESPONSES, "false");
+        adapter.search(request("", page(0, 0)));
+
+        assertEquals(wapi.getBytesSent(), responseBytes("search"));
+        assertTrue(wapi.getBytesSent() > json(50).length() / 2);
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * BATCHING
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testWindowBatchesRetrievesButNotWholeSearches() throws Exception {
+        start(5, InfobloxAdapter.Properties.PROPERTY_BATCH_WINDOW, "200");
+        final AtomicInteger next = new AtomicInteger();
+        concurrently(2, new Callable<Object>() {
+            @Override
+            public Object call() throws BridgeError {
+                return adapter.retrieve(request("comment=net" + next.getAndIncrement(), page(0, 0))).getRecord();
+            }
+        });
+        assertEquals(Arrays.asList("POST /wapi/v1.0/request"), wapi.getRequests());
+
+        List<Object> results = concurrently(2, new Callable<Object>() {
+            @Override
+            public Object call() throws BridgeError {
+                return values(adapter.search(request("comment=net" + next.getAndIncrement(), page(0, 0))));
+            }
+        });
+        // Whole result sets are streamed from their own requests rather than buffered
+        assertEquals(3, wapi.getRequests().size());
+        assertTrue(wapi.getRequests().get(1).startsWith("GET ") && wapi.getRequests().get(2).startsWith("GET "));
+        assertEquals(1, ((List<?>)results.get(0)).size());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Starts a stub serving the networks and an adapter using it, with any extra properties. */
+    private void start(int networks, String... properties) throws Exception {
+        wapi = new WapiStub(networks);
+        Map<String,String> values = new HashMap<>();
+        values.put(InfobloxAdapter.Properties.PROPERTY_HOST, wapi.getUrl());
+        values.put(InfobloxAdapter.Properties.PROPERTY_USERNAME, "admin");
+        values.put(InfobloxAdapter.Properties.PROPERTY_PASSWORD, "infoblox");
+        for (int i = 0; i < properties.length; i += 2) {
+            values.put(properties[i], properties[i + 1]);
+        }
+        adapter = new InfobloxAdapter();
+        adapter.setProperties(values);
+        adapter.initialize();
+    }
+
+    /** Runs the task on several threads at once, returning the result of each. */
+    private static List<Object> concurrently(int threads, Callable<Object> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = executor.invokeAll(Collections.nCopies(threads, task));
+            List<Object> results = new ArrayList<>();
+            for (Future<Object> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** The response bytes the adapter's MBean reports for the operation on networks. */
+    private static long responseBytes(String operation) throws Exception {
+        return attribute(operation, "ResponseBytes");
+    }
+
+    /** The value of a counter the adapter's MBean reports for the operation on networks. */
+    private static long attribute(String operation, String attribute) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        long value = 0;
+        for (ObjectName name : server.queryNames(new ObjectName(InfobloxMetrics.DOMAIN
+            + ":type=Operation,operation=" + operation + ",structure=\"network\",*"), null))
+        {
+            value += (Long)server.getAttribute(name, attribute);
+        }
+        return value;
+    }
+
+    /** The uncompressed JSON of the first networks served by the stub, with two fields each. */
+    private static String json(int count) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"_ref\":\"network/").append(i).append(":10.0.").append(i)
+                .append(".0/24/default\",\"network\":\"10.0.").append(i).append(".0/24\"}");
+        }
+        return json.append("]").toString();
+    }
+
+    static BridgeRequest request(String query, Map<String,String> metadata) {
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure("network");
+        request.setQuery(query);
+        request.setFields(Arrays.asList("_ref", "network"));
+        request.setParameters(new HashMap<String,String>());
+        request.setMetadata(metadata);
+        return request;
+    }
+
+    static Map<String,String> page(int pageSize, int offset) {
+        Map<String,String> metadata = new LinkedHashMap<>();
+        metadata.put("pageSize", String.valueOf(pageSize));
+        metadata.put("offset", String.valueOf(offset));
+        return metadata;
+    }
+
+    static List<String> networks(int... indexes) {
+        List<String> networks = new ArrayList<>();
+        for (int index : indexes) {
+            networks.add("10.0." + index + ".0/24");
+        }
+        return networks;
+    }
+
+    static List<String> values(RecordList records) {
+        List<String> values = new ArrayList<>();
+        for (Record record : records.getRecords()) {
+            values.add(String.valueOf(record.getRecord().get("network")));
+        }
+        return values;
+    }
 }
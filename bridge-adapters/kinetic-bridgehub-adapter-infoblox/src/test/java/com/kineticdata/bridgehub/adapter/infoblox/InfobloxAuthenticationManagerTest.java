@@ -0,0 +1,147 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the authentication manager logs in, shares, renews and ends sessions against a
+ * {@link WapiStub}.
+ */
+public class InfobloxAuthenticationManagerTest {
+
+    private static final String BASIC = "Basic "
+        + new String(Base64.encodeBase64("admin:infoblox".getBytes(Charset.forName("UTF-8"))));
+
+    private final CloseableHttpClient httpClient = HttpClients.custom().disableCookieManagement().build();
+    private WapiStub wapi;
+    private InfobloxAuthenticationManager authentication;
+
+    @Before
+    public void setUp() throws IOException {
+        wapi = new WapiStub(1);
+        authentication = new InfobloxAuthenticationManager(httpClient, wapi.getUrl() + "/wapi/v2.7",
+            "admin", "infoblox");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        wapi.close();
+        httpClient.close();
+    }
+
+    @Test
+    public void testRequestsShareOneSession() throws Exception {
+        InfobloxAuthenticationManager.Session first = get();
+        InfobloxAuthenticationManager.Session second = get();
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(1, wapi.getLogins());
+        assertTrue(wapi.getAuthorizations().get(0).startsWith("ibapauth="));
+        assertEquals(wapi.getAuthorizations().get(0), wapi.getAuthorizations().get(1));
+    }
+
+    @Test
+    public void testRejectedSessionIsReplacedOnce() throws Exception {
+        InfobloxAuthenticationManager.Session rejected = get();
+        wapi.expireSessions();
+        assertEquals(401, status(wapi.getAuthorizations().get(0)));
+
+        // Several threads can be rejected with the same session, only the first forces a login
+        authentication.invalidate(rejected);
+        InfobloxAuthenticationManager.Session renewed = get();
+        authentication.invalidate(rejected);
+
+        assertNotSame(rejected, renewed);
+        assertSame(renewed, get());
+        assertEquals(2, wapi.getLogins());
+    }
+
+    @Test
+    public void testExpiringSessionIsRenewedThenLoggedOut() throws Exception {
+        // The session is renewed a tenth of its one second timeout before the grid would expire it
+        wapi.setSessionTimeout(1);
+        InfobloxAuthenticationManager.Session expiring = get();
+        Thread.sleep(1000);
+        InfobloxAuthenticationManager.Session renewed = get();
+
+        assertNotSame(expiring, renewed);
+        assertEquals(2, wapi.getLogins());
+        String expiringCookie = wapi.getAuthorizations().get(0);
+        assertNotEquals(expiringCookie, wapi.getAuthorizations().get(1));
+        assertEquals(Arrays.asList(expiringCookie), wapi.getLogouts());
+        assertEquals(401, status(expiringCookie));
+    }
+
+    @Test
+    public void testBasicCredentialsAreSentWhenNoSessionIsIssued() throws Exception {
+        wapi.setSessionsIssued(false);
+
+        assertNull(get());
+        assertNull(get());
+        // The grid is only asked for a session once
+        assertEquals(1, wapi.getLogins());
+        assertEquals(Arrays.asList(BASIC, BASIC), wapi.getAuthorizations());
+        authentication.logout();
+        assertEquals(Collections.emptyList(), wapi.getLogouts());
+    }
+
+    @Test
+    public void testLogoutEndsTheSession() throws Exception {
+        get();
+        authentication.logout();
+        get();
+
+        assertEquals(Arrays.asList(wapi.getAuthorizations().get(0)), wapi.getLogouts());
+        assertEquals(2, wapi.getLogins());
+    }
+
+    @Test
+    public void testParseSessionCookie() {
+        String cookie = InfobloxAuthenticationManager.parseSessionCookie(
+            "ibapauth=\"client=API,timeout=300,user=admin\"; httponly; Path=/");
+
+        assertEquals("ibapauth=\"client=API,timeout=300,user=admin\"", cookie);
+        assertEquals(300000, InfobloxAuthenticationManager.parseSessionTimeout(cookie));
+        assertEquals(600000, InfobloxAuthenticationManager.parseSessionTimeout("ibapauth=\"user=admin\""));
+        assertNull(InfobloxAuthenticationManager.parseSessionCookie("JSESSIONID=abc; Path=/"));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Sends an authorized GET, failing unless it succeeds, and returns the session it used. */
+    private InfobloxAuthenticationManager.Session get() throws Exception {
+        HttpGet get = new HttpGet(wapi.getUrl() + "/wapi/v2.7/network");
+        InfobloxAuthenticationManager.Session session = authentication.authorize(get);
+        assertEquals(200, execute(get));
+        return session;
+    }
+
+    /** Sends a GET with the session cookie and returns the response status. */
+    private int status(String cookie) throws IOException {
+        HttpGet get = new HttpGet(wapi.getUrl() + "/wapi/v2.7/network");
+        get.setHeader("Cookie", cookie);
+        return execute(get);
+    }
+
+    private int execute(HttpGet get) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the router chooses members, opens and closes their circuits and pins page tokens.
+ */
+public class InfobloxMemberRouterTest {
+
+    private static final long MILLIS = 1000000;
+
+    private final CloseableHttpClient httpClient = HttpClients.createDefault();
+    private InfobloxMemberRouter router;
+
+    @After
+    public void tearDown() throws IOException {
+        if (router != null) {
+            router.shutdown();
+        }
+        httpClient.close();
+    }
+
+    @Test
+    public void testFirstHostIsMasterByDefault() throws BridgeError {
+        router("http://gm,http://member1/");
+
+        assertEquals("http://gm", router.getMaster().getUrl());
+        assertEquals(InfobloxMember.Role.READ, router.getMember("http://member1").getRole());
+    }
+
+    @Test
+    public void testInvalidHosts() {
+        for (String hosts : new String[] {" , ", "http://a|master,http://b|master", "http://a|writer",
+            "http://a|read|-1", "http://a|read"})
+        {
+            try {
+                router(hosts);
+                fail("Expected '" + hosts + "' to be rejected");
+            } catch (BridgeError e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testReadsGoToTheLowestScore() throws BridgeError {
+        router("http://gm|master|1,http://member1|read|2");
+        InfobloxMember master = router.getMaster();
+        InfobloxMember member = router.getMember("http://member1");
+        router.recordSuccess(master, 10 * MILLIS);
+        router.recordSuccess(member, 15 * MILLIS);
+
+        // Twice the weight outweighs half again the latency
+        assertSame(member, router.selectReader(none()));
+        member.begin();
+        member.begin();
+        assertSame(master, router.selectReader(none()));
+        assertSame(member, router.selectReader(Collections.singleton(master)));
+    }
+
+    @Test
+    public void testEquallyScoredMembersShareReads() throws BridgeError {
+        router("http://gm,http://member1,http://member2");
+
+        Set<InfobloxMember> selected = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            selected.add(router.selectReader(none()));
+        }
+        assertEquals(new HashSet<>(router.getMembers()), selected);
+    }
+
+    @Test
+    public void testZeroWeightMembersOnlyReadWhenNoOtherCan() throws BridgeError {
+        router("http://gm|master|1,http://slow|read|0,http://fast|read|0");
+        InfobloxMember master = router.getMaster();
+        InfobloxMember slow = router.getMember("http://slow");
+        InfobloxMember fast = router.getMember("http://fast");
+        router.recordSuccess(master, 100 * MILLIS);
+        router.recordSuccess(slow, 5 * MILLIS);
+        router.recordSuccess(fast, 1 * MILLIS);
+
+        assertSame(master, router.selectReader(none()));
+        // Zero weight members are still chosen between by their latency
+        assertSame(fast, router.selectReader(Collections.singleton(master)));
+        assertSame(slow, router.selectReader(new HashSet<>(Arrays.asList(master, fast))));
+        assertFalse(Double.isInfinite(fast.getScore()));
+    }
+
+    @Test
+    public void testOpenCircuitsAreAvoided() throws BridgeError {
+        router("http://gm,http://member1", 2);
+        InfobloxMember master = router.getMaster();
+        InfobloxMember member = router.getMember("http://member1");
+
+        router.recordFailure(member);
+        assertTrue(member.isAvailable());
+        router.recordFailure(member);
+        assertFalse(member.isAvailable());
+        for (int i = 0; i < 20; i++) {
+            assertSame(master, router.selectReader(none()));
+        }
+
+        router.recordSuccess(member, MILLIS);
+        assertTrue(member.isAvailable());
+        // The latency from before the failure is forgotten
+        assertEquals(-1, member.getLatency(), 0);
+    }
+
+    @Test
+    public void testUnavailableMembersAreTriedInTheOrderTheyFailed() throws Exception {
+        router("http://gm,http://member1", 1);
+        InfobloxMember master = router.getMaster();
+        InfobloxMember member = router.getMember("http://member1");
+
+        router.recordFailure(member);
+        Thread.sleep(5);
+        router.recordFailure(master);
+        assertSame(member, router.selectReader(none()));
+        assertSame(master, router.selectReader(Collections.singleton(member)));
+        assertNull(router.selectReader(new HashSet<>(router.getMembers())));
+    }
+
+    @Test
+    public void testPageTokensPinTheMember() throws BridgeError {
+        router("http://gm,http://member1");
+        InfobloxMember member = router.getMember("http://member1");
+
+        String token = router.encodePageToken(member, "789c.5590");
+        assertEquals("1.789c.5590", token);
+        InfobloxMemberRouter.Affinity affinity = new InfobloxMemberRouter.Affinity();
+        assertEquals("789c.5590", router.decodePageToken(token, affinity));
+        assertSame(member, affinity.getMember());
+
+        // Tokens that do not name a configured member are passed through unchanged
+        affinity = new InfobloxMemberRouter.Affinity();
+        assertEquals("7.abc", router.decodePageToken("7.abc", affinity));
+        assertNull(affinity.getMember());
+    }
+
+    @Test
+    public void testSingleMemberTokensAreUnchanged() throws BridgeError {
+        router("http://gm");
+
+        assertEquals("1.abc", router.encodePageToken(router.getMaster(), "1.abc"));
+        assertEquals("1.abc", router.decodePageToken("1.abc", new InfobloxMemberRouter.Affinity()));
+    }
+
+    private void router(String hosts) throws BridgeError {
+        router(hosts, 3);
+    }
+
+    private void router(String hosts, int failureThreshold) throws BridgeError {
+        router = new InfobloxMemberRouter(httpClient, hosts, "/wapi/v1.0", "admin", "infoblox",
+            failureThreshold, 60000, new InfobloxRateLimiter.Limits(0, 0, 100, 1000));
+    }
+
+    private static Set<InfobloxMember> none() {
+        return Collections.emptySet();
+    }
+}
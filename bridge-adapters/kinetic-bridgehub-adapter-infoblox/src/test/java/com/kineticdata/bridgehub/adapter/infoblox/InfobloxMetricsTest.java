@@ -0,0 +1,78 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the metrics group calls into statistics and publish them.
+ */
+public class InfobloxMetricsTest {
+
+    private final InfobloxMetrics metrics = new InfobloxMetrics();
+
+    @After
+    public void tearDown() {
+        metrics.unregister();
+    }
+
+    @Test
+    public void testCallsAreGroupedByOperationAndStructure() {
+        call("search", "network", 2);
+        call("search", "network", 3);
+        call("count", "network", 7);
+        call("search", "record:host", -1);
+
+        Map<String,InfobloxMetrics.OperationMXBean> operations = operations();
+        assertEquals(3, operations.size());
+        assertEquals(2, operations.get("search network").getCalls());
+        assertEquals(5, operations.get("search network").getRecords());
+        assertEquals(7, operations.get("count network").getRecords());
+        assertEquals(1, operations.get("search record:host").getErrors());
+    }
+
+    @Test
+    public void testStructuresBeyondTheLimitShareTheirStatistics() throws Exception {
+        metrics.register("metrics-test");
+        for (int i = 0; i < InfobloxMetrics.MAX_STRUCTURES + 10; i++) {
+            call("search", "structure" + i, 1);
+        }
+        call("count", "structure0", 1);
+        call("count", "structure" + InfobloxMetrics.MAX_STRUCTURES, 1);
+
+        Map<String,InfobloxMetrics.OperationMXBean> operations = operations();
+        assertEquals(InfobloxMetrics.MAX_STRUCTURES + 3, operations.size());
+        assertEquals(1, operations.get("count structure0").getCalls());
+        assertEquals(10, operations.get("search " + InfobloxMetrics.OTHER_STRUCTURES).getCalls());
+        assertEquals(1, operations.get("count " + InfobloxMetrics.OTHER_STRUCTURES).getCalls());
+        // One MBean for the adapter and one for each operation
+        assertEquals(InfobloxMetrics.MAX_STRUCTURES + 4, ManagementFactory.getPlatformMBeanServer()
+            .queryNames(new ObjectName(InfobloxMetrics.DOMAIN + ":name=\"metrics-test\",*"), null).size());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Records a call that returned the records, or failed if the records are negative. */
+    private void call(String operation, String structure, int records) {
+        InfobloxMetrics.Call call = metrics.begin(operation, structure);
+        if (records >= 0) {
+            call.setRecords(records);
+        }
+        metrics.end(call);
+    }
+
+    /** The statistics of each operation, by the operation and structure. */
+    private Map<String,InfobloxMetrics.OperationMXBean> operations() {
+        Map<String,InfobloxMetrics.OperationMXBean> operations = new HashMap<>();
+        for (InfobloxMetrics.OperationMXBean operation : metrics.getOperations()) {
+            operations.put(operation.getOperation() + " " + operation.getStructure(), operation);
+        }
+        return operations;
+    }
+}
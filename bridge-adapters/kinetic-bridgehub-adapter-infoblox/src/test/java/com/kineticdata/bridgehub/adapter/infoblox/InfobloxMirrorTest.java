@@ -0,0 +1,259 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the mirror's prefix trie, address parsing and query lookups.
+ */
+public class InfobloxMirrorTest {
+
+    private final Map<String,List<JSONObject>> objects = new HashMap<>();
+    private final List<String> fetches = Collections.synchronizedList(new ArrayList<String>());
+    private InfobloxMirror mirror;
+
+    @After
+    public void tearDown() {
+        if (mirror != null) {
+            mirror.shutdown();
+        }
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PREFIX TRIE
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testTrieFindsContainingNetworksFromLeastToMostSpecific() {
+        InfobloxMirror.PrefixTrie trie = new InfobloxMirror.PrefixTrie();
+        JSONObject all = network("0.0.0.0/0", "default");
+        JSONObject ten = network("10.0.0.0/8", "default");
+        JSONObject tenOne = network("10.1.0.0/16", "default");
+        JSONObject tenOneTwo = network("10.1.2.0/24", "default");
+        // Added out of order to show the result order comes from the prefix length
+        for (JSONObject network : Arrays.asList(tenOneTwo, all, tenOne, ten)) {
+            String[] cidr = ((String)network.get("network")).split("/");
+            trie.add(InfobloxMirror.parseAddress(cidr[0]), Integer.parseInt(cidr[1]), network);
+        }
+
+        assertEquals(Arrays.asList(all, ten, tenOne, tenOneTwo),
+            trie.findContaining(InfobloxMirror.parseAddress("10.1.2.3")));
+        assertEquals(Arrays.asList(all, ten), trie.findContaining(InfobloxMirror.parseAddress("10.2.0.1")));
+        assertEquals(Arrays.asList(all), trie.findContaining(InfobloxMirror.parseAddress("192.168.0.1")));
+    }
+
+    @Test
+    public void testTrieKeepsIpv6Separate() {
+        InfobloxMirror.PrefixTrie trie = new InfobloxMirror.PrefixTrie();
+        JSONObject ipv4 = network("0.0.0.0/0", "default");
+        JSONObject ipv6 = network("2001:db8::/32", "default");
+        trie.add(InfobloxMirror.parseAddress("0.0.0.0"), 0, ipv4);
+        trie.add(InfobloxMirror.parseAddress("2001:db8::"), 32, ipv6);
+
+        assertEquals(Arrays.asList(ipv6), trie.findContaining(InfobloxMirror.parseAddress("2001:db8::1")));
+        assertTrue(trie.findContaining(InfobloxMirror.parseAddress("2001:db9::1")).isEmpty());
+        assertEquals(Arrays.asList(ipv4), trie.findContaining(InfobloxMirror.parseAddress("10.0.0.1")));
+    }
+
+    @Test
+    public void testTrieMatchesHostPrefixes() {
+        InfobloxMirror.PrefixTrie trie = new InfobloxMirror.PrefixTrie();
+        JSONObject host = network("10.0.0.1/32", "default");
+        trie.add(InfobloxMirror.parseAddress("10.0.0.1"), 32, host);
+
+        assertEquals(Arrays.asList(host), trie.findContaining(InfobloxMirror.parseAddress("10.0.0.1")));
+        assertTrue(trie.findContaining(InfobloxMirror.parseAddress("10.0.0.2")).isEmpty());
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * ADDRESSES
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testCanonicalAddresses() {
+        assertEquals("10.0.0.1", InfobloxMirror.canonicalAddress("010.0.0.1"));
+        assertEquals("2001:db8:0:0:0:0:0:1", InfobloxMirror.canonicalAddress("2001:DB8::1"));
+        assertNull(InfobloxMirror.canonicalAddress("256.0.0.1"));
+        assertNull(InfobloxMirror.canonicalAddress("10.0.0"));
+        assertNull(InfobloxMirror.canonicalAddress("10.0.0.-1"));
+        // Host names are never resolved
+        assertNull(InfobloxMirror.canonicalAddress("localhost"));
+        assertNull(InfobloxMirror.canonicalAddress(""));
+    }
+
+    @Test
+    public void testCanonicalNetworks() {
+        assertEquals("10.1.0.0/16", InfobloxMirror.canonicalNetwork("10.01.0.0/16"));
+        assertEquals("2001:db8:0:0:0:0:0:0/32", InfobloxMirror.canonicalNetwork("2001:db8::/32"));
+        assertNull(InfobloxMirror.canonicalNetwork("10.0.0.0/33"));
+        assertNull(InfobloxMirror.canonicalNetwork("10.0.0.0/x"));
+        assertNull(InfobloxMirror.canonicalNetwork("10.0.0.0"));
+        assertNull(InfobloxMirror.canonicalNetwork(null));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * LOOKUPS
+     *-------------------------------------------------------------------------------------------*/
+
+    @Test
+    public void testUnsupportedStructuresAreRejected() {
+        try {
+            new InfobloxMirror(source(), Arrays.asList("fixedaddress"), 60000);
+            fail("Expected fixedaddress to be rejected");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().contains("fixedaddress"));
+        }
+        try {
+            new InfobloxMirror(source(), Arrays.asList("ipv4address"), 60000);
+            fail("Expected ipv4address to require network");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().contains("'network'"));
+        }
+    }
+
+    @Test
+    public void testContainsAddressAndNetworkLookups() throws Exception {
+        JSONObject wide = network("10.0.0.0/8", "default");
+        JSONObject narrow = network("10.1.0.0/16", "default");
+        JSONObject other = network("10.1.0.0/16", "lab");
+        objects.put("network", Arrays.asList(wide, narrow, other));
+        start("network");
+
+        assertEquals(Arrays.asList(wide, narrow, other),
+            mirror.find("network", "contains_address=10.1.2.3", fields("network")));
+        assertEquals(Arrays.asList(wide, narrow),
+            mirror.find("network", "contains_address=10.1.2.3&network_view=default", fields("network")));
+        assertEquals(Arrays.asList(narrow, other), mirror.find("network", "network=10.1.000.0/16", fields()));
+        assertTrue(mirror.find("network", "network=192.168.0.0/24", fields()).isEmpty());
+        assertEquals(3, mirror.find("network", "", fields("comment")).size());
+        assertSame(narrow, mirror.findByRef("network/10.1.0.0/16/default"));
+        assertEquals(5, mirror.getHits());
+        assertEquals(0, mirror.getFallThroughs());
+    }
+
+    @Test
+    public void testQueriesTheMirrorCannotAnswerFallThrough() throws Exception {
+        objects.put("network", Arrays.asList(network("10.0.0.0/8", "default")));
+        start("network");
+
+        // Modifiers, unknown conditions, repeated conditions, invalid values and fields that are
+        // not loaded all have to go to WAPI
+        assertNull(mirror.find("network", "network~=10.0", fields()));
+        assertNull(mirror.find("network", "disable=false", fields()));
+        assertNull(mirror.find("network", "network_view=a&network_view=b", fields()));
+        assertNull(mirror.find("network", "contains_address=not-an-address", fields()));
+        assertNull(mirror.find("network", "", fields("options")));
+        assertEquals(5, mirror.getFallThroughs());
+        // Structures that are not mirrored do not count as fall throughs
+        assertNull(mirror.find("record:host", "name=a.example.com", fields()));
+        assertEquals(5, mirror.getFallThroughs());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHostLookupsByNameAndAddress() throws Exception {
+        JSONObject host = new JSONObject();
+        host.put("_ref", "record:host/1");
+        host.put("name", "Web.Example.com");
+        host.put("view", "default");
+        JSONArray addresses = new JSONArray();
+        for (String address : new String[] {"10.0.0.1", "10.0.0.2"}) {
+            JSONObject ipv4addr = new JSONObject();
+            ipv4addr.put("ipv4addr", address);
+            addresses.add(ipv4addr);
+        }
+        host.put("ipv4addrs", addresses);
+        objects.put("record:host", Arrays.asList(host));
+        start("record:host");
+
+        assertEquals(Arrays.asList(host), mirror.find("record:host", "name=web.example.COM", fields("name")));
+        assertEquals(Arrays.asList(host), mirror.find("record:host", "ipv4addr=10.0.0.2", fields("ipv4addrs")));
+        assertEquals(Arrays.asList(host),
+            mirror.find("record:host", "ipv4addr=10.0.0.1&name=WEB.example.com&view=default", fields()));
+        assertTrue(mirror.find("record:host", "ipv4addr=10.0.0.1&view=external", fields()).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddressesAreLoadedPerNetworkAndMissesFallThrough() throws Exception {
+        objects.put("network", Arrays.asList(network("10.0.0.0/24", "default"),
+            network("2001:db8::/64", "default")));
+        JSONObject used = new JSONObject();
+        used.put("_ref", "ipv4address/10.0.0.5");
+        used.put("ip_address", "10.0.0.5");
+        used.put("network", "10.0.0.0/24");
+        used.put("network_view", "default");
+        objects.put("ipv4address", Arrays.asList(used));
+        start("ipv4address", "network");
+
+        // Only the IPv4 network's used addresses are loaded
+        assertEquals(Arrays.asList("network?", "ipv4address?network=10.0.0.0/24&network_view=default&status=USED"),
+            fetches);
+        assertEquals(Arrays.asList(used), mirror.find("ipv4address", "ip_address=10.0.0.5", fields("status")));
+        // Unused addresses are not mirrored, so a miss is answered by WAPI
+        assertNull(mirror.find("ipv4address", "ip_address=10.0.0.6", fields()));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Starts a mirror of the structures and waits for them to load. */
+    private void start(String... structures) throws Exception {
+        mirror = new InfobloxMirror(source(), Arrays.asList(structures), 60000);
+        mirror.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mirror.getSizes().size() < structures.length) {
+            assertTrue("The mirror did not load", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /** Serves the objects of each structure, recording the structure and query of each fetch. */
+    private InfobloxMirror.Source source() {
+        return new InfobloxMirror.Source() {
+            @Override
+            public void fetchAll(String structure, String returnFields, String query,
+                InfobloxResponseParser.ResultHandler handler) throws BridgeError
+            {
+                fetches.add(structure + "?" + query);
+                List<JSONObject> results = objects.get(structure);
+                if (results == null) {
+                    return;
+                }
+                for (JSONObject result : results) {
+                    if (query.isEmpty() || query.contains("network=" + result.get("network") + "&")) {
+                        handler.handle(result);
+                    }
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject network(String cidr, String view) {
+        JSONObject network = new JSONObject();
+        network.put("_ref", "network/" + cidr + "/" + view);
+        network.put("network", cidr);
+        network.put("network_view", view);
+        return network;
+    }
+
+    private static Set<String> fields(String... fields) {
+        Set<String> set = new HashSet<>(Arrays.asList(fields));
+        set.add("_ref");
+        return set;
+    }
+}
@@ -0,0 +1,150 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the concurrency limit, token bucket, waiting limit and pauses of the rate limiter.
+ */
+public class InfobloxRateLimiterTest {
+
+    @Test
+    public void testNoLimits() throws BridgeError {
+        InfobloxRateLimiter limiter = limiter(0, 0, 0, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire();
+        }
+        assertTrue(elapsedMillis(start) < 500);
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws BridgeError {
+        InfobloxRateLimiter limiter = limiter(2, 0, 10, 50);
+        limiter.acquire();
+        limiter.acquire();
+        long start = System.nanoTime();
+        try {
+            limiter.acquire();
+            fail("Expected the third request to time out");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().startsWith("Timed out"));
+        }
+        assertTrue(elapsedMillis(start) >= 40);
+
+        limiter.release();
+        limiter.acquire();
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    @Test
+    public void testTooManyWaitingFailsRightAway() throws Exception {
+        final InfobloxRateLimiter limiter = limiter(1, 0, 1, 5000);
+        limiter.acquire();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> waiter = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws BridgeError {
+                    waiting.countDown();
+                    limiter.acquire();
+                    return null;
+                }
+            });
+            waiting.await();
+            while (limiter.getWaiting() == 0) {
+                Thread.sleep(1);
+            }
+
+            long start = System.nanoTime();
+            try {
+                limiter.acquire();
+                fail("Expected the request to be rejected");
+            } catch (BridgeError e) {
+                assertTrue(e.getMessage().contains("is busy"));
+            }
+            assertTrue(elapsedMillis(start) < 1000);
+
+            // The waiting request gets the permit once it is released
+            limiter.release();
+            waiter.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRateAllowsABurstThenSpacesRequests() throws BridgeError {
+        InfobloxRateLimiter limiter = limiter(0, 20, 10, 5000);
+        long start = System.nanoTime();
+        // The bucket holds a second of tokens
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+        }
+        assertTrue(elapsedMillis(start) < 40);
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        // Four more tokens at 20 per second
+        assertTrue(elapsedMillis(start) >= 180);
+    }
+
+    @Test
+    public void testRateWaitLongerThanTimeoutFails() throws BridgeError {
+        InfobloxRateLimiter limiter = limiter(1, 1, 10, 100);
+        limiter.acquire();
+        limiter.release();
+        long start = System.nanoTime();
+        try {
+            limiter.acquire();
+            fail("Expected the request to time out waiting for a token");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().startsWith("Timed out"));
+        }
+        // The request fails without waiting, and gives back its permit so the next one does too
+        assertTrue(elapsedMillis(start) < 90);
+        start = System.nanoTime();
+        try {
+            limiter.acquire();
+            fail("Expected the request to time out waiting for a token");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().startsWith("Timed out"));
+        }
+        assertTrue(elapsedMillis(start) < 90);
+    }
+
+    @Test
+    public void testPauseHoldsBackRequests() throws BridgeError {
+        InfobloxRateLimiter limiter = limiter(0, 0, 10, 5000);
+        limiter.pause(150);
+        long start = System.nanoTime();
+        limiter.acquire();
+        assertTrue(elapsedMillis(start) >= 130);
+
+        limiter = limiter(0, 0, 10, 50);
+        limiter.pause(1000);
+        try {
+            limiter.acquire();
+            fail("Expected the request to time out during the pause");
+        } catch (BridgeError e) {
+            assertTrue(e.getMessage().startsWith("Timed out"));
+        }
+    }
+
+    private static InfobloxRateLimiter limiter(int maxConcurrent, double rate, int maxWaiting, long waitTimeout) {
+        return new InfobloxRateLimiter("http://gm",
+            new InfobloxRateLimiter.Limits(maxConcurrent, rate, maxWaiting, waitTimeout));
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
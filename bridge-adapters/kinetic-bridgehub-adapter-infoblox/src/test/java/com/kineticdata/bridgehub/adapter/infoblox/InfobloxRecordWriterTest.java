@@ -0,0 +1,186 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the writer batches entries and falls back when a batch is rejected.
+ */
+public class InfobloxRecordWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The paths of every POST, in the order sent. */
+    private final List<String> posts = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> written = Collections.synchronizedSet(new LinkedHashSet<String>());
+    private final AtomicInteger refs = new AtomicInteger();
+    private volatile String multiRequestError;
+    private InfobloxRecordWriter writer;
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void testEntriesAreCreatedInBatches() throws BridgeError {
+        writer(2);
+        InfobloxRecordWriter.Report report = writer.write(Arrays.asList(
+            entry(InfobloxRecordWriter.Type.A_AND_PTR, "a"), entry(InfobloxRecordWriter.Type.HOST, "b"),
+            entry(InfobloxRecordWriter.Type.A, "c")));
+
+        // The batches are sent at the same time, and a batch of one entry needs no multi-request
+        assertEquals(2, posts.size());
+        assertTrue(posts.containsAll(Arrays.asList("/wapi/v1.0/request", "/wapi/v1.0/record:a")));
+        assertEquals(3, report.getSucceeded());
+        assertEquals(4, report.getRecordsCreated());
+        List<String> created = report.getResults().get(0).getRefs();
+        assertTrue(created.get(0).startsWith("record:a/") && created.get(1).startsWith("record:ptr/"));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("record:a", "record:ptr", "ipv4address", "record:host")),
+            written);
+    }
+
+    @Test
+    public void testRejectedBatchIsSentOneEntryAtATime() throws BridgeError {
+        writer(10);
+        InfobloxRecordWriter.Report report = writer.write(Arrays.asList(
+            entry(InfobloxRecordWriter.Type.A, "a"), entry(InfobloxRecordWriter.Type.A, "exists"),
+            entry(InfobloxRecordWriter.Type.A_AND_PTR, "c")));
+
+        assertEquals(Arrays.asList("/wapi/v1.0/request", "/wapi/v1.0/record:a", "/wapi/v1.0/record:a",
+            "/wapi/v1.0/request"), posts);
+        assertEquals(2, report.getSucceeded());
+        assertEquals("The record already exists.", report.getFailures().get(0).getError());
+        assertSame(report.getResults().get(1), report.getFailures().get(0));
+    }
+
+    @Test
+    public void testUnknownObjectOfAnEntryKeepsBatching() throws BridgeError {
+        multiRequestError = "Unknown object type (record:aaaa)";
+        writer(10);
+        writer.write(Arrays.asList(entry(InfobloxRecordWriter.Type.A, "a"), entry(InfobloxRecordWriter.Type.A, "b")));
+        multiRequestError = null;
+        posts.clear();
+        writer.write(Arrays.asList(entry(InfobloxRecordWriter.Type.A, "a"), entry(InfobloxRecordWriter.Type.A, "b")));
+
+        assertEquals(Arrays.asList("/wapi/v1.0/request"), posts);
+    }
+
+    @Test
+    public void testUnsupportedGridCreatesRecordsOneAtATime() throws BridgeError {
+        multiRequestError = "Unknown object type (request)";
+        writer(10);
+        InfobloxRecordWriter.Report report = writer.write(Arrays.asList(
+            entry(InfobloxRecordWriter.Type.A, "a"), entry(InfobloxRecordWriter.Type.A, "b")));
+        assertEquals(2, report.getSucceeded());
+
+        posts.clear();
+        report = writer.write(Arrays.asList(entry(InfobloxRecordWriter.Type.A_AND_PTR, "c")));
+        assertEquals(Arrays.asList("/wapi/v1.0/record:a", "/wapi/v1.0/record:ptr"), posts);
+        assertEquals(2, report.getRecordsCreated());
+    }
+
+    @Test
+    public void testUnexpectedErrorOnlyFailsItsBatch() throws BridgeError {
+        writer(2);
+        InfobloxRecordWriter.Report report = writer.write(Arrays.asList(
+            entry(InfobloxRecordWriter.Type.A, "a"), entry(InfobloxRecordWriter.Type.A, "b"),
+            entry(InfobloxRecordWriter.Type.A, "crash"), entry(InfobloxRecordWriter.Type.A, "d")));
+
+        assertEquals(4, report.getResults().size());
+        assertEquals(2, report.getSucceeded());
+        assertTrue(report.getResults().get(0).isSuccess());
+        assertTrue(report.getResults().get(1).isSuccess());
+        assertTrue(report.getResults().get(2).getError().contains("Unexpected sender failure"));
+        assertFalse(report.getResults().get(3).isSuccess());
+        // The listener is still told about every structure
+        assertTrue(written.contains("record:a"));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private void writer(int batchSize) {
+        writer = new InfobloxRecordWriter(sender(), new InfobloxRecordWriter.Listener() {
+            @Override
+            public void written(Set<String> structures) {
+                written.addAll(structures);
+            }
+        }, "/wapi/v1.0", batchSize, 2);
+    }
+
+    private static InfobloxRecordWriter.Entry entry(InfobloxRecordWriter.Type type, String name) {
+        return new InfobloxRecordWriter.Entry(type, name + ".example.com", "10.0.0.1");
+    }
+
+    /**
+     * Creates every record except those named exists.example.com, and throws for those named
+     * crash.example.com. Multi-requests fail as a whole, or with the multi-request error if set.
+     */
+    private InfobloxRecordWriter.Sender sender() {
+        return new InfobloxRecordWriter.Sender() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public InfobloxRequestCoalescer.Response post(String path, String body) {
+                posts.add(path);
+                if (body.contains("crash.example.com")) {
+                    throw new IllegalStateException("Unexpected sender failure");
+                }
+                if (!path.endsWith("/request")) {
+                    return response(create(path.substring(path.lastIndexOf('/') + 1),
+                        (Map<String,Object>)JSONValue.parse(body)));
+                }
+                if (multiRequestError != null) {
+                    return response(error(multiRequestError));
+                }
+                JSONArray results = new JSONArray();
+                for (Object request : (JSONArray)JSONValue.parse(body)) {
+                    Object result = create((String)((JSONObject)request).get("object"),
+                        (Map<String,Object>)((JSONObject)request).get("data"));
+                    if (result instanceof JSONObject) {
+                        return response(result);
+                    }
+                    results.add(result);
+                }
+                return response(results);
+            }
+        };
+    }
+
+    private Object create(String object, Map<String,Object> data) {
+        if ("exists.example.com".equals(data.get("name"))) {
+            return error("The record already exists.");
+        }
+        return object + "/" + refs.incrementAndGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject error(String text) {
+        JSONObject error = new JSONObject();
+        error.put("Error", "AdmConDataError: " + text);
+        error.put("text", text);
+        return error;
+    }
+
+    private static InfobloxRequestCoalescer.Response response(Object body) {
+        return new InfobloxRequestCoalescer.Response(JSONValue.toJSONString(body).getBytes(UTF_8), UTF_8,
+            "http://gm");
+    }
+}
@@ -0,0 +1,291 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the batcher combines GETs into multi-requests and falls back when they fail.
+ */
+public class InfobloxRequestBatcherTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String NETWORKS = "/wapi/v1.0/network?_return_fields=network,comment";
+    private static final String HOSTS = "/wapi/v1.0/record:host?name=a.example.com&_max_results=-2";
+    private static final String UNKNOWN = "/wapi/v1.0/fixedaddres?_max_results=-2";
+
+    private final List<String> gets = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> posts = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean multiRequestSupported = true;
+    /** Milliseconds a multi-request that includes a network GET takes. */
+    private volatile long networkDelay;
+    private InfobloxRequestBatcher batcher;
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testPagingRequestsAreNotBatchable() {
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 0, 10);
+
+        assertTrue(batcher.isBatchable(NETWORKS));
+        assertFalse(batcher.isBatchable(NETWORKS + "&_paging=1&_return_as_object=1&_max_results=10"));
+        assertFalse(batcher.isBatchable("/wapi/v1.0/network?_page_id=abc"));
+        assertFalse(batcher.isBatchable("/wapi/v1.0/network?comment=a&comment=b"));
+        assertFalse(batcher.isBatchable("/wapi/v2.0/network"));
+        assertFalse(batcher.isBatchable("/wapi/v1.0/request"));
+    }
+
+    @Test
+    public void testExecuteAllSendsOneMultiRequest() throws BridgeError {
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 0, 10);
+        List<InfobloxRequestCoalescer.Response> responses = batcher.executeAll(Arrays.asList(NETWORKS, HOSTS));
+
+        assertEquals(1, posts.size());
+        assertEquals("[{\"method\":\"GET\",\"object\":\"network\",\"args\":{\"_return_fields\":\"network,comment\"}},"
+            + "{\"method\":\"GET\",\"object\":\"record:host\",\"data\":{\"name\":\"a.example.com\"},"
+            + "\"args\":{\"_max_results\":\"-2\"}}]", posts.get(0));
+        assertTrue(gets.isEmpty());
+        assertEquals(1, batcher.getBatches());
+        assertEquals(2, batcher.getBatchedRequests());
+
+        assertEquals("http://gm", responses.get(0).getOrigin());
+        List<JSONObject> networks = new ArrayList<>();
+        assertEquals(1, responses.get(0).parse(collector(networks), null).getCount());
+        assertEquals("10.0.0.0/24", networks.get(0).get("network"));
+        assertEquals("a.example.com", ((JSONObject)((JSONArray)responses.get(1).getValue()).get(0)).get("name"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testParsedResultsAreNotChangedByReaders() throws BridgeError {
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 0, 10);
+        InfobloxRequestCoalescer.Response response = batcher.executeAll(Arrays.asList(NETWORKS, HOSTS)).get(0);
+
+        List<JSONObject> filtered = new ArrayList<>();
+        response.parse(collector(filtered), new HashSet<>(Arrays.asList("_ref", "network")));
+        filtered.get(0).put("network", "changed");
+        assertEquals(new HashSet<>(Arrays.asList("_ref", "network")), filtered.get(0).keySet());
+
+        List<JSONObject> all = new ArrayList<>();
+        response.parse(collector(all), null);
+        assertEquals("10.0.0.0/24", all.get(0).get("network"));
+        assertEquals("net", all.get(0).get("comment"));
+    }
+
+    @Test
+    public void testBatchesAreLimitedInSize() throws BridgeError {
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 0, 2);
+        batcher.executeAll(Arrays.asList(NETWORKS, HOSTS, NETWORKS));
+
+        // A multi-request of one saves nothing, so the last request is sent on its own
+        assertEquals(1, posts.size());
+        assertEquals(Arrays.asList(NETWORKS), gets);
+    }
+
+    @Test
+    public void testFailedEntryOnlyFailsItsOwnRequest() throws BridgeError {
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 0, 10);
+        List<InfobloxRequestCoalescer.Response> responses = batcher.executeAll(Arrays.asList(NETWORKS, UNKNOWN));
+
+        assertEquals(1, batcher.getFallbacks());
+        assertEquals(Arrays.asList(NETWORKS, UNKNOWN), gets);
+        assertTrue(responses.get(0).parse(null, null).hasResults());
+        assertEquals("Unknown object type (fixedaddres)", responses.get(1).parse(null, null).getErrorText());
+
+        // An unknown object within the batch does not mean multi-requests are unsupported
+        batcher.executeAll(Arrays.asList(NETWORKS, HOSTS));
+        assertEquals(2, posts.size());
+        assertEquals(1, batcher.getBatches());
+    }
+
+    @Test
+    public void testUnsupportedGridTurnsBatchingOff() throws BridgeError {
+        multiRequestSupported = false;
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 50, 10);
+        assertTrue(batcher.isWindowed());
+        List<InfobloxRequestCoalescer.Response> responses = batcher.executeAll(Arrays.asList(NETWORKS, HOSTS));
+
+        assertEquals(1, responses.get(1).parse(null, null).getCount());
+        assertFalse(batcher.isWindowed());
+        batcher.executeAll(Arrays.asList(NETWORKS, HOSTS));
+        assertEquals(1, posts.size());
+        assertEquals(4, gets.size());
+    }
+
+    @Test
+    public void testConcurrentSubmitsShareAMultiRequest() throws Exception {
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 200, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (final String path : new String[] {NETWORKS, HOSTS, NETWORKS}) {
+                tasks.add(new Callable<Long>() {
+                    @Override
+                    public Long call() throws BridgeError {
+                        return batcher.submit(path).parse(null, null).getCount();
+                    }
+                });
+            }
+            for (Future<Long> count : executor.invokeAll(tasks)) {
+                assertEquals(Long.valueOf(1), count.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, posts.size());
+        assertEquals(3, batcher.getBatchedRequests());
+        assertTrue(gets.isEmpty());
+    }
+
+    @Test
+    public void testSlowBatchDoesNotHoldBackTheNextWindow() throws Exception {
+        networkDelay = 1000;
+        batcher = new InfobloxRequestBatcher(sender(), "/wapi/v1.0", 50, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Long>> slow = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                slow.add(executor.submit(submitter(NETWORKS)));
+            }
+            Thread.sleep(150);
+            long start = System.nanoTime();
+            List<Future<Long>> fast = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                fast.add(executor.submit(submitter(HOSTS)));
+            }
+            for (Future<Long> count : fast) {
+                assertEquals(Long.valueOf(1), count.get());
+            }
+            // The second window is sent while the first multi-request is still waiting
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 700);
+            assertFalse(slow.get(0).isDone());
+            for (Future<Long> count : slow) {
+                assertEquals(Long.valueOf(1), count.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, posts.size());
+    }
+
+    @Test
+    public void testMultiRequestUnsupportedOnlyForTheRequestObject() {
+        assertTrue(InfobloxRequestBatcher.isMultiRequestUnsupported(
+            "AdmConProtoError: Unknown object type (request)"));
+        assertFalse(InfobloxRequestBatcher.isMultiRequestUnsupported(
+            "AdmConProtoError: Unknown object type (record:hosts)"));
+        assertFalse(InfobloxRequestBatcher.isMultiRequestUnsupported(null));
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    /** Answers network and record:host GETs, and multi-requests made of them. */
+    private InfobloxRequestBatcher.Sender sender() {
+        return new InfobloxRequestBatcher.Sender() {
+            @Override
+            public InfobloxRequestCoalescer.Response get(String path) {
+                gets.add(path);
+                String object = path.substring("/wapi/v1.0/".length(), path.indexOf('?'));
+                return response(answer(object));
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public InfobloxRequestCoalescer.Response post(String path, String body) {
+                posts.add(body);
+                if (networkDelay > 0 && body.contains("\"network\"")) {
+                    try {
+                        Thread.sleep(networkDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (!multiRequestSupported) {
+                    return response(error("Unknown object type (request)"));
+                }
+                JSONArray results = new JSONArray();
+                for (Object entry : (JSONArray)JSONValue.parse(body)) {
+                    Object result = answer((String)((JSONObject)entry).get("object"));
+                    if (result instanceof JSONObject) {
+                        // WAPI fails the whole multi-request
+                        return response(result);
+                    }
+                    results.add(result);
+                }
+                return response(results);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object answer(String object) {
+        JSONObject result = new JSONObject();
+        if (object.equals("network")) {
+            result.put("_ref", "network/1:10.0.0.0/24/default");
+            result.put("network", "10.0.0.0/24");
+            result.put("comment", "net");
+        } else if (object.equals("record:host")) {
+            result.put("_ref", "record:host/1:a.example.com/default");
+            result.put("name", "a.example.com");
+        } else {
+            return error("Unknown object type (" + object + ")");
+        }
+        JSONArray results = new JSONArray();
+        results.add(result);
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject error(String text) {
+        JSONObject error = new JSONObject();
+        error.put("Error", "AdmConProtoError: " + text);
+        error.put("text", text);
+        return error;
+    }
+
+    private static InfobloxRequestCoalescer.Response response(Object body) {
+        return new InfobloxRequestCoalescer.Response(JSONValue.toJSONString(body).getBytes(UTF_8), UTF_8,
+            "http://gm");
+    }
+
+    private Callable<Long> submitter(final String path) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws BridgeError {
+                return batcher.submit(path).parse(null, null).getCount();
+            }
+        };
+    }
+
+    private static InfobloxResponseParser.ResultHandler collector(final List<JSONObject> results) {
+        return new InfobloxResponseParser.ResultHandler() {
+            @Override
+            public void handle(JSONObject result) {
+                results.add(result);
+            }
+        };
+    }
+}
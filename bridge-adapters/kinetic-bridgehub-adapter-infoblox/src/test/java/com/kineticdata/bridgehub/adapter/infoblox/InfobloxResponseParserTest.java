@@ -0,0 +1,179 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the streaming parser against the shapes of WAPI GET responses.
+ */
+public class InfobloxResponseParserTest {
+
+    private static final String HOSTS = "["
+        + "{\"_ref\":\"record:host/1\",\"name\":\"a.example.com\","
+        + "\"ipv4addrs\":[{\"ipv4addr\":\"10.0.0.1\",\"mac\":null},{\"ipv4addr\":\"10.0.0.2\",\"mac\":\"aa:bb\"}],"
+        + "\"extensible_attributes\":{\"Site\":{\"value\":\"Calgary\"},\"name\":{\"value\":\"nested\"}}},"
+        + "{\"_ref\":\"record:host/2\",\"name\":\"b.example.com\",\"ipv4addrs\":[],\"configure_for_dns\":true}"
+        + "]";
+
+    @Test
+    public void testBareArrayBuildsNestedValues() throws BridgeError {
+        List<JSONObject> results = new ArrayList<>();
+        InfobloxResponseParser.Result result = InfobloxResponseParser.parse(
+            new StringReader(HOSTS), collector(results), null);
+
+        assertTrue(result.hasResults());
+        assertEquals(2, result.getCount());
+        assertNull(result.getNextPageId());
+        assertEquals(2, results.size());
+
+        JSONObject first = results.get(0);
+        assertEquals("a.example.com", first.get("name"));
+        JSONArray addresses = (JSONArray)first.get("ipv4addrs");
+        assertEquals(2, addresses.size());
+        assertEquals("10.0.0.1", ((JSONObject)addresses.get(0)).get("ipv4addr"));
+        assertTrue(((JSONObject)addresses.get(0)).containsKey("mac"));
+        assertNull(((JSONObject)addresses.get(0)).get("mac"));
+        assertEquals("aa:bb", ((JSONObject)addresses.get(1)).get("mac"));
+        JSONObject attributes = (JSONObject)first.get("extensible_attributes");
+        assertEquals("Calgary", ((JSONObject)attributes.get("Site")).get("value"));
+
+        JSONObject second = results.get(1);
+        assertEquals(Boolean.TRUE, second.get("configure_for_dns"));
+        assertTrue(((JSONArray)second.get("ipv4addrs")).isEmpty());
+    }
+
+    @Test
+    public void testFieldFilterSkipsOtherTopLevelFields() throws BridgeError {
+        List<JSONObject> results = new ArrayList<>();
+        InfobloxResponseParser.parse(new StringReader(HOSTS), collector(results),
+            new HashSet<>(Arrays.asList("_ref", "name")));
+
+        assertEquals(2, results.size());
+        // Skipped values are dropped whole, including nested properties that share a filtered name
+        assertEquals(new HashSet<>(Arrays.asList("_ref", "name")), results.get(0).keySet());
+        assertEquals("a.example.com", results.get(0).get("name"));
+        assertEquals(new HashSet<>(Arrays.asList("_ref", "name")), results.get(1).keySet());
+    }
+
+    @Test
+    public void testFieldFilterKeepsNestedValuesOfIncludedFields() throws BridgeError {
+        List<JSONObject> results = new ArrayList<>();
+        InfobloxResponseParser.parse(new StringReader(HOSTS), collector(results),
+            new HashSet<>(Arrays.asList("extensible_attributes")));
+
+        JSONObject attributes = (JSONObject)results.get(0).get("extensible_attributes");
+        assertEquals("nested", ((JSONObject)attributes.get("name")).get("value"));
+        assertFalse(results.get(0).containsKey("name"));
+        assertTrue(results.get(1).isEmpty());
+    }
+
+    @Test
+    public void testResultInsideReturnAsObject() throws BridgeError {
+        List<JSONObject> results = new ArrayList<>();
+        InfobloxResponseParser.Result result = InfobloxResponseParser.parse(new StringReader(
+            "{\"next_page_id\":\"789c5590\",\"result\":[{\"_ref\":\"network/1\",\"network\":\"10.0.0.0/24\","
+            + "\"result\":[\"not the results\"]},{\"_ref\":\"network/2\",\"network\":\"10.0.1.0/24\"}]}"),
+            collector(results), null);
+
+        assertTrue(result.hasResults());
+        assertEquals(2, result.getCount());
+        assertEquals("789c5590", result.getNextPageId());
+        assertEquals("10.0.1.0/24", results.get(1).get("network"));
+        // A result property of a result is an ordinary value
+        assertEquals(Arrays.asList("not the results"), results.get(0).get("result"));
+
+        // The envelope records the results without holding them
+        JSONObject envelope = (JSONObject)result.getEnvelope();
+        assertTrue(envelope.containsKey("result"));
+        assertNull(envelope.get("result"));
+    }
+
+    @Test
+    public void testLastPageHasNoNextPageId() throws BridgeError {
+        InfobloxResponseParser.Result result = InfobloxResponseParser.parse(
+            new StringReader("{\"result\":[]}"), collector(new ArrayList<JSONObject>()), null);
+
+        assertTrue(result.hasResults());
+        assertEquals(0, result.getCount());
+        assertNull(result.getNextPageId());
+    }
+
+    @Test
+    public void testCountsWithoutHandler() throws BridgeError {
+        assertEquals(2, InfobloxResponseParser.parse(new StringReader(HOSTS), null, null).getCount());
+        assertEquals(3, InfobloxResponseParser.parse(new StringReader(
+            "{\"result\":[{\"_ref\":\"a\"},{\"_ref\":\"b\"},{\"_ref\":\"c\"}],\"next_page_id\":\"x\"}"),
+            null, null).getCount());
+    }
+
+    @Test
+    public void testErrorResponse() throws BridgeError {
+        InfobloxResponseParser.Result result = InfobloxResponseParser.parse(new StringReader(
+            "{\"Error\":\"AdmConProtoError: Unknown argument/field: nam\",\"code\":\"Client.Ibap.Proto\","
+            + "\"text\":\"Unknown argument/field: nam\"}"), collector(new ArrayList<JSONObject>()), null);
+
+        assertFalse(result.hasResults());
+        assertEquals(0, result.getCount());
+        assertEquals("Unknown argument/field: nam", result.getErrorText());
+    }
+
+    @Test
+    public void testHandlerErrorIsThrown() {
+        final BridgeError error = new BridgeError("Multiple results");
+        try {
+            InfobloxResponseParser.parse(new StringReader(HOSTS), new InfobloxResponseParser.ResultHandler() {
+                @Override
+                public void handle(JSONObject result) throws BridgeError {
+                    throw error;
+                }
+            }, null);
+            fail("Expected the handler's error");
+        } catch (BridgeError e) {
+            assertSame(error, e);
+        }
+    }
+
+    @Test
+    public void testReadingParsedResponses() throws BridgeError {
+        String envelope = "{\"next_page_id\":\"789c5590\",\"result\":" + HOSTS + "}";
+        for (String response : new String[] {HOSTS, envelope}) {
+            List<JSONObject> parsed = new ArrayList<>();
+            InfobloxResponseParser.Result expected = InfobloxResponseParser.parse(
+                new StringReader(response), collector(parsed), new HashSet<>(Arrays.asList("name", "ipv4addrs")));
+            List<JSONObject> read = new ArrayList<>();
+            InfobloxResponseParser.Result actual = InfobloxResponseParser.read(
+                JSONValue.parse(response), collector(read), new HashSet<>(Arrays.asList("name", "ipv4addrs")));
+
+            assertEquals(parsed, read);
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.hasResults(), actual.hasResults());
+            assertEquals(expected.getNextPageId(), actual.getNextPageId());
+            assertEquals(expected.getEnvelope(), actual.getEnvelope());
+        }
+        assertEquals("Unknown argument/field: nam", InfobloxResponseParser.read(
+            JSONValue.parse("{\"text\":\"Unknown argument/field: nam\"}"), null, null).getErrorText());
+    }
+
+    @Test(expected = BridgeError.class)
+    public void testInvalidJson() throws BridgeError {
+        InfobloxResponseParser.parse(new StringReader("<html>Bad Gateway</html>"), null, null);
+    }
+
+    private static InfobloxResponseParser.ResultHandler collector(final List<JSONObject> results) {
+        return new InfobloxResponseParser.ResultHandler() {
+            @Override
+            public void handle(JSONObject result) {
+                results.add(result);
+            }
+        };
+    }
+}
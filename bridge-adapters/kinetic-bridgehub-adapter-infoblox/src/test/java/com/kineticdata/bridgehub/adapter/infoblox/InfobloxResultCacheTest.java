@@ -0,0 +1,229 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONArray;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests expiry, stale refreshes, size bounds, invalidation and copying of cached results.
+ */
+public class InfobloxResultCacheTest {
+
+    /** Holds background refreshes until the test runs them. */
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private final Executor refreshExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            refreshes.add(command);
+        }
+    };
+
+    @Test
+    public void testHitsWithinTtl() throws BridgeError {
+        InfobloxResultCache cache = cache(60000, 0, 1 << 20);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals("value1", cache.get("network", "key", loader, false));
+        assertEquals("value1", cache.get("network", "key", loader, false));
+        assertEquals(1, loader.loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testZeroTtlDisablesCaching() throws BridgeError {
+        InfobloxResultCache cache = cache(0, 0, 1 << 20);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("network", "key", loader, false);
+        cache.get("network", "key", loader, false);
+        assertEquals(2, loader.loads.get());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testStructureTtlOverridesDefault() throws BridgeError {
+        InfobloxResultCache cache = new InfobloxResultCache(60000,
+            Collections.singletonMap("record:host", 0L), 0, 1 << 20, refreshExecutor);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("record:host", "key", loader, false);
+        cache.get("record:host", "key", loader, false);
+        cache.get("network", "key", loader, false);
+        cache.get("network", "key", loader, false);
+        assertEquals(3, loader.loads.get());
+    }
+
+    @Test
+    public void testExpiredEntryIsReloaded() throws Exception {
+        InfobloxResultCache cache = cache(20, 0, 1 << 20);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("network", "key", loader, false);
+        Thread.sleep(40);
+        assertEquals("value2", cache.get("network", "key", loader, false));
+    }
+
+    @Test
+    public void testStaleEntryIsServedWhileRefreshed() throws Exception {
+        InfobloxResultCache cache = cache(20, 60000, 1 << 20);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("network", "key", loader, false);
+        Thread.sleep(40);
+        assertEquals("value1", cache.get("network", "key", loader, false));
+        // A second stale hit does not schedule another refresh
+        assertEquals("value1", cache.get("network", "key", loader, false));
+        assertEquals(1, refreshes.size());
+        assertEquals(2, cache.getStaleHits());
+
+        refreshes.remove(0).run();
+        assertEquals("value2", cache.get("network", "key", loader, false));
+        assertEquals(2, loader.loads.get());
+    }
+
+    @Test
+    public void testBypassReplacesEntry() throws BridgeError {
+        InfobloxResultCache cache = cache(60000, 0, 1 << 20);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("network", "key", loader, false);
+        assertEquals("value2", cache.get("network", "key", loader, true));
+        assertEquals("value2", cache.get("network", "key", loader, false));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws BridgeError {
+        // Room for two of the entries but not three
+        long entrySize = "a".length() * 2 + InfobloxResultCache.estimateSize("value1");
+        InfobloxResultCache cache = cache(60000, 0, entrySize * 2 + 1);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("network", "a", loader, false);
+        cache.get("network", "b", loader, false);
+        cache.get("network", "a", loader, false);
+        cache.get("network", "c", loader, false);
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= entrySize * 2 + 1);
+
+        int loads = loader.loads.get();
+        cache.get("network", "a", loader, false);
+        assertEquals(loads, loader.loads.get());
+        cache.get("network", "b", loader, false);
+        assertEquals(loads + 1, loader.loads.get());
+    }
+
+    @Test
+    public void testInvalidateRemovesOnlyTheStructure() throws BridgeError {
+        InfobloxResultCache cache = cache(60000, 0, 1 << 20);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("network", "a", loader, false);
+        cache.get("record:host", "b", loader, false);
+        cache.invalidate("network");
+        assertEquals(1, cache.getEntryCount());
+        cache.get("record:host", "b", loader, false);
+        assertEquals(2, loader.loads.get());
+        cache.get("network", "a", loader, false);
+        assertEquals(3, loader.loads.get());
+    }
+
+    @Test
+    public void testResultLoadedDuringInvalidationIsNotCached() throws BridgeError {
+        final InfobloxResultCache cache = cache(60000, 0, 1 << 20);
+        cache.get("network", "key", new InfobloxResultCache.Loader<String>() {
+            @Override
+            public String load() {
+                cache.invalidate("network");
+                return "outdated";
+            }
+        }, false);
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testPagesWithATokenAreNotCached() throws BridgeError {
+        InfobloxResultCache cache = cache(60000, 0, 1 << 20);
+        final Map<String,String> metadata = new HashMap<>();
+        InfobloxResultCache.Loader<RecordList> loader = new InfobloxResultCache.Loader<RecordList>() {
+            @Override
+            public RecordList load() {
+                return new RecordList(Arrays.asList("network"), new ArrayList<Record>(), 
+                    new HashMap<>(metadata));
+            }
+        };
+
+        metadata.put("nextPageToken", "token");
+        cache.get("network", "key", loader, false);
+        assertEquals(0, cache.getEntryCount());
+
+        metadata.remove("nextPageToken");
+        cache.get("network", "key", loader, false);
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCallersReceiveCopies() throws BridgeError {
+        InfobloxResultCache cache = cache(60000, 0, 1 << 20);
+        final Map<String,Object> values = new LinkedHashMap<>();
+        values.put("network", "10.0.0.0/24");
+        JSONArray addresses = new JSONArray();
+        addresses.add("10.0.0.1");
+        values.put("addresses", addresses);
+        final Map<String,String> metadata = new HashMap<>();
+        metadata.put("size", "1");
+        InfobloxResultCache.Loader<RecordList> loader = new InfobloxResultCache.Loader<RecordList>() {
+            @Override
+            public RecordList load() {
+                return new RecordList(Arrays.asList("network", "addresses"),
+                    new ArrayList<>(Arrays.asList(new Record(values))), metadata);
+            }
+        };
+
+        RecordList loaded = cache.get("network", "key", loader, false);
+        loaded.getMetadata().put("count", "99");
+        loaded.getRecords().get(0).getRecord().put("network", "changed");
+
+        RecordList first = cache.get("network", "key", loader, false);
+        assertNull(first.getMetadata().get("count"));
+        assertEquals("10.0.0.0/24", first.getRecords().get(0).getRecord().get("network"));
+        first.getMetadata().put("count", "99");
+        ((List<Object>)first.getRecords().get(0).getRecord().get("addresses")).add("10.0.0.2");
+        first.getRecords().clear();
+
+        RecordList second = cache.get("network", "key", loader, false);
+        assertNull(second.getMetadata().get("count"));
+        assertEquals(1, second.getRecords().size());
+        Object secondAddresses = second.getRecords().get(0).getRecord().get("addresses");
+        assertTrue(secondAddresses instanceof JSONArray);
+        assertEquals(Arrays.asList("10.0.0.1"), secondAddresses);
+    }
+
+    private InfobloxResultCache cache(long ttl, long staleTtl, long maxBytes) {
+        return new InfobloxResultCache(ttl, Collections.<String,Long>emptyMap(), staleTtl, maxBytes,
+            refreshExecutor);
+    }
+
+    /** Loads value1, value2 and so on, counting the loads. */
+    private static class CountingLoader implements InfobloxResultCache.Loader<String> {
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String load() {
+            return "value" + loads.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.kineticdata.bridgehub.adapter.infoblox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * A WAPI stand-in on the loopback interface for adapter tests.
+ * <p>
+ * It serves <code>network</code> objects (10.0.0.0/24, 10.0.1.0/24 and so on, with a comment of
+ * "net" followed by their index), filtered on equality, with <code>_max_results</code> and
+ * paging. Like a grid, it rejects the paging arguments before WAPI 1.5. Logins are answered with a
+ * session cookie unless sessions are turned off, and requests without a current session or basic
+ * credentials are answered with a 401. Multi-requests are supported unless turned off, and every
+ * request other than logins and logouts is recorded. Responses are gzip encoded when the request accepts
+ * it. Canned responses can be given for requests whose path and query contain some text.
+ */
+class WapiStub implements Closeable {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<JSONObject> networks = new ArrayList<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> logouts = Collections.synchronizedList(new ArrayList<String>());
+    /** The cookies of the sessions that have not been ended or expired. */
+    private final Set<String> sessions = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final Map<String,Object[]> canned = new ConcurrentHashMap<>();
+    /** The remaining results and the page size of each paging session, by page id. */
+    private final Map<String,Object[]> pages = new ConcurrentHashMap<>();
+    private final AtomicInteger logins = new AtomicInteger();
+    private final AtomicInteger pageIds = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private volatile boolean multiRequestSupported = true;
+    private volatile boolean sessionsIssued = true;
+    private volatile int sessionTimeout = 600;
+    private volatile long delay;
+
+    @SuppressWarnings("unchecked")
+    WapiStub(int networkCount) throws IOException {
+        for (int i = 0; i < networkCount; i++) {
+            JSONObject network = new JSONObject();
+            network.put("_ref", "network/" + i + ":10.0." + i + ".0/24/default");
+            network.put("network", "10.0." + i + ".0/24");
+            network.put("comment", "net" + i);
+            networks.add(network);
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** The method, path and query of every request other than logins, in the order received. */
+    List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    int getLogins() {
+        return logins.get();
+    }
+
+    /** The session cookie, or else the basic credentials, sent with each recorded request. */
+    List<String> getAuthorizations() {
+        synchronized (authorizations) {
+            return new ArrayList<>(authorizations);
+        }
+    }
+
+    /** The session cookie of every logout, in the order received. */
+    List<String> getLogouts() {
+        synchronized (logouts) {
+            return new ArrayList<>(logouts);
+        }
+    }
+
+    /** The number of response body bytes sent for requests other than logins, after encoding. */
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Answers requests whose path and query contain the text with the status and body. */
+    WapiStub respond(String text, int status, String body) {
+        canned.put(text, new Object[] {status, body});
+        return this;
+    }
+
+    WapiStub setMultiRequestSupported(boolean supported) {
+        this.multiRequestSupported = supported;
+        return this;
+    }
+
+    /** Whether logins are answered with a session cookie. */
+    WapiStub setSessionsIssued(boolean issued) {
+        this.sessionsIssued = issued;
+        return this;
+    }
+
+    /** The idle timeout in seconds advertised in the cookie of later logins. */
+    WapiStub setSessionTimeout(int seconds) {
+        this.sessionTimeout = seconds;
+        return this;
+    }
+
+    /** Ends every session, as the grid does when they time out or it restarts. */
+    WapiStub expireSessions() {
+        sessions.clear();
+        return this;
+    }
+
+    /** Milliseconds every response (other than logins) is held back for. */
+    WapiStub setDelay(long millis) {
+        this.delay = millis;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /*---------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *-------------------------------------------------------------------------------------------*/
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String target = exchange.getRequestURI().getRawPath() + (query == null ? "" : "?" + query);
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        if (query != null && query.contains("_schema")) {
+            int login = logins.incrementAndGet();
+            if (sessionsIssued) {
+                String session = "ibapauth=\"ip=127.0.0.1,client=API,group=admin,ctime=1,timeout="
+                    + sessionTimeout + ",mtime=1,su=1,auth=LOCAL,user=admin,sTuB" + login + "\"";
+                sessions.add(session);
+                exchange.getResponseHeaders().add("Set-Cookie", session + "; httponly; Path=/");
+            }
+            send(exchange, 200, "{}".getBytes(UTF_8));
+            return;
+        }
+        if (exchange.getRequestURI().getRawPath().endsWith("/logout")) {
+            logouts.add(cookie);
+            sessions.remove(cookie);
+            send(exchange, 200, "{}".getBytes(UTF_8));
+            return;
+        }
+        requests.add(exchange.getRequestMethod() + " " + target);
+        String authorization = cookie != null ? cookie : exchange.getRequestHeaders().getFirst("Authorization");
+        authorizations.add(authorization);
+        if (cookie != null ? !sessions.contains(cookie) : authorization == null) {
+            send(exchange, 401, "{\"Error\":\"AdmConProtoError: Authentication required\"}");
+            return;
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Map.Entry<String,Object[]> entry : canned.entrySet()) {
+            if (target.contains(entry.getKey())) {
+                send(exchange, (Integer)entry.getValue()[0], (String)entry.getValue()[1]);
+                return;
+            }
+        }
+
+        String path = exchange.getRequestURI().getRawPath();
+        String version = path.substring("/wapi/v".length(), path.indexOf('/', "/wapi/".length()));
+        String object = path.substring(path.indexOf('/', "/wapi/".length()) + 1);
+        Object response;
+        if ("POST".equals(exchange.getRequestMethod()) && "request".equals(object)) {
+            response = multiRequest((JSONArray)JSONValue.parse(
+                new InputStreamReader(exchange.getRequestBody(), UTF_8)));
+        } else {
+            Map<String,String> parameters = new LinkedHashMap<>();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    parameters.put(decode(equals < 0 ? parameter : parameter.substring(0, equals)),
+                        equals < 0 ? "" : decode(parameter.substring(equals + 1)));
+                }
+            }
+            String rejected = hasPaging(version) ? null : rejectPaging(parameters);
+            response = rejected != null ? rejected : get(object, parameters);
+        }
+        if (response instanceof String) {
+            send(exchange, 400, (String)response);
+        } else {
+            send(exchange, 200, JSONValue.toJSONString(response));
+        }
+    }
+
+    /** Returns the results, or the text of a WAPI error. */
+    @SuppressWarnings("unchecked")
+    private Object get(String object, Map<String,String> parameters) {
+        if (parameters.containsKey("_page_id")) {
+            Object[] cursor = pages.remove(parameters.get("_page_id"));
+            if (cursor == null) {
+                return error("Page id not found");
+            }
+            return page((List<JSONObject>)cursor[0], (Integer)cursor[1]);
+        }
+        if (!"network".equals(object)) {
+            return error("Unknown object type (" + object + ")");
+        }
+        List<JSONObject> matches = new ArrayList<>();
+        for (JSONObject network : networks) {
+            boolean matched = true;
+            for (Map.Entry<String,String> parameter : parameters.entrySet()) {
+                if (!parameter.getKey().startsWith("_")
+                    && !parameter.getValue().equals(network.get(parameter.getKey())))
+                {
+                    matched = false;
+                }
+            }
+            if (matched) {
+                matches.add(network);
+            }
+        }
+        int maxResults = parameters.containsKey("_max_results")
+            ? Integer.parseInt(parameters.get("_max_results")) : Integer.MAX_VALUE;
+        if ("1".equals(parameters.get("_paging"))) {
+            return page(matches, maxResults);
+        }
+        if (maxResults >= 0 && matches.size() > maxResults) {
+            return error("Result set too large (> " + maxResults + ")");
+        }
+        // A negative limit truncates the results rather than failing
+        JSONArray results = new JSONArray();
+        results.addAll(maxResults < 0 ? matches.subList(0, Math.min(matches.size(), -maxResults)) : matches);
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject page(List<JSONObject> matches, int pageSize) {
+        JSONObject envelope = new JSONObject();
+        JSONArray results = new JSONArray();
+        results.addAll(matches.subList(0, Math.min(matches.size(), pageSize)));
+        envelope.put("result", results);
+        if (matches.size() > pageSize) {
+            String pageId = "page" + pageIds.incrementAndGet();
+            pages.put(pageId, new Object[] {new ArrayList<>(matches.subList(pageSize, matches.size())), pageSize});
+            envelope.put("next_page_id", pageId);
+        }
+        return envelope;
+    }
+
+    /** Whether the WAPI version has paging, which was added in WAPI 1.5. */
+    private static boolean hasPaging(String version) {
+        String[] parts = version.split("\\.");
+        int major = Integer.parseInt(parts[0]);
+        return major > 1 || (major == 1 && parts.length > 1 && Integer.parseInt(parts[1]) >= 5);
+    }
+
+    /** Returns the error for the first paging argument, or null if there are none. */
+    private static String rejectPaging(Map<String,String> parameters) {
+        for (String argument : new String[] {"_paging", "_return_as_object", "_page_id"}) {
+            if (parameters.containsKey(argument)) {
+                return error("Unknown argument/field: " + argument);
+            }
+        }
+        return null;
+    }
+
+    /** Answers every entry of the multi-request, or fails the whole request like WAPI does. */
+    @SuppressWarnings("unchecked")
+    private Object multiRequest(JSONArray entries) {
+        if (!multiRequestSupported) {
+            return error("Unknown object type (request)");
+        }
+        JSONArray responses = new JSONArray();
+        for (Object entry : entries) {
+            JSONObject request = (JSONObject)entry;
+            Map<String,String> parameters = new LinkedHashMap<>();
+            for (String part : new String[] {"data", "args"}) {
+                if (request.get(part) != null) {
+                    parameters.putAll((Map<String,String>)request.get(part));
+                }
+            }
+            Object response = get((String)request.get("object"), parameters);
+            if (response instanceof String) {
+                return response;
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private static String error(String text) {
+        return "{\"Error\":\"AdmConProtoError: " + text + "\",\"code\":\"Client.Ibap.Proto\",\"text\":\""
+            + text + "\"}";
+    }
+
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accepted != null && accepted.contains("gzip")) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(encoded)) {
+                out.write(bytes);
+            }
+            bytes = encoded.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        bytesSent.addAndGet(bytes.length);
+        send(exchange, status, bytes);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}